@@ -0,0 +1,87 @@
+package com.luxoft.fabric.events;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Checkpoint throughput of the built-in persisters: one cursor update per operation,
+ * as the tracker does after each event.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PersisterBenchmark {
+
+    /**
+     * mapped - memory-mapped file without fsync, mapped-force-N - with fsync every N updates,
+     * jdbc - H2 file database, jdbc-checkpointing - the same behind {@link CheckpointingPersister}
+     */
+    @Param({"mapped", "mapped-force-1", "mapped-force-100", "jdbc", "jdbc-checkpointing"})
+    public String persisterType;
+
+    private Path directory;
+    private Persister persister;
+    private long blockNumber = 0;
+
+    @Setup
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("persister-benchmark");
+        switch (persisterType) {
+            case "mapped":
+                persister = new MappedFilePersister(directory.resolve("checkpoint"));
+                break;
+            case "mapped-force-1":
+                persister = new MappedFilePersister(directory.resolve("checkpoint"), 4096, 1);
+                break;
+            case "mapped-force-100":
+                persister = new MappedFilePersister(directory.resolve("checkpoint"), 4096, 100);
+                break;
+            case "jdbc":
+                persister = newJdbcPersister();
+                break;
+            case "jdbc-checkpointing":
+                persister = new CheckpointingPersister(newJdbcPersister(), 100, 1000);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown persister type: " + persisterType);
+        }
+    }
+
+    private JdbcPersister newJdbcPersister() throws Exception {
+        final JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:" + directory.resolve("db"));
+        final JdbcPersister jdbcPersister = new JdbcPersister(dataSource);
+        jdbcPersister.createTable();
+        return jdbcPersister;
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        if (persister instanceof AutoCloseable)
+            ((AutoCloseable) persister).close();
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach((path) -> {
+                try {
+                    Files.delete(path);
+                } catch (IOException e) {
+                    // temporary directory
+                }
+            });
+        }
+    }
+
+    @Benchmark
+    public void setCursor() {
+        persister.setCursor("mychannel", new EventCursor(++blockNumber));
+    }
+}
@@ -0,0 +1,58 @@
+package com.luxoft.fabric.events;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Message;
+import org.hyperledger.fabric.protos.common.Common;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Event payload decoding by {@link ProtobufMessagePayloadDecoder}, compared with the previous
+ * implementation, which created the message builder through reflection for every event.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProtobufPayloadDecoderBenchmark {
+
+    private final ProtobufMessagePayloadDecoder<Common.ChannelHeader> decoder = new ProtobufMessagePayloadDecoder<>(Common.ChannelHeader.class);
+    private byte[] payloadBytes;
+    private ByteString payload;
+
+    @Setup
+    public void setUp() {
+        payload = Common.ChannelHeader.newBuilder()
+                .setType(Common.HeaderType.ENDORSER_TRANSACTION_VALUE)
+                .setChannelId("mychannel")
+                .setTxId("0123456789abcdef0123456789abcdef0123456789abcdef0123456789abcdef")
+                .setEpoch(7)
+                .build()
+                .toByteString();
+        payloadBytes = payload.toByteArray();
+    }
+
+    @Benchmark
+    public Message reflectiveBuilder() throws Exception {
+        final Method newBuilder = Common.ChannelHeader.class.getMethod("newBuilder");
+        final Message.Builder builder = (Message.Builder) newBuilder.invoke(null);
+        return builder.mergeFrom(payloadBytes).build();
+    }
+
+    @Benchmark
+    public Message decodeBytes() throws Exception {
+        return decoder.decode(payloadBytes);
+    }
+
+    /**
+     * Payload taken from the event without copying to byte[]
+     */
+    @Benchmark
+    public Message decodeByteString() throws Exception {
+        return decoder.decode(payload);
+    }
+}
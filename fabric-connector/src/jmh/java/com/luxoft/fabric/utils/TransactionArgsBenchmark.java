@@ -0,0 +1,122 @@
+package com.luxoft.fabric.utils;
+
+import com.google.protobuf.ByteString;
+import org.hyperledger.fabric.protos.common.Common;
+import org.hyperledger.fabric.protos.peer.Chaincode;
+import org.hyperledger.fabric.protos.peer.FabricProposal;
+import org.hyperledger.fabric.protos.peer.FabricProposalResponse;
+import org.hyperledger.fabric.protos.peer.FabricTransaction;
+import org.hyperledger.fabric.sdk.BlockInfo;
+import org.hyperledger.fabric.sdk.SdkTxUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Extraction of chaincode arguments of all the transactions of the large block:
+ * through the SDK action views, the memoizing transaction views and the flyweight scan.
+ * Block is wrapped anew on every operation, so nothing is parsed in advance.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TransactionArgsBenchmark {
+
+    @Param({"5000"})
+    public int transactions;
+
+    @Param({"2000"})
+    public int argSize;
+
+    private Common.Block block;
+
+    @Setup
+    public void setUp() {
+        final Common.BlockData.Builder data = Common.BlockData.newBuilder();
+        for (int i = 0; i < transactions; ++i)
+            data.addData(newEnvelope(i).toByteString());
+
+        final Common.BlockMetadata.Builder metadata = Common.BlockMetadata.newBuilder();
+        for (int i = 0; i < 4; ++i)
+            metadata.addMetadata(i == Common.BlockMetadataIndex.TRANSACTIONS_FILTER_VALUE ? ByteString.copyFrom(new byte[transactions]) : ByteString.EMPTY);
+        block = Common.Block.newBuilder()
+                .setHeader(Common.BlockHeader.newBuilder().setNumber(1))
+                .setData(data)
+                .setMetadata(metadata)
+                .build();
+    }
+
+    private Common.Envelope newEnvelope(int index) {
+        final Chaincode.ChaincodeInvocationSpec invocationSpec = Chaincode.ChaincodeInvocationSpec.newBuilder()
+                .setChaincodeSpec(Chaincode.ChaincodeSpec.newBuilder()
+                        .setInput(Chaincode.ChaincodeInput.newBuilder()
+                                .addArgs(ByteString.copyFromUtf8("put"))
+                                .addArgs(ByteString.copyFromUtf8("key" + index))
+                                .addArgs(ByteString.copyFrom(new byte[argSize]))))
+                .build();
+        final FabricTransaction.ChaincodeActionPayload actionPayload = FabricTransaction.ChaincodeActionPayload.newBuilder()
+                .setChaincodeProposalPayload(FabricProposal.ChaincodeProposalPayload.newBuilder()
+                        .setInput(invocationSpec.toByteString()).build().toByteString())
+                .setAction(FabricTransaction.ChaincodeEndorsedAction.newBuilder()
+                        .setProposalResponsePayload(FabricProposalResponse.ProposalResponsePayload.newBuilder()
+                                .setExtension(FabricProposal.ChaincodeAction.getDefaultInstance().toByteString())
+                                .build().toByteString()))
+                .build();
+        final FabricTransaction.Transaction transaction = FabricTransaction.Transaction.newBuilder()
+                .addActions(FabricTransaction.TransactionAction.newBuilder().setPayload(actionPayload.toByteString()))
+                .build();
+        final Common.ChannelHeader channelHeader = Common.ChannelHeader.newBuilder()
+                .setType(Common.HeaderType.ENDORSER_TRANSACTION_VALUE)
+                .setTxId("tx" + index)
+                .build();
+        final Common.Payload payload = Common.Payload.newBuilder()
+                .setHeader(Common.Header.newBuilder()
+                        .setChannelHeader(channelHeader.toByteString())
+                        .setSignatureHeader(Common.SignatureHeader.getDefaultInstance().toByteString()))
+                .setData(transaction.toByteString())
+                .build();
+        return Common.Envelope.newBuilder().setPayload(payload.toByteString()).build();
+    }
+
+    @Benchmark
+    public long sdkActionInfo() {
+        long size = 0;
+        for (Iterator<BlockInfo.TransactionEnvelopeInfo> iterator = TxUtils.getBlockTransactions(SdkTxUtil.newBlockInfo(block)); iterator.hasNext(); ) {
+            for (BlockInfo.TransactionEnvelopeInfo.TransactionActionInfo actionInfo : iterator.next().getTransactionActionInfos()) {
+                final int count = actionInfo.getChaincodeInputArgsCount();
+                for (int i = 0; i < count; ++i)
+                    size += actionInfo.getChaincodeInputArgs(i).length;
+            }
+        }
+        return size;
+    }
+
+    @Benchmark
+    public long transactionViews() {
+        long size = 0;
+        for (Iterator<BlockInfo.TransactionEnvelopeInfo> iterator = TxUtils.getBlockTransactions(SdkTxUtil.newBlockInfo(block)); iterator.hasNext(); ) {
+            for (SdkTxUtil.TransactionActionInfoEx action : SdkTxUtil.getTransaction(iterator.next()).getActions()) {
+                final int count = action.getArgsCount();
+                for (int i = 0; i < count; ++i)
+                    size += action.getArg(i).size();
+            }
+        }
+        return size;
+    }
+
+    @Benchmark
+    public long flyweightScan() {
+        long size = 0;
+        for (Iterator<SdkTxUtil.TransactionActionInfoEx> iterator = TxUtils.scanBlockActions(SdkTxUtil.newBlockInfo(block)); iterator.hasNext(); ) {
+            final SdkTxUtil.TransactionActionInfoEx action = iterator.next();
+            final int count = action.getArgsCount();
+            for (int i = 0; i < count; ++i)
+                size += action.getArg(i).size();
+        }
+        return size;
+    }
+}
@@ -0,0 +1,204 @@
+package com.luxoft.fabric.events;
+
+import com.luxoft.fabric.events.ordering.SerialExecutor;
+import org.hyperledger.fabric.sdk.BlockEvent;
+import org.hyperledger.fabric.sdk.BlockListener;
+import org.hyperledger.fabric.sdk.Channel;
+import org.hyperledger.fabric.sdk.exception.InvalidArgumentException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.ref.WeakReference;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Shares the channel's block stream between any number of in-process consumers,
+ * e.g. several trackers of the same channel (see {@link OrderingEventTracker#setSharedBlockHub(boolean)}).
+ * <p>
+ * Hub registers a single block listener on the channel, drops copies of blocks delivered
+ * by several peers, and keeps the recent blocks in the ring buffer. Each consumer reads
+ * the buffer at its own pace on its own executor. Consumer, which falls behind the buffer,
+ * skips the overwritten blocks and is expected to fetch them itself, the tracker does it
+ * for the missing blocks anyway. Blocks still in the buffer are available to consumers'
+ * catch-up fetches via {@link #getBlock(long)}.
+ * <p>
+ * Shared hub lives as long as the channel keeps its block listener registered, the registry
+ * doesn't keep the hub or the channel from being collected.
+ */
+public class BlockHub {
+
+    private static final Logger logger = LoggerFactory.getLogger(BlockHub.class);
+
+    public static final int DEFAULT_CAPACITY = 256;
+
+    /* Hub references the channel, so the value is weak too, channel's block listener keeps the hub */
+    private static final Map<Channel, WeakReference<BlockHub>> hubs = new WeakHashMap<>();
+
+    private final Channel channel;
+    private final String listenerHandle;
+    private final PeerStreamMetrics peerStreamMetrics = new PeerStreamMetrics();
+    private final List<Consumer> consumers = new CopyOnWriteArrayList<>();
+    private final BlockEvent[] ring;
+    /* Number of blocks ever put to the ring, the next block goes to ring[sequence % capacity] */
+    private long sequence = 0;
+
+    /**
+     * Consumer of the hub, reading blocks in order of arrival
+     */
+    public class Consumer implements AutoCloseable {
+        private final BlockListener listener;
+        private final Executor executor;
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private volatile boolean closed = false;
+        /* Sequence of the next block to deliver */
+        private long cursor;
+        private volatile long skippedBlocks = 0;
+
+        private Consumer(Executor executor, BlockListener listener) {
+            this.listener = listener;
+            this.executor = new SerialExecutor(executor);
+        }
+
+        private void signal() {
+            if (!closed && scheduled.compareAndSet(false, true))
+                executor.execute(this::drain);
+        }
+
+        private void drain() {
+            scheduled.set(false);
+            while (!closed) {
+                final BlockEvent blockEvent;
+                synchronized (BlockHub.this) {
+                    if (cursor == sequence)
+                        return;
+
+                    if (sequence - cursor > ring.length) {
+                        skippedBlocks += sequence - cursor - ring.length;
+                        logger.warn("Consumer of channel {} fell behind the buffer, skip {} blocks",
+                                channel.getName(), sequence - cursor - ring.length);
+                        cursor = sequence - ring.length;
+                    }
+                    blockEvent = ring[(int) (cursor++ % ring.length)];
+                }
+
+                try {
+                    listener.received(blockEvent);
+                } catch (RuntimeException e) {
+                    logger.error("Block listener failed on block {}", blockEvent.getBlockNumber(), e);
+                }
+            }
+        }
+
+        /**
+         * @return number of blocks overwritten before the consumer got them
+         */
+        public long getSkippedBlocks() {
+            return skippedBlocks;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            consumers.remove(this);
+        }
+    }
+
+    /**
+     * Hub of the channel, shared by all the callers
+     */
+    public static BlockHub of(Channel channel) throws InvalidArgumentException {
+        synchronized (hubs) {
+            final WeakReference<BlockHub> hubRef = hubs.get(channel);
+            BlockHub hub = hubRef != null ? hubRef.get() : null;
+            if (hub == null) {
+                hub = new BlockHub(channel, DEFAULT_CAPACITY);
+                hubs.put(channel, new WeakReference<>(hub));
+            }
+            return hub;
+        }
+    }
+
+    /**
+     * Create private hub
+     * @param capacity number of recent blocks to keep
+     */
+    public BlockHub(Channel channel, int capacity) throws InvalidArgumentException {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        this.channel = channel;
+        this.ring = new BlockEvent[capacity];
+        this.listenerHandle = channel.registerBlockListener(this::onBlock);
+    }
+
+    /**
+     * Called by SDK delivery thread
+     */
+    private void onBlock(BlockEvent blockEvent) {
+        if (!peerStreamMetrics.onBlock(PeerStreamMetrics.getSourceName(blockEvent), blockEvent.getBlockNumber()))
+            return;
+
+        synchronized (this) {
+            ring[(int) (sequence++ % ring.length)] = blockEvent;
+        }
+        for (Consumer consumer : consumers)
+            consumer.signal();
+    }
+
+    /**
+     * Add consumer, called in the SDK delivery thread. Listener should be fast.
+     */
+    public Consumer addBlockListener(BlockListener listener) {
+        return addBlockListener(Runnable::run, listener);
+    }
+
+    /**
+     * Add consumer, blocks are delivered one by one on the executor. The consumer gets
+     * the blocks kept in the buffer first, then the new ones.
+     */
+    public Consumer addBlockListener(Executor executor, BlockListener listener) {
+        final Consumer consumer = new Consumer(executor, listener);
+        synchronized (this) {
+            consumer.cursor = Math.max(0, sequence - ring.length);
+        }
+        consumers.add(consumer);
+        consumer.signal();
+        return consumer;
+    }
+
+    /**
+     * @return the block, if it is still in the buffer, null otherwise
+     */
+    public synchronized BlockEvent getBlock(long blockNumber) {
+        for (long i = sequence - 1; i >= 0 && i >= sequence - ring.length; --i) {
+            final BlockEvent blockEvent = ring[(int) (i % ring.length)];
+            if (blockEvent.getBlockNumber() == blockNumber)
+                return blockEvent;
+        }
+        return null;
+    }
+
+    public Channel getChannel() {
+        return channel;
+    }
+
+    public PeerStreamMetrics getPeerStreamMetrics() {
+        return peerStreamMetrics;
+    }
+
+    /**
+     * Unregister from the channel. Consumers get no more blocks.
+     */
+    public void close() throws InvalidArgumentException {
+        synchronized (hubs) {
+            final WeakReference<BlockHub> hubRef = hubs.get(channel);
+            if (hubRef != null && hubRef.get() == this)
+                hubs.remove(channel);
+        }
+        channel.unregisterBlockListener(listenerHandle);
+    }
+}
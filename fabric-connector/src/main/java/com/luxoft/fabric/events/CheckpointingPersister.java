@@ -0,0 +1,159 @@
+package com.luxoft.fabric.events;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link Persister} wrapper, which coalesces cursor updates and writes them to the
+ * underlying persister asynchronously: after {@code maxUpdates} updates or {@code maxDelayMillis}
+ * since the first unsaved update, whichever comes first, and on {@link #close()}.
+ * The tracker updates the cursor after every event, so {@code maxUpdates} counts events,
+ * not blocks. {@link OrderingEventTracker#close()} closes the persister it was given.
+ * <p>
+ * Delivery stays at-least-once: when the application crashes, events processed after the
+ * last write are processed again on restart.
+ */
+public class CheckpointingPersister implements Persister, AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(CheckpointingPersister.class);
+
+    private final Persister persister;
+    private final int maxUpdates;
+    private final long maxDelayMillis;
+    private final ScheduledExecutorService executorService = Executors.newSingleThreadScheduledExecutor(r -> {
+        final Thread thread = new Thread(r, "checkpointing-persister");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Object flushLock = new Object();
+    private final Map<String, EventCursor> cursors = new HashMap<>();
+    private final Set<String> dirty = new HashSet<>();
+    private int pendingUpdates = 0;
+    private ScheduledFuture<?> scheduledFlush = null;
+
+    /**
+     * @param persister      underlying persister
+     * @param maxUpdates     number of cursor updates (events processed by the tracker),
+     *                       after which the state is written immediately
+     * @param maxDelayMillis maximum time, the update can stay unsaved
+     */
+    public CheckpointingPersister(Persister persister, int maxUpdates, long maxDelayMillis) {
+        this.persister = Objects.requireNonNull(persister);
+        this.maxUpdates = maxUpdates;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    @Override
+    public long getStartBlock(String channelName) {
+        synchronized (this) {
+            final EventCursor cursor = cursors.get(channelName);
+            if (cursor != null)
+                return cursor.getBlockNumber();
+        }
+        return persister.getStartBlock(channelName);
+    }
+
+    @Override
+    public void setStartBlock(String channelName, long startBlock) {
+        setCursor(channelName, new EventCursor(startBlock));
+    }
+
+    @Override
+    public synchronized void setStartBlocks(Map<String, Long> startBlocks) {
+        startBlocks.forEach((channelName, startBlock) -> cursors.put(channelName, new EventCursor(startBlock)));
+        dirty.addAll(startBlocks.keySet());
+        scheduleFlushLk();
+    }
+
+    @Override
+    public EventCursor getCursor(String name) {
+        synchronized (this) {
+            final EventCursor cursor = cursors.get(name);
+            if (cursor != null)
+                return cursor;
+        }
+        return persister.getCursor(name);
+    }
+
+    @Override
+    public synchronized void setCursor(String name, EventCursor cursor) {
+        cursors.put(name, cursor);
+        dirty.add(name);
+        scheduleFlushLk();
+    }
+
+    @Override
+    public synchronized void setCursors(Map<String, EventCursor> cursors) {
+        this.cursors.putAll(cursors);
+        dirty.addAll(cursors.keySet());
+        scheduleFlushLk();
+    }
+
+    private void scheduleFlushLk() {
+        if (executorService.isShutdown()) {
+            logger.warn("Persister is closed, checkpoint is not saved");
+            return;
+        }
+
+        if (++pendingUpdates >= maxUpdates) {
+            if (scheduledFlush != null)
+                scheduledFlush.cancel(false);
+            pendingUpdates = 0;
+            scheduledFlush = executorService.schedule(this::flush, 0, TimeUnit.MILLISECONDS);
+        } else if (scheduledFlush == null) {
+            scheduledFlush = executorService.schedule(this::flush, maxDelayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Write all the pending updates to the underlying persister.
+     */
+    public void flush() {
+        synchronized (flushLock) {
+            final Map<String, EventCursor> updates = new HashMap<>();
+
+            synchronized (this) {
+                scheduledFlush = null;
+                pendingUpdates = 0;
+                for (String name : dirty)
+                    updates.put(name, cursors.get(name));
+                dirty.clear();
+            }
+
+            if (updates.isEmpty())
+                return;
+
+            try {
+                persister.setCursors(updates);
+            } catch (Exception e) {
+                logger.warn("persisting cursors failed: {}", updates, e);
+                synchronized (this) {
+                    // keep the failed cursors for the next attempt, unless they are updated already
+                    dirty.addAll(updates.keySet());
+                    if (scheduledFlush == null && !executorService.isShutdown())
+                        scheduledFlush = executorService.schedule(this::flush, maxDelayMillis, TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+    }
+
+    /**
+     * Write pending updates and stop the background writer.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            executorService.shutdown();
+            if (scheduledFlush != null)
+                scheduledFlush.cancel(false);
+        }
+        flush();
+    }
+}
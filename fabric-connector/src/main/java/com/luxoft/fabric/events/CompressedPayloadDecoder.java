@@ -0,0 +1,138 @@
+package com.luxoft.fabric.events;
+
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+import com.google.protobuf.ByteString;
+import org.apache.commons.compress.compressors.lz4.FramedLZ4CompressorInputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * {@link PayloadDecoder} wrapper, which decompresses the payload before passing it
+ * to the wrapped decoder.
+ * <p>
+ * Payload is decompressed into the per-thread buffer, which is reused between calls,
+ * and passed to the wrapped decoder as {@link ByteBuffer}, so the wrapped decoder
+ * should not keep references to it after decode() returns.
+ */
+public class CompressedPayloadDecoder<T> implements PayloadDecoder<T> {
+
+    public enum Compression {
+        GZIP,
+        /* LZ4 frame format */
+        LZ4,
+        /* Detect by magic number, payloads without known magic are passed as is */
+        AUTO
+    }
+
+    private static final byte[] GZIP_MAGIC = {(byte) 0x1f, (byte) 0x8b};
+    /* LZ4 frame magic number 0x184D2204, little-endian */
+    private static final byte[] LZ4_MAGIC = {(byte) 0x04, (byte) 0x22, (byte) 0x4d, (byte) 0x18};
+    private static final int MAX_MAGIC_LENGTH = LZ4_MAGIC.length;
+
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_POOLED_BUFFER_SIZE = 16 * 1024 * 1024;
+
+    private static final ThreadLocal<byte[]> buffers = ThreadLocal.withInitial(() -> new byte[INITIAL_BUFFER_SIZE]);
+
+    private final PayloadDecoder<T> payloadDecoder;
+    private final Compression compression;
+
+    public CompressedPayloadDecoder(PayloadDecoder<T> payloadDecoder, Compression compression) {
+        this.payloadDecoder = payloadDecoder;
+        this.compression = compression;
+    }
+
+    public CompressedPayloadDecoder(PayloadDecoder<T> payloadDecoder) {
+        this(payloadDecoder, Compression.AUTO);
+    }
+
+    @Override
+    public T decode(byte[] encodedPayload) throws Exception {
+        final Compression actual = detect(Arrays.copyOf(encodedPayload, Math.min(encodedPayload.length, MAX_MAGIC_LENGTH)));
+        if (actual == null)
+            return payloadDecoder.decode(encodedPayload);
+        return decode(new ByteArrayInputStream(encodedPayload), actual);
+    }
+
+    @Override
+    public T decode(ByteString encodedPayload) throws Exception {
+        final Compression actual = detect(encodedPayload.substring(0, Math.min(encodedPayload.size(), MAX_MAGIC_LENGTH)).toByteArray());
+        if (actual == null)
+            return payloadDecoder.decode(encodedPayload);
+        return decode(encodedPayload.newInput(), actual);
+    }
+
+    @Override
+    public T decode(ByteBuffer encodedPayload) throws Exception {
+        final byte[] header = new byte[Math.min(encodedPayload.remaining(), MAX_MAGIC_LENGTH)];
+        encodedPayload.duplicate().get(header);
+        final Compression actual = detect(header);
+        if (actual == null)
+            return payloadDecoder.decode(encodedPayload);
+        return decode(new ByteBufferBackedInputStream(encodedPayload.duplicate()), actual);
+    }
+
+    /**
+     * @param header first bytes of the payload, up to {@link #MAX_MAGIC_LENGTH}
+     * @return compression to use, or null when payload is not compressed
+     */
+    private Compression detect(byte[] header) {
+        if (compression != Compression.AUTO)
+            return compression;
+
+        if (startsWith(header, GZIP_MAGIC))
+            return Compression.GZIP;
+        if (startsWith(header, LZ4_MAGIC))
+            return Compression.LZ4;
+        return null;
+    }
+
+    private static boolean startsWith(byte[] header, byte[] magic) {
+        if (header.length < magic.length)
+            return false;
+        for (int i = 0; i < magic.length; ++i) {
+            if (header[i] != magic[i])
+                return false;
+        }
+        return true;
+    }
+
+    private T decode(InputStream compressed, Compression actual) throws Exception {
+        try (InputStream inputStream = actual == Compression.GZIP
+                ? new GZIPInputStream(compressed)
+                : new FramedLZ4CompressorInputStream(compressed, true)) {
+
+            byte[] buffer = buffers.get();
+            int length = 0;
+            int n;
+            while ((n = inputStream.read(buffer, length, buffer.length - length)) >= 0) {
+                length += n;
+                if (length == buffer.length)
+                    buffer = grow(buffer);
+            }
+
+            return payloadDecoder.decode(ByteBuffer.wrap(buffer, 0, length));
+        }
+    }
+
+    private static byte[] grow(byte[] buffer) throws IOException {
+        if (buffer.length > Integer.MAX_VALUE / 2)
+            throw new IOException("Decompressed payload is too large");
+
+        final byte[] newBuffer = new byte[buffer.length * 2];
+        System.arraycopy(buffer, 0, newBuffer, 0, buffer.length);
+        if (newBuffer.length <= MAX_POOLED_BUFFER_SIZE)
+            buffers.set(newBuffer);
+        return newBuffer;
+    }
+
+    @Override
+    public Class<T> getTargetClass() {
+        return payloadDecoder.getTargetClass();
+    }
+}
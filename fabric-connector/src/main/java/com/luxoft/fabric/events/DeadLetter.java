@@ -0,0 +1,63 @@
+package com.luxoft.fabric.events;
+
+import com.google.protobuf.ByteString;
+import org.hyperledger.fabric.sdk.ChaincodeEvent;
+import org.hyperledger.fabric.sdk.SdkTxUtil;
+
+/**
+ * Event, which listener failed to handle, with its position in the channel
+ */
+public class DeadLetter {
+    private final String checkpointName;
+    private final EventCursor position;
+    private final ByteString eventBytes;
+    private final String error;
+    private final long timestamp;
+
+    public DeadLetter(String checkpointName, EventCursor position, ChaincodeEvent chaincodeEvent, String error) {
+        this(checkpointName, position, SdkTxUtil.getEventBytes(chaincodeEvent), error, System.currentTimeMillis());
+    }
+
+    public DeadLetter(String checkpointName, EventCursor position, ByteString eventBytes, String error, long timestamp) {
+        this.checkpointName = checkpointName;
+        this.position = position;
+        this.eventBytes = eventBytes;
+        this.error = error;
+        this.timestamp = timestamp;
+    }
+
+    /**
+     * @return channel name for the default listener group, "channel/group" otherwise
+     */
+    public String getCheckpointName() {
+        return checkpointName;
+    }
+
+    /**
+     * @return position of the event in the channel
+     */
+    public EventCursor getPosition() {
+        return position;
+    }
+
+    public ByteString getEventBytes() {
+        return eventBytes;
+    }
+
+    public ChaincodeEvent getChaincodeEvent() {
+        return SdkTxUtil.newChaincodeEvent(eventBytes);
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("DeadLetter(%s@%s: %s)", checkpointName, position, error);
+    }
+}
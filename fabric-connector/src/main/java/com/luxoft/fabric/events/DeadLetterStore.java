@@ -0,0 +1,13 @@
+package com.luxoft.fabric.events;
+
+/**
+ * Storage for events, failed to handle. See {@link FailurePolicy#deadLetter(DeadLetterStore)}
+ */
+public interface DeadLetterStore {
+    /**
+     * Store the event. Called in the event delivery chain, so the next event waits for it.
+     * @param deadLetter failed event
+     * @throws Exception when the event can't be stored, the listener group is halted then
+     */
+    void park(DeadLetter deadLetter) throws Exception;
+}
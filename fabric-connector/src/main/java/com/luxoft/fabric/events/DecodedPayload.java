@@ -0,0 +1,64 @@
+package com.luxoft.fabric.events;
+
+import com.google.protobuf.ByteString;
+import org.hyperledger.fabric.sdk.ChaincodeEvent;
+import org.hyperledger.fabric.sdk.SdkTxUtil;
+
+/**
+ * Lazily decoded event payload. Payload is decoded on the first {@link #get()} call,
+ * the result (or the failure) is memoized, so listeners sharing the same decoder
+ * decode the event at most once, and listeners not accessing the payload never do.
+ */
+public class DecodedPayload<T> {
+
+    private final PayloadDecoder<? extends T> payloadDecoder;
+    private final ChaincodeEvent chaincodeEvent;
+    private boolean decoded = false;
+    private T value = null;
+    private Exception error = null;
+
+    public DecodedPayload(PayloadDecoder<? extends T> payloadDecoder, ChaincodeEvent chaincodeEvent) {
+        this.payloadDecoder = payloadDecoder;
+        this.chaincodeEvent = chaincodeEvent;
+    }
+
+    /**
+     * Payload decoded already
+     */
+    static <T> DecodedPayload<T> of(ChaincodeEvent chaincodeEvent, T value) {
+        final DecodedPayload<T> payload = new DecodedPayload<>(null, chaincodeEvent);
+        payload.value = value;
+        payload.decoded = true;
+        return payload;
+    }
+
+    public synchronized T get() throws Exception {
+        if (!decoded) {
+            try {
+                value = payloadDecoder.decode(chaincodeEvent);
+            } catch (Exception e) {
+                error = e;
+            }
+            decoded = true;
+        }
+
+        if (error != null)
+            throw error;
+        return value;
+    }
+
+    public synchronized boolean isDecoded() {
+        return decoded;
+    }
+
+    public ByteString getEncodedPayload() {
+        return SdkTxUtil.getEventPayload(chaincodeEvent);
+    }
+
+    @Override
+    public synchronized String toString() {
+        if (!decoded)
+            return "<not decoded>";
+        return error != null ? "<decoding failed>" : String.valueOf(value);
+    }
+}
@@ -0,0 +1,145 @@
+package com.luxoft.fabric.events;
+
+import java.nio.ByteBuffer;
+import java.util.Objects;
+
+/**
+ * Position of the next event to process: block number, index of the transaction
+ * in the block and index of the event in the transaction. Events before the cursor
+ * are considered processed.
+ * <p>
+ * Cursor is written as three unsigned varints, so the typical cursor takes 4-8 bytes.
+ */
+public final class EventCursor implements Comparable<EventCursor> {
+
+    private final long blockNumber;
+    private final int txIndex;
+    private final int eventIndex;
+
+    /**
+     * Cursor pointing to the beginning of the block
+     */
+    public EventCursor(long blockNumber) {
+        this(blockNumber, 0, 0);
+    }
+
+    public EventCursor(long blockNumber, int txIndex, int eventIndex) {
+        if (blockNumber < 0 || txIndex < 0 || eventIndex < 0)
+            throw new IllegalArgumentException(String.format("Invalid cursor: %d/%d/%d", blockNumber, txIndex, eventIndex));
+        this.blockNumber = blockNumber;
+        this.txIndex = txIndex;
+        this.eventIndex = eventIndex;
+    }
+
+    public long getBlockNumber() {
+        return blockNumber;
+    }
+
+    public int getTxIndex() {
+        return txIndex;
+    }
+
+    public int getEventIndex() {
+        return eventIndex;
+    }
+
+    public boolean isBlockStart() {
+        return txIndex == 0 && eventIndex == 0;
+    }
+
+    /**
+     * Check if the event at the given position is already processed
+     */
+    public boolean isAfter(long blockNumber, int txIndex, int eventIndex) {
+        if (this.blockNumber != blockNumber)
+            return this.blockNumber > blockNumber;
+        if (this.txIndex != txIndex)
+            return this.txIndex > txIndex;
+        return this.eventIndex > eventIndex;
+    }
+
+    public int getEncodedSize() {
+        return varintSize(blockNumber) + varintSize(txIndex) + varintSize(eventIndex);
+    }
+
+    public void writeTo(ByteBuffer buffer) {
+        writeVarint(buffer, blockNumber);
+        writeVarint(buffer, txIndex);
+        writeVarint(buffer, eventIndex);
+    }
+
+    public static EventCursor readFrom(ByteBuffer buffer) {
+        final long blockNumber = readVarint(buffer);
+        final long txIndex = readVarint(buffer);
+        final long eventIndex = readVarint(buffer);
+        if (txIndex > Integer.MAX_VALUE || eventIndex > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Malformed cursor");
+        return new EventCursor(blockNumber, (int) txIndex, (int) eventIndex);
+    }
+
+    public byte[] toBytes() {
+        final ByteBuffer buffer = ByteBuffer.allocate(getEncodedSize());
+        writeTo(buffer);
+        return buffer.array();
+    }
+
+    public static EventCursor fromBytes(byte[] bytes) {
+        return readFrom(ByteBuffer.wrap(bytes));
+    }
+
+    private static int varintSize(long value) {
+        int size = 1;
+        while ((value >>>= 7) != 0)
+            ++size;
+        return size;
+    }
+
+    private static void writeVarint(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    private static long readVarint(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    @Override
+    public int compareTo(EventCursor o) {
+        int result = Long.compare(blockNumber, o.blockNumber);
+        if (result == 0)
+            result = Integer.compare(txIndex, o.txIndex);
+        if (result == 0)
+            result = Integer.compare(eventIndex, o.eventIndex);
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof EventCursor))
+            return false;
+        final EventCursor that = (EventCursor) o;
+        return blockNumber == that.blockNumber && txIndex == that.txIndex && eventIndex == that.eventIndex;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(blockNumber, txIndex, eventIndex);
+    }
+
+    @Override
+    public String toString() {
+        return blockNumber + "/" + txIndex + "/" + eventIndex;
+    }
+}
@@ -0,0 +1,41 @@
+package com.luxoft.fabric.events;
+
+import org.hyperledger.fabric.sdk.ChaincodeEvent;
+
+import java.util.regex.Pattern;
+
+/**
+ * Listener registration, shared by event trackers and replayer.
+ */
+class EventListenerInfo<T> {
+    final Pattern chaincodePattern;
+    final Pattern eventNamePattern;
+    final PayloadDecoder<? extends T> payloadDecoder;
+    final OrderingEventTracker.EventListener<T> listener;
+    /* null to use the tracker's default */
+    final FailurePolicy failurePolicy;
+
+    EventListenerInfo(Pattern chaincodePattern,
+                      Pattern eventNamePattern,
+                      PayloadDecoder<? extends T> payloadDecoder,
+                      OrderingEventTracker.EventListener<T> listener) {
+        this(chaincodePattern, eventNamePattern, payloadDecoder, listener, null);
+    }
+
+    EventListenerInfo(Pattern chaincodePattern,
+                      Pattern eventNamePattern,
+                      PayloadDecoder<? extends T> payloadDecoder,
+                      OrderingEventTracker.EventListener<T> listener,
+                      FailurePolicy failurePolicy) {
+        this.chaincodePattern = chaincodePattern;
+        this.eventNamePattern = eventNamePattern;
+        this.payloadDecoder = payloadDecoder;
+        this.listener = listener;
+        this.failurePolicy = failurePolicy;
+    }
+
+    boolean matches(ChaincodeEvent chaincodeEvent) {
+        return chaincodePattern.matcher(chaincodeEvent.getChaincodeId()).matches()
+                && eventNamePattern.matcher(chaincodeEvent.getEventName()).matches();
+    }
+}
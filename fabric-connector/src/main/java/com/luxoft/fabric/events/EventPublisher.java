@@ -0,0 +1,170 @@
+package com.luxoft.fabric.events;
+
+import org.hyperledger.fabric.sdk.ChaincodeEvent;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Reactive Streams adapter for the event tracker: register the publisher as an event listener
+ * (of the tracker or of the {@link ListenerGroup}) and subscribe to it.
+ * <p>
+ * Publisher doesn't buffer events: the tracker waits for the next event to be requested,
+ * so the subscriber's demand holds back the tracker, which keeps events in order and
+ * saves the cursor as usual. Event is considered handled, when {@code onNext()} returns.
+ * <p>
+ * Publisher serves one subscriber at a time. After the subscription is cancelled,
+ * the next subscriber gets events from the first event not delivered yet.
+ * Publisher never completes, as the event stream is infinite.
+ * <pre>
+ *     EventPublisher&lt;String&gt; publisher = new EventPublisher&lt;&gt;();
+ *     tracker.addEventListener("mycc", ".*", new StringPayloadDecoder(), publisher);
+ *     Flux.from(publisher)...
+ * </pre>
+ */
+public class EventPublisher<T> implements Publisher<EventPublisher.Event<T>>, OrderingEventTracker.EventListener<T> {
+
+    private static final Logger logger = LoggerFactory.getLogger(EventPublisher.class);
+
+    /**
+     * Chaincode event with lazily decoded payload
+     */
+    public static class Event<T> {
+        private final ChaincodeEvent chaincodeEvent;
+        private final DecodedPayload<? extends T> payload;
+
+        Event(ChaincodeEvent chaincodeEvent, DecodedPayload<? extends T> payload) {
+            this.chaincodeEvent = chaincodeEvent;
+            this.payload = payload;
+        }
+
+        public ChaincodeEvent getChaincodeEvent() {
+            return chaincodeEvent;
+        }
+
+        public DecodedPayload<? extends T> getPayload() {
+            return payload;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Event(%s/%s, tx=%s)", chaincodeEvent.getChaincodeId(), chaincodeEvent.getEventName(), chaincodeEvent.getTxId());
+        }
+    }
+
+    private class EventSubscription implements Subscription {
+        private final Subscriber<? super Event<T>> subscriber;
+        private long demand = 0;
+
+        private EventSubscription(Subscriber<? super Event<T>> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                cancel();
+                subscriber.onError(new IllegalArgumentException("Non-positive request: " + n));
+                return;
+            }
+
+            synchronized (EventPublisher.this) {
+                demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+            }
+            emit();
+        }
+
+        @Override
+        public void cancel() {
+            synchronized (EventPublisher.this) {
+                if (subscription == this)
+                    subscription = null;
+            }
+        }
+    }
+
+    /* Current subscription, null if none */
+    private EventSubscription subscription;
+    /* Event, the tracker waits to be delivered */
+    private Event<T> pendingEvent;
+    private CompletableFuture<Void> pendingResult;
+
+    @Override
+    public void subscribe(Subscriber<? super Event<T>> subscriber) {
+        final EventSubscription newSubscription = new EventSubscription(subscriber);
+        final boolean subscribed;
+        synchronized (this) {
+            subscribed = subscription == null;
+            if (subscribed)
+                subscription = newSubscription;
+        }
+
+        subscriber.onSubscribe(newSubscription);
+        if (!subscribed) {
+            newSubscription.cancel();
+            subscriber.onError(new IllegalStateException("Publisher supports one subscriber at a time"));
+        }
+    }
+
+    @Override
+    public CompletableFuture<Boolean> filter(ChaincodeEvent chaincodeEvent) {
+        return null;
+    }
+
+    @Override
+    public CompletableFuture<Void> onEvent(ChaincodeEvent chaincodeEvent, T eventData) {
+        return onEvent(chaincodeEvent, DecodedPayload.of(chaincodeEvent, eventData));
+    }
+
+    /**
+     * Called by the tracker, completes when the event is delivered to the subscriber.
+     */
+    @Override
+    public CompletableFuture<Void> onEvent(ChaincodeEvent chaincodeEvent, DecodedPayload<? extends T> payload) {
+        final CompletableFuture<Void> result = new CompletableFuture<>();
+        synchronized (this) {
+            if (pendingResult != null)
+                throw new IllegalStateException("Publisher can't be shared by several trackers or groups");
+            pendingEvent = new Event<>(chaincodeEvent, payload);
+            pendingResult = result;
+        }
+        emit();
+        return result;
+    }
+
+    /**
+     * Deliver pending event, if there is a demand. Subscriber may request more
+     * from onNext(), recursion is bounded, as the tracker posts the next event
+     * only after the result of the previous one is completed.
+     */
+    private void emit() {
+        final EventSubscription target;
+        final Event<T> event;
+        final CompletableFuture<Void> result;
+        synchronized (this) {
+            if (subscription == null || subscription.demand == 0 || pendingEvent == null)
+                return;
+
+            target = subscription;
+            event = pendingEvent;
+            result = pendingResult;
+            if (target.demand != Long.MAX_VALUE)
+                target.demand--;
+            pendingEvent = null;
+            pendingResult = null;
+        }
+
+        try {
+            target.subscriber.onNext(event);
+            result.complete(null);
+        } catch (RuntimeException e) {
+            logger.warn("Subscriber failed on {}, cancel subscription", event, e);
+            target.cancel();
+            result.completeExceptionally(e);
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package com.luxoft.fabric.events;
+
+import com.luxoft.fabric.events.store.BlockStore;
+import com.luxoft.fabric.utils.MiscUtils;
+import com.luxoft.fabric.utils.TxUtils;
+import org.hyperledger.fabric.sdk.BlockInfo;
+import org.hyperledger.fabric.sdk.ChaincodeEvent;
+import org.hyperledger.fabric.sdk.Channel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.regex.Pattern;
+
+/**
+ * Replays chaincode events of the block range to the registered listeners, e.g. to rebuild
+ * read model from the ledger. Unlike {@link OrderingEventTracker}, it doesn't follow the
+ * channel and doesn't use {@link Persister}, so it can run alongside the live tracker.
+ * <p>
+ * Full blocks are fetched in parallel, their events are matched and decoded on the decode
+ * executor ({@link ForkJoinPool#commonPool()} by default), and then delivered in order,
+ * one by one, the same way {@link OrderingEventTracker} does. At most
+ * {@code maxBufferedBlocks} blocks are fetched ahead of delivery.
+ */
+public class EventReplayer {
+
+    private static final Logger logger = LoggerFactory.getLogger(EventReplayer.class);
+
+    private static final int DEFAULT_FETCH_PARALLELISM = 4;
+    private static final int DEFAULT_MAX_BUFFERED_BLOCKS = 64;
+    private static final int FETCH_RETRIES = 3;
+    private static final int FETCH_RETRY_DELAY_SEC = 1;
+
+    private final int fetchParallelism;
+    private final int maxBufferedBlocks;
+    private final Executor decodeExecutor;
+    private final List<EventListenerInfo<?>> listeners = new CopyOnWriteArrayList<>();
+    private volatile BlockStore blockStore = null;
+
+    private static class ReplayEvent<T> {
+        final long blockNumber;
+        final ChaincodeEvent chaincodeEvent;
+        final DecodedPayload<? extends T> payload;
+        final EventListenerInfo<T> listenerInfo;
+
+        ReplayEvent(long blockNumber, ChaincodeEvent chaincodeEvent, DecodedPayload<? extends T> payload, EventListenerInfo<T> listenerInfo) {
+            this.blockNumber = blockNumber;
+            this.chaincodeEvent = chaincodeEvent;
+            this.payload = payload;
+            this.listenerInfo = listenerInfo;
+        }
+    }
+
+    public EventReplayer() {
+        this(DEFAULT_FETCH_PARALLELISM, DEFAULT_MAX_BUFFERED_BLOCKS, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param fetchParallelism  number of blocks fetched concurrently
+     * @param maxBufferedBlocks number of blocks fetched ahead of delivery
+     * @param decodeExecutor    executor to match and decode events
+     */
+    public EventReplayer(int fetchParallelism, int maxBufferedBlocks, Executor decodeExecutor) {
+        this.fetchParallelism = fetchParallelism;
+        this.maxBufferedBlocks = Math.max(maxBufferedBlocks, fetchParallelism);
+        this.decodeExecutor = decodeExecutor;
+    }
+
+    public <T> void addEventListener(String chaincodeName, String eventName, PayloadDecoder<? extends T> payloadDecoder, OrderingEventTracker.EventListener<T> listener) {
+        listeners.add(new EventListenerInfo<>(
+                Pattern.compile(chaincodeName),
+                Pattern.compile(eventName),
+                payloadDecoder,
+                listener));
+    }
+
+    /**
+     * Set local block store, blocks are read from it before querying the network
+     */
+    public void setBlockStore(BlockStore blockStore) {
+        this.blockStore = blockStore;
+    }
+
+    /**
+     * Replay events of the blocks [fromBlock, toBlock) to the registered listeners.
+     * @return future, completed when all the events are delivered, or failed when a block
+     * can't be fetched
+     */
+    public CompletableFuture<Void> replay(Channel channel, long fromBlock, long toBlock) {
+        final List<EventListenerInfo<?>> listenerInfos = new ArrayList<>(listeners);
+        final ExecutorService fetchExecutor = Executors.newFixedThreadPool(fetchParallelism);
+        final Replay replay = new Replay(channel, fromBlock, toBlock, listenerInfos, fetchExecutor);
+
+        logger.info("Replay blocks [{}, {}) of channel {}", fromBlock, toBlock, channel.getName());
+        return replay.start().whenComplete((r, t) -> fetchExecutor.shutdown());
+    }
+
+    private class Replay {
+        private final Channel channel;
+        private final long toBlock;
+        private final List<EventListenerInfo<?>> listenerInfos;
+        private final ExecutorService fetchExecutor;
+        private final Deque<CompletableFuture<List<ReplayEvent<?>>>> window = new ArrayDeque<>();
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+        private long nextFetchBlock;
+
+        Replay(Channel channel, long fromBlock, long toBlock, List<EventListenerInfo<?>> listenerInfos, ExecutorService fetchExecutor) {
+            this.channel = channel;
+            this.nextFetchBlock = fromBlock;
+            this.toBlock = toBlock;
+            this.listenerInfos = listenerInfos;
+            this.fetchExecutor = fetchExecutor;
+        }
+
+        CompletableFuture<Void> start() {
+            fillWindow();
+            deliverNext();
+            return done;
+        }
+
+        private void fillWindow() {
+            while (window.size() < maxBufferedBlocks && nextFetchBlock < toBlock) {
+                final long blockNumber = nextFetchBlock++;
+                window.add(CompletableFuture
+                        .supplyAsync(() -> fetchBlock(blockNumber), fetchExecutor)
+                        .thenApplyAsync(this::extractEvents, decodeExecutor));
+            }
+        }
+
+        private BlockInfo fetchBlock(long blockNumber) {
+            try {
+                return MiscUtils.runWithRetries(FETCH_RETRIES, FETCH_RETRY_DELAY_SEC, () -> TxUtils.queryBlockByNumber(channel, blockStore, blockNumber));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CompletionException(e);
+            }
+        }
+
+        /**
+         * Match events against listeners and decode payloads, sharing them among
+         * listeners with the same decoder.
+         */
+        private List<ReplayEvent<?>> extractEvents(BlockInfo blockInfo) {
+            final List<ReplayEvent<?>> events = new ArrayList<>();
+            final long blockNumber = blockInfo.getBlockNumber();
+
+            final Iterator<BlockInfo.TransactionEnvelopeInfo> txIterator = TxUtils.getBlockTransactions(blockInfo);
+            while (txIterator.hasNext()) {
+                for (ChaincodeEvent chaincodeEvent : TxUtils.getTransactionEvents(txIterator.next())) {
+                    final Map<PayloadDecoder<?>, DecodedPayload<?>> payloads = new HashMap<>();
+
+                    for (EventListenerInfo<?> listenerInfo : listenerInfos) {
+                        if (listenerInfo.matches(chaincodeEvent))
+                            events.add(newReplayEvent(blockNumber, chaincodeEvent, listenerInfo, payloads));
+                    }
+                }
+            }
+            return events;
+        }
+
+        private <T> ReplayEvent<T> newReplayEvent(long blockNumber, ChaincodeEvent chaincodeEvent, EventListenerInfo<T> listenerInfo,
+                                                  Map<PayloadDecoder<?>, DecodedPayload<?>> payloads) {
+            // payload of the decoder is decoded by it, so it has the decoder's type
+            @SuppressWarnings("unchecked")
+            final DecodedPayload<? extends T> payload = (DecodedPayload<? extends T>) payloads.computeIfAbsent(listenerInfo.payloadDecoder,
+                    (decoder) -> new DecodedPayload<T>(listenerInfo.payloadDecoder, chaincodeEvent));
+            try {
+                payload.get();
+            } catch (Exception e) {
+                // reported to the listener on delivery
+            }
+            return new ReplayEvent<>(blockNumber, chaincodeEvent, payload, listenerInfo);
+        }
+
+        /**
+         * Deliver the blocks of the window one by one. Blocks delivered at once are handled
+         * in the loop, the pending one resumes it on completion, so neither the stack
+         * nor the chain of futures grows with the range.
+         */
+        private void deliverNext() {
+            while (true) {
+                final CompletableFuture<List<ReplayEvent<?>>> head = window.poll();
+                if (head == null) {
+                    done.complete(null);
+                    return;
+                }
+
+                final CompletableFuture<Void> delivered = head.thenCompose(this::deliver);
+                if (!delivered.isDone() || delivered.isCompletedExceptionally()) {
+                    delivered.whenCompleteAsync((r, t) -> {
+                        if (t != null) {
+                            done.completeExceptionally(t);
+                            return;
+                        }
+                        fillWindow();
+                        deliverNext();
+                    }, decodeExecutor);
+                    return;
+                }
+                fillWindow();
+            }
+        }
+
+        private CompletableFuture<Void> deliver(List<ReplayEvent<?>> events) {
+            CompletableFuture<Void> result = CompletableFuture.completedFuture(null);
+            for (ReplayEvent<?> event : events)
+                result = deliver(result, event);
+            return result;
+        }
+
+        private <T> CompletableFuture<Void> deliver(CompletableFuture<Void> previous, ReplayEvent<T> event) {
+            final ChaincodeEvent chaincodeEvent = event.chaincodeEvent;
+            final OrderingEventTracker.EventListener<T> listener = event.listenerInfo.listener;
+
+            return previous
+                    .thenCompose((r) -> {
+                        final CompletableFuture<Boolean> filter = listener.filter(chaincodeEvent);
+                        return filter != null ? filter : CompletableFuture.completedFuture(Boolean.TRUE);
+                    })
+                    .thenCompose((accepted) -> {
+                        if (!Boolean.TRUE.equals(accepted))
+                            return CompletableFuture.<Void>completedFuture(null);
+                        try {
+                            // listener's result is not used
+                            return listener.onEvent(chaincodeEvent, event.payload).thenRun(() -> { });
+                        } catch (Exception e) {
+                            final CompletableFuture<Void> failed = new CompletableFuture<>();
+                            failed.completeExceptionally(e);
+                            return failed;
+                        }
+                    })
+                    .handle((r, t) -> {
+                        if (t != null)
+                            logger.warn("Event replay failed(block={}, chaincode={}, name={}, txid={})", event.blockNumber,
+                                    chaincodeEvent.getChaincodeId(), chaincodeEvent.getEventName(), chaincodeEvent.getTxId(), t);
+                        return null;
+                    });
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.luxoft.fabric.events;
+
+import java.util.Objects;
+
+/**
+ * What the tracker does when event listener fails: optionally retries the event
+ * with exponential backoff, and then skips it, parks it to the {@link DeadLetterStore},
+ * or halts the listener group (the channel for the default group), so the event is
+ * delivered again after restart.
+ * <p>
+ * Failure of the dead letter store halts the group as well, so the event is never lost.
+ */
+public final class FailurePolicy {
+
+    public enum Action {
+        SKIP, DEAD_LETTER, HALT
+    }
+
+    private final Action action;
+    private final DeadLetterStore deadLetterStore;
+    private final int maxRetries;
+    private final long initialDelayMillis;
+    private final long maxDelayMillis;
+
+    private FailurePolicy(Action action, DeadLetterStore deadLetterStore, int maxRetries, long initialDelayMillis, long maxDelayMillis) {
+        this.action = action;
+        this.deadLetterStore = deadLetterStore;
+        this.maxRetries = maxRetries;
+        this.initialDelayMillis = initialDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    /**
+     * Log the failure and go to the next event
+     */
+    public static FailurePolicy skip() {
+        return new FailurePolicy(Action.SKIP, null, 0, 0, 0);
+    }
+
+    /**
+     * Park failed event to the store and go to the next event
+     */
+    public static FailurePolicy deadLetter(DeadLetterStore deadLetterStore) {
+        return new FailurePolicy(Action.DEAD_LETTER, Objects.requireNonNull(deadLetterStore), 0, 0, 0);
+    }
+
+    /**
+     * Stop processing of the listener group at the failed event
+     */
+    public static FailurePolicy halt() {
+        return new FailurePolicy(Action.HALT, null, 0, 0, 0);
+    }
+
+    /**
+     * Retry the failed event before applying the policy. Delay doubles after each attempt.
+     * @param maxRetries         number of retries
+     * @param initialDelayMillis delay before the first retry
+     * @param maxDelayMillis     maximum delay
+     * @return new policy
+     */
+    public FailurePolicy withRetries(int maxRetries, long initialDelayMillis, long maxDelayMillis) {
+        return new FailurePolicy(action, deadLetterStore, maxRetries, initialDelayMillis, maxDelayMillis);
+    }
+
+    public Action getAction() {
+        return action;
+    }
+
+    public DeadLetterStore getDeadLetterStore() {
+        return deadLetterStore;
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * @param attempt number of the failed attempt, starting from 0
+     * @return delay before the next attempt
+     */
+    public long getRetryDelayMillis(int attempt) {
+        return Math.min(maxDelayMillis, initialDelayMillis << Math.min(attempt, 30));
+    }
+
+    @Override
+    public String toString() {
+        return maxRetries > 0 ? String.format("%s after %d retries", action, maxRetries) : action.toString();
+    }
+}
@@ -0,0 +1,170 @@
+package com.luxoft.fabric.events;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.protobuf.ByteString;
+import org.hyperledger.fabric.sdk.ChaincodeEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
+
+/**
+ * {@link DeadLetterStore} implementation, which appends dead letters to the file,
+ * one JSON object per line, with the event in its protobuf form (base64).
+ * Parked events can be inspected with {@link #list()} and delivered again with
+ * {@link #replay(Function)}, which keeps only the events failed again.
+ */
+public class FileDeadLetterStore implements DeadLetterStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(FileDeadLetterStore.class);
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final Path path;
+    private final boolean sync;
+    /* Replays run one at a time */
+    private final Object replayLock = new Object();
+
+    public FileDeadLetterStore(Path path) {
+        this(path, true);
+    }
+
+    /**
+     * @param path file to store dead letters
+     * @param sync force each dead letter to disk before the next event is delivered
+     */
+    public FileDeadLetterStore(Path path, boolean sync) {
+        this.path = path;
+        this.sync = sync;
+    }
+
+    @Override
+    public synchronized void park(DeadLetter deadLetter) throws IOException {
+        final StandardOpenOption[] options = sync
+                ? new StandardOpenOption[]{StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.DSYNC}
+                : new StandardOpenOption[]{StandardOpenOption.CREATE, StandardOpenOption.APPEND};
+        try (OutputStream out = Files.newOutputStream(path, options)) {
+            out.write(toLine(deadLetter));
+        }
+    }
+
+    /**
+     * @return all the parked events, in order of parking
+     */
+    public synchronized List<DeadLetter> list() throws IOException {
+        final List<DeadLetter> deadLetters = new ArrayList<>();
+        if (!Files.exists(path))
+            return deadLetters;
+
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isEmpty())
+                    deadLetters.add(fromLine(line));
+            }
+        }
+        return deadLetters;
+    }
+
+    /**
+     * Deliver parked events one by one, in order of parking. Events, handled successfully,
+     * are removed from the store. Handlers run without holding the store, so events may be
+     * parked while replay is in progress, they are kept for the next replay.
+     * @param handler returns future, completed when the event is handled
+     * @return number of events handled successfully
+     */
+    public int replay(Function<DeadLetter, CompletableFuture<?>> handler) throws IOException, InterruptedException {
+        synchronized (replayLock) {
+            final List<DeadLetter> deadLetters = list();
+            final List<DeadLetter> failed = new ArrayList<>();
+            int replayed = 0;
+
+            for (DeadLetter deadLetter : deadLetters) {
+                try {
+                    handler.apply(deadLetter).get();
+                    ++replayed;
+                } catch (ExecutionException | RuntimeException e) {
+                    logger.warn("Replay of {} failed", deadLetter, e);
+                    failed.add(deadLetter);
+                }
+            }
+
+            synchronized (this) {
+                // events parked during replay follow the replayed ones
+                final List<DeadLetter> current = list();
+                failed.addAll(current.subList(Math.min(deadLetters.size(), current.size()), current.size()));
+
+                final Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+                try (OutputStream out = Files.newOutputStream(tmp)) {
+                    for (DeadLetter deadLetter : failed)
+                        out.write(toLine(deadLetter));
+                }
+                Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+
+            logger.info("Replayed {} dead letters, {} failed again", replayed, deadLetters.size() - replayed);
+            return replayed;
+        }
+    }
+
+    /**
+     * Deliver parked events to the listener, see {@link #replay(Function)}
+     */
+    public <T> int replay(PayloadDecoder<? extends T> payloadDecoder, OrderingEventTracker.EventListener<T> listener) throws IOException, InterruptedException {
+        return replay((deadLetter) -> {
+            final ChaincodeEvent chaincodeEvent = deadLetter.getChaincodeEvent();
+            try {
+                return listener.onEvent(chaincodeEvent, new DecodedPayload<>(payloadDecoder, chaincodeEvent));
+            } catch (Exception e) {
+                final CompletableFuture<Object> result = new CompletableFuture<>();
+                result.completeExceptionally(e);
+                return result;
+            }
+        });
+    }
+
+    private byte[] toLine(DeadLetter deadLetter) {
+        final EventCursor position = deadLetter.getPosition();
+        final ObjectNode node = mapper.createObjectNode();
+        node.put("name", deadLetter.getCheckpointName());
+        node.put("block", position.getBlockNumber());
+        node.put("tx", position.getTxIndex());
+        node.put("event", position.getEventIndex());
+        node.put("timestamp", deadLetter.getTimestamp());
+        node.put("error", deadLetter.getError());
+        node.put("data", deadLetter.getEventBytes().toByteArray());
+        try {
+            final byte[] json = mapper.writeValueAsBytes(node);
+            final byte[] line = new byte[json.length + 1];
+            System.arraycopy(json, 0, line, 0, json.length);
+            line[json.length] = '\n';
+            return line;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private DeadLetter fromLine(String line) throws IOException {
+        final JsonNode node = mapper.readTree(line);
+        return new DeadLetter(
+                node.path("name").asText(null),
+                new EventCursor(node.path("block").asLong(), node.path("tx").asInt(), node.path("event").asInt()),
+                ByteString.copyFrom(node.path("data").binaryValue()),
+                node.path("error").asText(null),
+                node.path("timestamp").asLong());
+    }
+}
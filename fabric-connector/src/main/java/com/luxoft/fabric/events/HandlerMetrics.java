@@ -0,0 +1,75 @@
+package com.luxoft.fabric.events;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of event handling outcomes, see {@link FailurePolicy}
+ */
+public class HandlerMetrics {
+    private final AtomicLong succeeded = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong deadLettered = new AtomicLong();
+    private final AtomicLong halted = new AtomicLong();
+
+    void onSucceeded() {
+        succeeded.incrementAndGet();
+    }
+
+    void onFailed() {
+        failed.incrementAndGet();
+    }
+
+    void onRetried() {
+        retried.incrementAndGet();
+    }
+
+    void onSkipped() {
+        skipped.incrementAndGet();
+    }
+
+    void onDeadLettered() {
+        deadLettered.incrementAndGet();
+    }
+
+    void onHalted() {
+        halted.incrementAndGet();
+    }
+
+    /**
+     * @return number of events handled successfully, including after retries
+     */
+    public long getSucceeded() {
+        return succeeded.get();
+    }
+
+    /**
+     * @return number of failed handling attempts
+     */
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public long getRetried() {
+        return retried.get();
+    }
+
+    public long getSkipped() {
+        return skipped.get();
+    }
+
+    public long getDeadLettered() {
+        return deadLettered.get();
+    }
+
+    public long getHalted() {
+        return halted.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("HandlerMetrics(succeeded=%d, failed=%d, retried=%d, skipped=%d, deadLettered=%d, halted=%d)",
+                getSucceeded(), getFailed(), getRetried(), getSkipped(), getDeadLettered(), getHalted());
+    }
+}
@@ -0,0 +1,125 @@
+package com.luxoft.fabric.events;
+
+import javax.sql.DataSource;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link Persister} implementation, which keeps start blocks in the database table
+ * with {@code channel_name} and {@code start_block} columns.
+ * <p>
+ * Batch updates are written in one transaction: update of existing rows, followed by
+ * insert of the missing ones, so only standard SQL is required. Drivers, which don't report
+ * update counts of the batch, cost an extra lookup of the channels.
+ */
+public class JdbcPersister implements Persister {
+
+    private final DataSource dataSource;
+    private final String selectSql;
+    private final String updateSql;
+    private final String insertSql;
+    private final String createSql;
+
+    public JdbcPersister(DataSource dataSource) {
+        this(dataSource, "fabric_start_block");
+    }
+
+    public JdbcPersister(DataSource dataSource, String tableName) {
+        this.dataSource = dataSource;
+        this.selectSql = "SELECT start_block FROM " + tableName + " WHERE channel_name = ?";
+        this.updateSql = "UPDATE " + tableName + " SET start_block = ? WHERE channel_name = ?";
+        this.insertSql = "INSERT INTO " + tableName + " (channel_name, start_block) VALUES (?, ?)";
+        this.createSql = "CREATE TABLE " + tableName + " (channel_name VARCHAR(255) NOT NULL PRIMARY KEY, start_block BIGINT NOT NULL)";
+    }
+
+    /**
+     * Create the table. Intended for the initial setup, fails if table already exists.
+     * @throws SQLException on database error
+     */
+    public void createTable() throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute(createSql);
+        }
+    }
+
+    @Override
+    public long getStartBlock(String channelName) {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(selectSql)) {
+            statement.setString(1, channelName);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() ? resultSet.getLong(1) : Long.MAX_VALUE;
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to read start block for channel " + channelName, e);
+        }
+    }
+
+    @Override
+    public void setStartBlock(String channelName, long startBlock) {
+        setStartBlocks(Collections.singletonMap(channelName, startBlock));
+    }
+
+    @Override
+    public void setStartBlocks(Map<String, Long> startBlocks) {
+        try (Connection connection = dataSource.getConnection()) {
+            final boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try {
+                upsert(connection, startBlocks);
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to save start blocks " + startBlocks, e);
+        }
+    }
+
+    private boolean exists(Connection connection, String channelName) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(selectSql)) {
+            statement.setString(1, channelName);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next();
+            }
+        }
+    }
+
+    private void upsert(Connection connection, Map<String, Long> startBlocks) throws SQLException {
+        final List<Map.Entry<String, Long>> entries = new ArrayList<>(startBlocks.entrySet());
+        final List<Map.Entry<String, Long>> missing = new ArrayList<>();
+
+        try (PreparedStatement statement = connection.prepareStatement(updateSql)) {
+            for (Map.Entry<String, Long> entry : entries) {
+                statement.setLong(1, entry.getValue());
+                statement.setString(2, entry.getKey());
+                statement.addBatch();
+            }
+
+            final int[] updated = statement.executeBatch();
+            for (int i = 0; i < updated.length; ++i) {
+                if (updated[i] == 0 || updated[i] == Statement.SUCCESS_NO_INFO && !exists(connection, entries.get(i).getKey()))
+                    missing.add(entries.get(i));
+            }
+        }
+
+        if (missing.isEmpty())
+            return;
+
+        try (PreparedStatement statement = connection.prepareStatement(insertSql)) {
+            for (Map.Entry<String, Long> entry : missing) {
+                statement.setString(1, entry.getKey());
+                statement.setLong(2, entry.getValue());
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.luxoft.fabric.events;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+import com.google.protobuf.ByteString;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Implementation of {@link PayloadDecoder} interface for decoding JSON encoded payloads
+ * into the target POJO. Payload bytes are streamed into Jackson parser directly,
+ * without intermediate String, using {@link ObjectReader} created once per decoder.
+ */
+public class JsonPayloadDecoder<T> implements PayloadDecoder<T> {
+
+    private final Class<T> targetClass;
+    private final ObjectReader objectReader;
+
+    public JsonPayloadDecoder(Class<T> targetClass) {
+        this(new ObjectMapper(), targetClass);
+    }
+
+    public JsonPayloadDecoder(ObjectMapper objectMapper, Class<T> targetClass) {
+        this.targetClass = targetClass;
+        this.objectReader = objectMapper.readerFor(targetClass);
+    }
+
+    @Override
+    public T decode(byte[] encodedPayload) throws IOException {
+        return objectReader.readValue(encodedPayload);
+    }
+
+    @Override
+    public T decode(ByteString encodedPayload) throws IOException {
+        return objectReader.readValue(encodedPayload.newInput());
+    }
+
+    @Override
+    public T decode(ByteBuffer encodedPayload) throws IOException {
+        if (encodedPayload.hasArray())
+            return objectReader.readValue(encodedPayload.array(),
+                    encodedPayload.arrayOffset() + encodedPayload.position(), encodedPayload.remaining());
+        return objectReader.readValue(new ByteBufferBackedInputStream(encodedPayload.duplicate()));
+    }
+
+    @Override
+    public Class<T> getTargetClass() {
+        return targetClass;
+    }
+}
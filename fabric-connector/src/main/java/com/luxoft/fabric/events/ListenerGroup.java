@@ -0,0 +1,60 @@
+package com.luxoft.fabric.events;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.regex.Pattern;
+
+/**
+ * Group of event listeners, which is processed independently of other groups:
+ * it has its own cursor, saved under its own checkpoint name, and its events are
+ * delivered on its own executor. Groups of the tracker share the block stream and
+ * the block cache, so the lagging group doesn't make the tracker download blocks twice
+ * unless they are evicted due to the memory budget.
+ * <p>
+ * Created by {@link OrderingEventTracker#addListenerGroup(String, Executor)}.
+ */
+public class ListenerGroup {
+    private final String name;
+    private final Executor deliveryExecutor;
+    final List<EventListenerInfo<?>> listeners = new CopyOnWriteArrayList<>();
+
+    ListenerGroup(String name, Executor deliveryExecutor) {
+        this.name = name;
+        this.deliveryExecutor = deliveryExecutor;
+    }
+
+    /**
+     * @return group name, null for the default group
+     */
+    public String getName() {
+        return name;
+    }
+
+    Executor getDeliveryExecutor() {
+        return deliveryExecutor;
+    }
+
+    /**
+     * @return name of the group's cursor in the {@link Persister}
+     */
+    String getCheckpointName(String channelName) {
+        return name == null ? channelName : channelName + "/" + name;
+    }
+
+    public <T> void addEventListener(String chaincodeName, String eventName, PayloadDecoder<? extends T> payloadDecoder, OrderingEventTracker.EventListener<T> listener) {
+        addEventListener(chaincodeName, eventName, payloadDecoder, listener, null);
+    }
+
+    /**
+     * @param failurePolicy what to do when listener fails, null to use the tracker's default
+     */
+    public <T> void addEventListener(String chaincodeName, String eventName, PayloadDecoder<? extends T> payloadDecoder, OrderingEventTracker.EventListener<T> listener, FailurePolicy failurePolicy) {
+        listeners.add(new EventListenerInfo<>(
+                Pattern.compile(chaincodeName),
+                Pattern.compile(eventName),
+                payloadDecoder,
+                listener,
+                failurePolicy));
+    }
+}
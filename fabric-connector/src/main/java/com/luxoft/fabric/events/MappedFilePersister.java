@@ -0,0 +1,197 @@
+package com.luxoft.fabric.events;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * {@link Persister} implementation, which keeps event cursors in the memory-mapped file.
+ * <p>
+ * File consists of two slots, updates are written to them in turn. Each slot is protected
+ * with the sequence number and checksum, so the torn write of one slot leaves
+ * the previous state in the other one. Updates reach the page cache immediately, so
+ * they survive application crash without fsync; use {@code forceInterval} to also
+ * flush them to disk every N updates.
+ * <p>
+ * Slot layout: magic(int), sequence(long), length(int), crc32(int), payload,
+ * where payload is count(int) followed by [name length(short), name(UTF-8), cursor(varints)].
+ */
+public class MappedFilePersister implements Persister, AutoCloseable {
+
+    private static final int MAGIC = 0x46434b32; // "FCK2"
+    private static final int HEADER_SIZE = 4 + 8 + 4 + 4;
+    private static final int DEFAULT_SLOT_SIZE = 4096;
+
+    private final RandomAccessFile file;
+    private final MappedByteBuffer buffer;
+    private final int slotSize;
+    private final int forceInterval;
+    private final Map<String, EventCursor> cursors = new HashMap<>();
+    private long sequence = 0;
+    private int updates = 0;
+
+    public MappedFilePersister(Path path) throws IOException {
+        this(path, DEFAULT_SLOT_SIZE, 0);
+    }
+
+    /**
+     * @param path          checkpoint file
+     * @param slotSize      size of one slot, limits number of channels
+     * @param forceInterval force changes to disk every N updates, 0 to rely on OS
+     */
+    public MappedFilePersister(Path path, int slotSize, int forceInterval) throws IOException {
+        this.slotSize = slotSize;
+        this.forceInterval = forceInterval;
+        this.file = new RandomAccessFile(path.toFile(), "rw");
+        this.buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, 2L * slotSize);
+
+        final long sequence0 = readSlot(0, null);
+        final long sequence1 = readSlot(1, null);
+        if (sequence0 >= 0 || sequence1 >= 0) {
+            final int slot = sequence0 > sequence1 ? 0 : 1;
+            sequence = readSlot(slot, cursors);
+        }
+    }
+
+    /**
+     * Read slot contents.
+     * @return sequence number of the slot, or -1 if the slot is empty or corrupted
+     */
+    private long readSlot(int slot, Map<String, EventCursor> result) {
+        final ByteBuffer slotBuffer = slice(slot);
+
+        final int magic = slotBuffer.getInt();
+        if (magic != MAGIC)
+            return -1;
+
+        final long slotSequence = slotBuffer.getLong();
+        final int length = slotBuffer.getInt();
+        final int crc = slotBuffer.getInt();
+
+        if (length < 4 || length > slotSize - HEADER_SIZE)
+            return -1;
+
+        final ByteBuffer payload = slotBuffer.slice();
+        payload.limit(length);
+        final CRC32 crc32 = new CRC32();
+        crc32.update(payload.duplicate());
+        if ((int) crc32.getValue() != crc)
+            return -1;
+
+        if (result != null) {
+            final int count = payload.getInt();
+            for (int i = 0; i < count; ++i) {
+                final byte[] name = new byte[payload.getShort()];
+                payload.get(name);
+                final EventCursor cursor = EventCursor.readFrom(payload);
+                result.put(new String(name, StandardCharsets.UTF_8), cursor);
+            }
+        }
+        return slotSequence;
+    }
+
+    private void writeSlot(int slot) {
+        final ByteBuffer slotBuffer = slice(slot);
+        final ByteBuffer payload = ((ByteBuffer) slotBuffer.duplicate().position(HEADER_SIZE)).slice();
+
+        payload.putInt(cursors.size());
+        for (Map.Entry<String, EventCursor> entry : cursors.entrySet()) {
+            final byte[] name = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            payload.putShort((short) name.length);
+            payload.put(name);
+            entry.getValue().writeTo(payload);
+        }
+        payload.flip();
+
+        final CRC32 crc32 = new CRC32();
+        crc32.update(payload.duplicate());
+
+        slotBuffer.putInt(MAGIC);
+        slotBuffer.putLong(sequence);
+        slotBuffer.putInt(payload.limit());
+        slotBuffer.putInt((int) crc32.getValue());
+
+        if (forceInterval > 0 && ++updates >= forceInterval) {
+            updates = 0;
+            buffer.force();
+        }
+    }
+
+    private ByteBuffer slice(int slot) {
+        final ByteBuffer slotBuffer = buffer.duplicate();
+        slotBuffer.position(slot * slotSize);
+        slotBuffer.limit((slot + 1) * slotSize);
+        return slotBuffer.slice();
+    }
+
+    private static int getEntrySize(String name, EventCursor cursor) {
+        return 2 + name.getBytes(StandardCharsets.UTF_8).length + cursor.getEncodedSize();
+    }
+
+    /**
+     * Apply the changes and write them to the next slot. When the changes don't fit
+     * into the slot, nothing is changed.
+     */
+    private void save(Map<String, EventCursor> changes) {
+        int size = 4;
+        for (Map.Entry<String, EventCursor> entry : cursors.entrySet()) {
+            if (!changes.containsKey(entry.getKey()))
+                size += getEntrySize(entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<String, EventCursor> entry : changes.entrySet())
+            size += getEntrySize(entry.getKey(), entry.getValue());
+        if (size > slotSize - HEADER_SIZE)
+            throw new IllegalStateException("Checkpoint slot size exceeded: " + slotSize);
+
+        cursors.putAll(changes);
+        ++sequence;
+        writeSlot((int) (sequence & 1));
+    }
+
+    @Override
+    public synchronized long getStartBlock(String channelName) {
+        final EventCursor cursor = cursors.get(channelName);
+        return cursor != null ? cursor.getBlockNumber() : Long.MAX_VALUE;
+    }
+
+    @Override
+    public synchronized void setStartBlock(String channelName, long startBlock) {
+        save(Collections.singletonMap(channelName, new EventCursor(startBlock)));
+    }
+
+    @Override
+    public synchronized void setStartBlocks(Map<String, Long> startBlocks) {
+        final Map<String, EventCursor> changes = new HashMap<>();
+        startBlocks.forEach((channelName, startBlock) -> changes.put(channelName, new EventCursor(startBlock)));
+        save(changes);
+    }
+
+    @Override
+    public synchronized EventCursor getCursor(String name) {
+        return cursors.get(name);
+    }
+
+    @Override
+    public synchronized void setCursor(String name, EventCursor cursor) {
+        save(Collections.singletonMap(name, cursor));
+    }
+
+    @Override
+    public synchronized void setCursors(Map<String, EventCursor> cursors) {
+        save(cursors);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        buffer.force();
+        file.close();
+    }
+}
@@ -2,6 +2,12 @@ package com.luxoft.fabric.events;
 
 import com.google.protobuf.Empty;
 import com.luxoft.fabric.events.ordering.FabricQueryException;
+import com.luxoft.fabric.events.ordering.FetchScheduler;
+import com.luxoft.fabric.events.ordering.FetchTimings;
+import com.luxoft.fabric.events.ordering.SerialExecutor;
+import com.luxoft.fabric.events.store.BlockStore;
+import com.luxoft.fabric.events.store.TransactionStatusIndex;
+import com.luxoft.fabric.utils.TransactionEventsQuery;
 import com.luxoft.fabric.utils.TxUtils;
 import org.hyperledger.fabric.sdk.*;
 import org.hyperledger.fabric.sdk.exception.InvalidArgumentException;
@@ -12,7 +18,9 @@ import org.slf4j.LoggerFactory;
 import java.lang.ref.WeakReference;
 import java.util.*;
 import java.util.concurrent.*;
-import java.util.regex.Pattern;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 
 /**
  * Event tracking with ordering and delivery guaranties.
@@ -24,13 +32,17 @@ import java.util.regex.Pattern;
  * <li>if this block is the next block in sequence performs processing asap</li>
  *
  * <li>if this block is out of order, delays for some time, waiting for the previous
- * blocks in range [HEAD..K-1] to appear</li>
+ * blocks in range [HEAD..K-1] to appear. The delay is adapted to the observed block
+ * interval of the deliver stream, and is skipped when the stream is stale
+ * (see {@link FetchTimings})</li>
  *
  * <li>when delay is over, downloads HEAD block to process</li>
  *
  * <li>When initial delay is over, process blocks in range (HEAD..TAIL) without
  * delays. Here TAIL is the most recent known block in channel.</li>
  *
+ * <li>Network errors are retried with exponential backoff</li>
+ *
  * <li>If it receives filtered blocks (HPF-1.1 feature), events are checked,
  * and if there are some events of interest necessary and their payload type
  * is not Void or Empty, full block is fetched to get event payload.</li>
@@ -52,58 +64,73 @@ import java.util.regex.Pattern;
  *
  * <li> {@link OrderingEventTracker} use {@link Persister} class to persist block
  * processing state </li>
+ *
+ * <li>Blocks received ahead of processing are kept within the memory budget
+ * (see {@link #setBlockBufferLimits(int, long)}), blocks beyond it are
+ * downloaded again when their turn comes</li>
+ *
+ * <li>Blocks are received from every peer with the event source role, the first copy
+ * of the block is processed and the rest are dropped, so lagging peer doesn't delay
+ * events (see {@link #getPeerStreamMetrics(Channel)})</li>
+ *
+ * <li>Listeners may be split into groups (see {@link #addListenerGroup(String, Executor)}),
+ * each group has its own cursor, so slow group doesn't hold back the others</li>
  * </ol>
  */
-public class OrderingEventTracker implements EventTracker {
+public class OrderingEventTracker implements EventTracker, AutoCloseable {
 
     public interface EventListener<T> {
         CompletableFuture<Boolean> filter(ChaincodeEvent chaincodeEvent);
 
-        CompletableFuture onEvent(ChaincodeEvent chaincodeEvent, T eventData);
-    }
+        CompletableFuture<?> onEvent(ChaincodeEvent chaincodeEvent, T eventData);
 
-    private static class EventListenerInfo {
-        final Pattern chaincodePattern;
-        final Pattern eventNamePattern;
-        final PayloadDecoder payloadDecoder;
-        final EventListener listener;
-
-        EventListenerInfo(Pattern chaincodePattern,
-                          Pattern eventNamePattern,
-                          PayloadDecoder payloadDecoder,
-                          EventListener listener) {
-            this.chaincodePattern = chaincodePattern;
-            this.eventNamePattern = eventNamePattern;
-            this.payloadDecoder = payloadDecoder;
-            this.listener = listener;
+        /**
+         * Called by tracker with lazily decoded payload. Override it to skip payload
+         * decoding, when payload is not always needed.
+         */
+        default CompletableFuture<?> onEvent(ChaincodeEvent chaincodeEvent, DecodedPayload<? extends T> payload) throws Exception {
+            return onEvent(chaincodeEvent, payload.get());
         }
     }
 
     private static final Logger logger = LoggerFactory.getLogger(OrderingEventTracker.class);
 
-    enum FetchPolicy {
-        SLEEP, DELAY, IMMEDIATE, ERROR
-    }
+    private static final int QUERY_PARALLELISM = 4;
+    private static final int EVENT_LOOP_THREADS = 2;
+    private static final int CLOSE_TIMEOUT_SEC = 10;
 
-    private ScheduledExecutorService executorService = Executors.newScheduledThreadPool(1);
+    private ScheduledExecutorService executorService = Executors.newScheduledThreadPool(EVENT_LOOP_THREADS);
+    private ExecutorService queryExecutorService = Executors.newFixedThreadPool(QUERY_PARALLELISM);
+    private final TransactionEventsQuery transactionEventsQuery = new TransactionEventsQuery(queryExecutorService, QUERY_PARALLELISM, TransactionEventsQuery.DEFAULT_CACHE_SIZE);
     private final Persister persister;
-    private CompletableFuture<Void> enableEventsDelivery = new CompletableFuture<>();
+    private final FetchTimings fetchTimings;
+    private volatile CompletableFuture<Void> enableEventsDelivery = new CompletableFuture<>();
     private Map<Channel, ChannelTracker> channelStateMap = new HashMap<>();
-    private final List<EventListenerInfo> eventsWaiting = new CopyOnWriteArrayList<>();
-    private CountDownLatch initialization = new CountDownLatch(1);
+    private final ListenerGroup defaultGroup = new ListenerGroup(null, null);
+    private final List<ListenerGroup> listenerGroups = new CopyOnWriteArrayList<>(Collections.singletonList(defaultGroup));
+    private int fullBlockFetchThreshold = 8;
+    private int maxBufferedBlocks = 1000;
+    private long maxBufferedBytes = 256L * 1024 * 1024;
+    private volatile FailurePolicy defaultFailurePolicy = FailurePolicy.skip();
+    private volatile BlockStore blockStore = null;
+    private volatile TransactionStatusIndex transactionStatusIndex = null;
+    private boolean sharedBlockHub = false;
+    private final HandlerMetrics handlerMetrics = new HandlerMetrics();
 
     // TODO: when startblock is too far in the past, should skip the gap?
     // TODO: when startBlock is in the future (due to backup restore), revert state?
 
     class EventSubscription {
-        final WeakReference<EventListenerInfo> listenerInfo;
+        final WeakReference<EventListenerInfo<?>> listenerInfo;
         final String transactionId;
+        final int txIndex;
         final int eventIndex;
         final boolean needFetching;
 
-        EventSubscription(EventListenerInfo listenerInfo, String transactionId, int eventIndex, boolean needFetching) {
+        EventSubscription(EventListenerInfo<?> listenerInfo, String transactionId, int txIndex, int eventIndex, boolean needFetching) {
             this.listenerInfo = new WeakReference<>(listenerInfo);
             this.transactionId = transactionId;
+            this.txIndex = txIndex;
             this.eventIndex = eventIndex;
             this.needFetching = needFetching;
         }
@@ -117,14 +144,19 @@ public class OrderingEventTracker implements EventTracker {
     public class BlockData {
         private BlockInfo blockInfo = null;
         private long blockNumber;
-        private EventSubscriptionList eventSubscriptionList = null;
+        /* Fetched events of the filtered block */
         private Map<String, List<ChaincodeEvent>> txList = new HashMap<>();
         private Set<String> fetchQueue = new HashSet<>();
-        private CompletableFuture<Void> processing = null;
+        private CompletableFuture<Void> fetched = null;
+        /* Decoded payloads, shared by groups */
+        private final Map<List<Object>, DecodedPayload<?>> payloads = new HashMap<>();
+        private long size = 0;
+        private boolean evicted = false;
 
         BlockData(BlockInfo blockInfo) {
             this.blockInfo = blockInfo;
             this.blockNumber = blockInfo.getBlockNumber();
+            this.size = getBlockSize(blockInfo);
         }
 
         BlockData(long blockNumber) {
@@ -144,6 +176,14 @@ public class OrderingEventTracker implements EventTracker {
                 return "full";
         }
 
+        /**
+         * @return true when block is known to exist, but its content was not kept
+         * due to memory budget
+         */
+        boolean isEvicted() {
+            return evicted;
+        }
+
         int getPriority() {
             if (blockInfo == null)
                 return 0;
@@ -154,352 +194,757 @@ public class OrderingEventTracker implements EventTracker {
         }
     }
 
+    /**
+     * Stops processing of the listener group, see {@link FailurePolicy#halt()}
+     */
+    private static class HaltException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        HaltException(EventCursor position) {
+            super("Halted at " + position);
+        }
+    }
+
+    private static Throwable unwrap(Throwable t) {
+        return t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+    }
+
+    private static long getBlockSize(BlockInfo blockInfo) {
+        if (blockInfo.isFiltered())
+            return blockInfo.getFilteredBlock().getSerializedSize();
+        else
+            return blockInfo.getBlock().getSerializedSize();
+    }
+
+    /**
+     * Per-channel state machine. All the state is owned by the channel's event loop:
+     * block arrival, network query results and processing completion are posted to it
+     * as tasks, so no locking is required, and SDK delivery thread is never blocked.
+     * Network queries run on the query executor and never in the event loop.
+     * <p>
+     * Each listener group has its own position in the channel, blocks are kept in the
+     * shared map until the slowest group passes them.
+     */
     private class ChannelTracker {
-        /* Block Number, which is next to process */
-        private long nextBlockNumber = Long.MAX_VALUE;
         private final long startBlock;
-        private long refetchBlockMillis = TimeUnit.SECONDS.toMillis(5);
-        private long errorBlockMillis = TimeUnit.SECONDS.toMillis(10);
         private Map<Long, BlockData> blockInfoMap = new HashMap<>();
+        /* Blocks with content kept in blockInfoMap, and their size */
+        private final AtomicInteger bufferedBlocks = new AtomicInteger();
+        private final AtomicLong bufferedBytes = new AtomicLong();
+        private final AtomicLong evictedBlocks = new AtomicLong();
         private final Channel channel;
         private final String channelName;
-        private FetchPolicy fetchPolicy = FetchPolicy.SLEEP;
+        private final FetchScheduler fetchScheduler = new FetchScheduler(fetchTimings);
+        /* Fetch is scheduled after the delay */
+        private boolean fetchScheduled = false;
+        /* Missing blocks are known to exist, fetch them without delays */
+        private boolean catchingUp = false;
+        private final SerialExecutor eventLoop = new SerialExecutor(executorService);
+        /* Writes to the block store and the transaction index, in order of blocks */
+        private final SerialExecutor storeExecutor = new SerialExecutor(queryExecutorService);
+        /* Shared block stream, null if the tracker listens the channel itself */
+        private final BlockHub blockHub;
+        private final BlockHub.Consumer blockHubConsumer;
+        private final String blockListenerHandle;
+        private final PeerStreamMetrics peerStreamMetrics;
+        /* Blocks received before connectChannel() is completed */
+        private List<BlockData> pendingBlocks = new ArrayList<>();
+        private boolean fetching = false;
+        /* Highest block number seen, lower blocks are known to exist */
+        private long highestKnownBlockNumber = -1;
+        private final List<GroupTracker> groups = new ArrayList<>();
+
+        /**
+         * Position and processing state of the listener group in the channel
+         */
+        private class GroupTracker {
+            private final ListenerGroup group;
+            private final String checkpointName;
+            /* Block Number, which is next to process */
+            private volatile long nextBlockNumber = Long.MAX_VALUE;
+            private final long startBlock;
+            /* Events of the start block before this cursor are processed already */
+            private EventCursor resumeCursor;
+            /* Block being processed */
+            private BlockData processing = null;
+            /* Halted at the processing block, see FailurePolicy#halt() */
+            private boolean halted = false;
+
+            private GroupTracker(ListenerGroup group) {
+                this.group = group;
+                this.checkpointName = group.getCheckpointName(channelName);
+                if (persister != null)
+                    resumeCursor = persister.getCursor(checkpointName);
+                startBlock = resumeCursor != null ? resumeCursor.getBlockNumber() : Long.MAX_VALUE;
 
-        private ChannelTracker(Channel channel) throws InvalidArgumentException {
-            this.channel = channel;
-            this.channelName = channel.getName();
-            if (persister != null)
-                startBlock = persister.getStartBlock(channelName);
-            else
-                startBlock = Long.MAX_VALUE;
+                if (startBlock > 0 && startBlock < Long.MAX_VALUE)
+                    nextBlockNumber = startBlock;
+            }
 
-            if (startBlock > 0 && startBlock < Long.MAX_VALUE)
-                nextBlockNumber = startBlock;
+            private void processNextBlock() {
+                if (processing != null)
+                    return;
 
-            channel.registerBlockListener(this::addBlock);
-        }
+                final BlockData blockData = blockInfoMap.get(nextBlockNumber);
 
-        private synchronized void connectChannel() throws InvalidArgumentException, ProposalException {
-            final BlockchainInfo blockchainInfo = channel.queryBlockchainInfo();
-            long knownHeight = blockchainInfo.getHeight();
-            long maxAvailBlockNumber = (knownHeight > 0) ? knownHeight : 1;
+                if (blockData == null || blockData.blockInfo == null) {
+                    // the block was seen already, no need to wait for it in the stream
+                    if (blockData != null && blockData.isEvicted())
+                        catchingUp = true;
+                    scheduleNextBlockFetching();
+                    return;
+                }
 
-            if (nextBlockNumber > maxAvailBlockNumber) {
-                nextBlockNumber = maxAvailBlockNumber;
-                if (startBlock != nextBlockNumber)
-                    saveStartBlock(nextBlockNumber);
+                processing = blockData;
+                // 1) filter subscriptions
+                filterSubscriptions(blockData)
+                        // 2) fetch transactions if necessary
+                        .thenComposeAsync((eventSubscriptionList) -> {
+                            final CompletableFuture<Void> fetched = eventSubscriptionList.needsFetching
+                                    ? fetchTransactions(blockData, eventSubscriptionList)
+                                    : CompletableFuture.completedFuture(null);
+                            // 3) Run processing
+                            return fetched.thenComposeAsync((x) -> processBlock(blockData, eventSubscriptionList), eventLoop);
+                        }, eventLoop)
+                        // 4) Go to the next block
+                        .handleAsync((r, t) -> {
+                            if (t != null && unwrap(t) instanceof HaltException)
+                                onHalted();
+                            else
+                                blockCompleted(blockData.blockNumber);
+                            return null;
+                        }, eventLoop);
             }
 
-            if (nextBlockNumber != maxAvailBlockNumber)
-                blockInfoMap.put(maxAvailBlockNumber, new BlockData(maxAvailBlockNumber));
+            private CompletableFuture<EventSubscriptionList> filterSubscriptions(BlockData blockData) {
+                CompletableFuture<EventSubscriptionList> result = CompletableFuture.completedFuture(new EventSubscriptionList());
+                int envelopeIndex = -1;
 
-            initialization.countDown();
-            scheduleNextBlockFetching();
-        }
+                for (BlockInfo.EnvelopeInfo envelopeInfo : blockData.blockInfo.getEnvelopeInfos()) {
+                    final int txIndex = ++envelopeIndex;
+                    if (!envelopeInfo.isValid() || !(envelopeInfo instanceof BlockInfo.TransactionEnvelopeInfo))
+                        continue;
 
-        private void addBlock(BlockInfo blockInfo) {
-            addBlockData(new BlockData(blockInfo));
-        }
+                    final BlockInfo.TransactionEnvelopeInfo transactionEnvelopeInfo = (BlockInfo.TransactionEnvelopeInfo) envelopeInfo;
+                    final List<ChaincodeEvent> transactionEvents = TxUtils.getTransactionEvents(transactionEnvelopeInfo);
+
+                    final String transactionID = transactionEnvelopeInfo.getTransactionID();
+
+                    for (ListIterator<ChaincodeEvent> iterator = transactionEvents.listIterator(); iterator.hasNext(); ) {
+                        final int eventIndex = iterator.nextIndex();
+                        final ChaincodeEvent chaincodeEvent = iterator.next();
+
+                        if (resumeCursor != null && resumeCursor.isAfter(blockData.blockNumber, txIndex, eventIndex))
+                            continue;
+
+                        for (EventListenerInfo<?> e : group.listeners) {
+                            if (e.matches(chaincodeEvent)) {
+
+                                CompletableFuture<Boolean> filter = e.listener.filter(chaincodeEvent);
+
+                                if (filter == null) {
+                                    filter = CompletableFuture.completedFuture(Boolean.TRUE);
+                                } else {
+                                    filter = filter.exceptionally((t) -> {
+                                        logger.warn("Filtering failed on {}, exclude", chaincodeEvent, t);
+                                        return Boolean.FALSE;
+                                    });
+                                }
+
+                                result = result.thenCombineAsync(filter, (subs, currRelate) -> {
+                                    if (Boolean.TRUE.equals(currRelate)) {
+                                        boolean needsFetching = false;
+                                        if (!Empty.class.isAssignableFrom(e.payloadDecoder.getTargetClass())
+                                                && e.payloadDecoder.getTargetClass() != Void.class) {
+                                            needsFetching = blockData.blockInfo.isFiltered();
+                                        }
+                                        subs.needsFetching |= needsFetching;
+                                        subs.subscriptions.add(new EventSubscription(e, transactionID, txIndex, eventIndex, needsFetching));
+                                    }
+
+                                    return subs;
+                                }, eventLoop);
+                            }
+                        }
+                    }
+                }
+                return result;
+            }
+
+            /**
+             * Move the group to the block. Resume cursor is dropped, unless the group stays
+             * at its block, so rolled back group processes the block from the beginning.
+             */
+            private void moveTo(long blockNumber) {
+                nextBlockNumber = blockNumber;
+                if (resumeCursor != null && resumeCursor.getBlockNumber() != blockNumber)
+                    resumeCursor = null;
+            }
+
+            private void saveStartBlock(long blockNumber) {
+                saveCursor(new EventCursor(blockNumber));
+            }
 
-        private synchronized void addBlockData(BlockData blockData) {
-            while (true) {
+            private void saveCursor(EventCursor cursor) {
                 try {
-                    initialization.await();
-                    break;
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
+                    if (persister != null)
+                        persister.setCursor(checkpointName, cursor);
+                } catch (Exception e) {
+                    logger.warn("persisting cursor {} failed: {}", checkpointName, cursor);
                 }
             }
 
-            final long expectingBlockNumber = nextBlockNumber;
-            final long newBlockNumber = blockData.getBlockNumber();
-            if (newBlockNumber < expectingBlockNumber)
-                return;
+            private void blockCompleted(long blockNumber) {
 
-            logger.info("Got block {}. Content={}", newBlockNumber, blockData.getContentType());
-            boolean isHEAD = newBlockNumber == expectingBlockNumber;
-            boolean needFetching = blockInfoMap.isEmpty() && newBlockNumber > expectingBlockNumber;
+                if (blockNumber != nextBlockNumber)
+                    throw new InternalError(String.format("Invalid block number: %s, expect %s", blockNumber, nextBlockNumber));
 
-            blockInfoMap.compute(newBlockNumber, (k, v) ->
-                    v == null || v.getPriority() < blockData.getPriority() ? blockData : v);
+                final long lowestBlockNumber = getLowestBlockNumber();
+                moveTo(nextBlockNumber + 1);
+                processing = null;
+                logger.debug("Advance {} to block {}", checkpointName, nextBlockNumber);
+
+                saveStartBlock(nextBlockNumber);
+                for (long n = lowestBlockNumber; n < getLowestBlockNumber(); ++n)
+                    releaseBlockData(blockInfoMap.remove(n));
 
-            if (needFetching)
-                scheduleNextBlockFetching();
-            else if (isHEAD)
                 processNextBlock();
-        }
+            }
 
-        private void setFetchPolicyLk(FetchPolicy newFetchPolicy) {
-            if (this.fetchPolicy != newFetchPolicy) {
-                this.fetchPolicy = newFetchPolicy;
-                logger.debug("FETCH POLICY: {}", fetchPolicy);
+            /**
+             * Halted group keeps its block, so it is not processed further, and stops
+             * holding blocks for the other groups
+             */
+            private void onHalted() {
+                halted = true;
+                final long lowestBlockNumber = getLowestBlockNumber();
+                for (Iterator<Map.Entry<Long, BlockData>> iterator = blockInfoMap.entrySet().iterator(); iterator.hasNext(); ) {
+                    final Map.Entry<Long, BlockData> entry = iterator.next();
+                    if (entry.getKey() < lowestBlockNumber) {
+                        releaseBlockData(entry.getValue());
+                        iterator.remove();
+                    }
+                }
             }
-        }
 
-        private synchronized void executeAction(FabricQueryException.Runnable action) {
-            if (blockInfoMap.isEmpty()) {
-                setFetchPolicyLk(FetchPolicy.SLEEP);
-                return;
+            /**
+             * Apply async step to the event delivery chain, on the group's executor if any
+             */
+            private <T, U> CompletableFuture<U> deliver(CompletableFuture<T> future, Function<? super T, ? extends CompletionStage<U>> step) {
+                final Executor deliveryExecutor = group.getDeliveryExecutor();
+                return deliveryExecutor != null ? future.thenComposeAsync(step, deliveryExecutor) : future.thenCompose(step);
+            }
+
+            /**
+             * Call the listener and apply its failure policy. Returned future fails only
+             * when the group must be halted.
+             */
+            private <T> CompletableFuture<Void> handleEvent(EventListenerInfo<T> listenerInfo, ChaincodeEvent chaincodeEvent, DecodedPayload<? extends T> message,
+                                                        EventCursor position, int attempt) {
+                final String chaincodeId = chaincodeEvent.getChaincodeId();
+                final String eventName = chaincodeEvent.getEventName();
+                final String transactionID = chaincodeEvent.getTxId();
+
+                logger.info("Begin event handling(block={}, chaincode={}, name={}, txid={})", position.getBlockNumber(), chaincodeId, eventName, transactionID);
+                CompletableFuture<?> handled;
+                try {
+                    handled = Objects.requireNonNull(listenerInfo.listener.onEvent(chaincodeEvent, message));
+                } catch (Exception e) {
+                    final CompletableFuture<Object> failed = new CompletableFuture<>();
+                    failed.completeExceptionally(e);
+                    handled = failed;
+                }
+
+                return handled
+                        .handle((r, t) -> {
+                            if (t == null)
+                                logger.info("Event handling succeeded (block={}, chaincode={}, name={}, data={}, txid={}) -> ({})", position.getBlockNumber(), chaincodeId, eventName, message, transactionID, r);
+                            return t;
+                        })
+                        .thenCompose((t) -> {
+                            if (t == null) {
+                                handlerMetrics.onSucceeded();
+                                return CompletableFuture.completedFuture(null);
+                            }
+
+                            handlerMetrics.onFailed();
+                            final Throwable error = unwrap(t);
+                            final FailurePolicy failurePolicy = listenerInfo.failurePolicy != null ? listenerInfo.failurePolicy : defaultFailurePolicy;
+
+                            if (attempt < failurePolicy.getMaxRetries()) {
+                                final long delay = failurePolicy.getRetryDelayMillis(attempt);
+                                logger.warn("Event handling failed(block={}, chaincode={}, name={}, data={}, txid={}), retry in {} ms", position.getBlockNumber(), chaincodeId, eventName, message, transactionID, delay, error);
+                                handlerMetrics.onRetried();
+                                return deliver(delay(delay), (x) -> handleEvent(listenerInfo, chaincodeEvent, message, position, attempt + 1));
+                            }
+
+                            switch (failurePolicy.getAction()) {
+                                case DEAD_LETTER:
+                                    try {
+                                        failurePolicy.getDeadLetterStore().park(new DeadLetter(checkpointName, position, chaincodeEvent, String.valueOf(error)));
+                                        handlerMetrics.onDeadLettered();
+                                        logger.warn("Event handling failed(block={}, chaincode={}, name={}, data={}, txid={}), parked", position.getBlockNumber(), chaincodeId, eventName, message, transactionID, error);
+                                        return CompletableFuture.completedFuture(null);
+                                    } catch (Exception e) {
+                                        logger.error("Failed to park event at {}", position, e);
+                                        return halt(position, error);
+                                    }
+
+                                case HALT:
+                                    return halt(position, error);
+
+                                default:
+                                    handlerMetrics.onSkipped();
+                                    logger.warn("Event handling failed(block={}, chaincode={}, name={}, data={}, txid={})", position.getBlockNumber(), chaincodeId, eventName, message, transactionID, error);
+                                    return CompletableFuture.completedFuture(null);
+                            }
+                        });
             }
 
-            setFetchPolicyLk(FetchPolicy.IMMEDIATE);
-            try {
-                action.run();
-            } catch (FabricQueryException e) {
-                // turn to error handling
-                logger.warn("Exception while doing network action, sleep for awhile");
-                setFetchPolicyLk(FetchPolicy.ERROR);
-                scheduleAction(action);
+            private CompletableFuture<Void> halt(EventCursor position, Throwable error) {
+                handlerMetrics.onHalted();
+                logger.error("Event handling failed at {}, halt {}", position, checkpointName, error);
+                final CompletableFuture<Void> result = new CompletableFuture<>();
+                result.completeExceptionally(new HaltException(position));
+                return result;
             }
-        }
 
-        private synchronized void scheduleAction(FabricQueryException.Runnable action) {
-            if (fetchPolicy == FetchPolicy.IMMEDIATE && blockInfoMap.isEmpty()) {
-                setFetchPolicyLk(FetchPolicy.SLEEP);
-                return;
+            /**
+             * Deliver the event to the listener after the previous ones. Payloads are shared
+             * by listeners (of all the groups) with the same decoder, per event.
+             */
+            private <T> CompletableFuture<Void> deliverEvent(CompletableFuture<Void> blockProcessor, BlockData blockData, EventListenerInfo<T> listenerInfo,
+                                                             ChaincodeEvent chaincodeEvent, EventCursor position) {
+                final List<Object> key = Arrays.asList(position.getTxIndex(), position.getEventIndex(), listenerInfo.payloadDecoder);
+                // payload of the key is decoded by the key's decoder, so it has the decoder's type
+                @SuppressWarnings("unchecked")
+                final DecodedPayload<? extends T> message = (DecodedPayload<? extends T>) blockData.payloads.computeIfAbsent(key,
+                        (k) -> new DecodedPayload<T>(listenerInfo.payloadDecoder, chaincodeEvent));
+                return deliver(blockProcessor, (r) -> handleEvent(listenerInfo, chaincodeEvent, message, position, 0));
             }
 
-            switch (fetchPolicy) {
-                case ERROR:
-                    setFetchPolicyLk(FetchPolicy.DELAY);
-                    executorService.schedule(() -> executeAction(action), errorBlockMillis, TimeUnit.MILLISECONDS);
-                    break;
+            private CompletableFuture<Void> processBlock(BlockData blockInfo, EventSubscriptionList eventSubscriptionList) {
+                // fetched events, the rest is taken from the block
+                final Map<String, List<ChaincodeEvent>> txList = new HashMap<>(blockInfo.txList);
+                final long blockNumber = blockInfo.blockNumber;
 
-                case SLEEP:
-                    setFetchPolicyLk(FetchPolicy.DELAY);
-                    executorService.schedule(() -> executeAction(action), refetchBlockMillis, TimeUnit.MILLISECONDS);
-                    break;
+                blockInfo.blockInfo.getEnvelopeInfos().forEach((e) -> {
+                    if (e.isValid() && e instanceof BlockInfo.TransactionEnvelopeInfo) {
+                        final BlockInfo.TransactionEnvelopeInfo txEnvelopeInfo = (BlockInfo.TransactionEnvelopeInfo) e;
+                        txList.computeIfAbsent(e.getTransactionID(),
+                                (k) -> TxUtils.getTransactionEvents(txEnvelopeInfo));
+                    }
+                });
+
+                CompletableFuture<Void> blockProcessor;
+
+                if (enableEventsDelivery != null) {
+                    if (!enableEventsDelivery.isDone())
+                        logger.info("Events delivery is not enabled, postpone block processing");
+                    blockProcessor = enableEventsDelivery;
+                } else
+                    blockProcessor = CompletableFuture.completedFuture(null);
+
+                final List<EventSubscription> subscriptions = eventSubscriptionList.subscriptions;
+
+                for (ListIterator<EventSubscription> iterator = subscriptions.listIterator(); iterator.hasNext(); ) {
+                    final EventSubscription s = iterator.next();
+                    // the last subscription of the event, checkpoint after it
+                    final boolean lastOfEvent = !iterator.hasNext()
+                            || subscriptions.get(iterator.nextIndex()).txIndex != s.txIndex
+                            || subscriptions.get(iterator.nextIndex()).eventIndex != s.eventIndex;
+
+                    final String transactionID = s.transactionId;
+                    final List<ChaincodeEvent> chaincodeEvents = txList.get(transactionID);
+
+                    final EventListenerInfo<?> listenerInfo = s.listenerInfo.get();
+                    if (listenerInfo != null && s.eventIndex < chaincodeEvents.size()) {
+                        final ChaincodeEvent chaincodeEvent = chaincodeEvents.get(s.eventIndex);
+                        final EventCursor position = new EventCursor(blockNumber, s.txIndex, s.eventIndex);
+                        blockProcessor = deliverEvent(blockProcessor, blockInfo, listenerInfo, chaincodeEvent, position);
+                    }
 
-                case DELAY:
-                    break;
+                    if (lastOfEvent) {
+                        final EventCursor cursor = new EventCursor(blockNumber, s.txIndex, s.eventIndex + 1);
+                        blockProcessor = blockProcessor.thenRun(() -> saveCursor(cursor));
+                    }
+                }
 
-                case IMMEDIATE:
-                    executorService.submit(() -> executeAction(action));
-                    break;
+                return blockProcessor;
             }
         }
 
-        private synchronized void scheduleNextBlockFetching() {
-            scheduleAction(() -> fetchBlock(nextBlockNumber));
+        private ChannelTracker(Channel channel) throws InvalidArgumentException {
+            this.channel = channel;
+            this.channelName = channel.getName();
+
+            long startBlock = Long.MAX_VALUE;
+            for (ListenerGroup group : listenerGroups) {
+                final GroupTracker groupTracker = new GroupTracker(group);
+                groups.add(groupTracker);
+                startBlock = Math.min(startBlock, groupTracker.startBlock);
+            }
+            this.startBlock = startBlock;
+
+            if (sharedBlockHub) {
+                blockHub = BlockHub.of(channel);
+                peerStreamMetrics = blockHub.getPeerStreamMetrics();
+                blockHubConsumer = blockHub.addBlockListener(this::addBlock);
+                blockListenerHandle = null;
+            } else {
+                blockHub = null;
+                peerStreamMetrics = new PeerStreamMetrics();
+                blockHubConsumer = null;
+                blockListenerHandle = channel.registerBlockListener(this::addBlock);
+            }
         }
 
-        private CompletableFuture<EventSubscriptionList> filterSubscriptions(BlockData blockData) {
-            CompletableFuture<EventSubscriptionList> result = CompletableFuture.completedFuture(new EventSubscriptionList());
-            final Iterator<BlockInfo.TransactionEnvelopeInfo> txIterator = TxUtils.getBlockTransactions(blockData.blockInfo);
+        /**
+         * Stop receiving blocks of the channel
+         */
+        private void close() throws InvalidArgumentException {
+            if (blockHubConsumer != null)
+                blockHubConsumer.close();
+            else
+                channel.unregisterBlockListener(blockListenerHandle);
+        }
 
-            while (txIterator.hasNext()) {
-                final BlockInfo.TransactionEnvelopeInfo transactionEnvelopeInfo = txIterator.next();
-                final List<ChaincodeEvent> transactionEvents = TxUtils.getTransactionEvents(transactionEnvelopeInfo);
+        /**
+         * Lowest block, which is not processed by some group yet. Halted groups are not
+         * counted, {@link Long#MAX_VALUE} if all the groups are halted.
+         */
+        private long getLowestBlockNumber() {
+            long lowestBlockNumber = Long.MAX_VALUE;
+            for (GroupTracker groupTracker : groups) {
+                if (!groupTracker.halted)
+                    lowestBlockNumber = Math.min(lowestBlockNumber, groupTracker.nextBlockNumber);
+            }
+            return lowestBlockNumber;
+        }
 
-                final String transactionID = transactionEnvelopeInfo.getTransactionID();
+        private boolean isHead(long blockNumber) {
+            for (GroupTracker groupTracker : groups) {
+                if (!groupTracker.halted && groupTracker.nextBlockNumber == blockNumber)
+                    return true;
+            }
+            return false;
+        }
 
-                if (!transactionEnvelopeInfo.isValid())
-                    continue;
+        private void addGroup(ListenerGroup group) {
+            final GroupTracker groupTracker = new GroupTracker(group);
+            // group without checkpoint starts along with the default group
+            if (groupTracker.nextBlockNumber == Long.MAX_VALUE)
+                groupTracker.moveTo(groups.get(0).nextBlockNumber);
+            groups.add(groupTracker);
 
-                for (ListIterator<ChaincodeEvent> iterator = transactionEvents.listIterator(); iterator.hasNext(); ) {
-                    final int eventIndex = iterator.nextIndex();
-                    final ChaincodeEvent chaincodeEvent = iterator.next();
+            if (pendingBlocks == null)
+                groupTracker.processNextBlock();
+        }
 
-                    for (EventListenerInfo e : eventsWaiting) {
-                        final String chaincodeId = chaincodeEvent.getChaincodeId();
-                        final String eventName = chaincodeEvent.getEventName();
-                        if (e.chaincodePattern.matcher(chaincodeId).matches()
-                                && e.eventNamePattern.matcher(eventName).matches()) {
+        private void connectChannel() throws InvalidArgumentException, ProposalException {
+            final BlockchainInfo blockchainInfo = channel.queryBlockchainInfo();
+            long knownHeight = blockchainInfo.getHeight();
+            long maxAvailBlockNumber = (knownHeight > 0) ? knownHeight : 1;
 
-                            CompletableFuture<Boolean> filter = e.listener.filter(chaincodeEvent);
+            eventLoop.execute(() -> onConnected(maxAvailBlockNumber));
+        }
 
-                            if (filter == null) {
-                                filter = CompletableFuture.completedFuture(Boolean.TRUE);
-                            } else {
-                                filter = filter.exceptionally((t) -> {
-                                    logger.warn("Filtering failed on {}, exclude", chaincodeEvent, t);
-                                    return Boolean.FALSE;
-                                });
-                            }
+        private void onConnected(long maxAvailBlockNumber) {
+            for (GroupTracker groupTracker : groups) {
+                if (groupTracker.nextBlockNumber > maxAvailBlockNumber) {
+                    groupTracker.moveTo(maxAvailBlockNumber);
+                    if (groupTracker.startBlock != maxAvailBlockNumber)
+                        groupTracker.saveStartBlock(maxAvailBlockNumber);
+                }
+            }
 
-                            result = result.thenCombineAsync(filter, (subs, currRelate) -> {
-                                if (Boolean.TRUE.equals(currRelate)) {
-                                    boolean needsFetching = false;
-                                    if (!Empty.class.isAssignableFrom(e.payloadDecoder.getTargetClass())
-                                            && e.payloadDecoder.getTargetClass() != Void.class) {
-                                        needsFetching = blockData.blockInfo.isFiltered();
-                                    }
-                                    subs.needsFetching |= needsFetching;
-                                    subs.subscriptions.add(new EventSubscription(e, transactionID, eventIndex, needsFetching));
-                                }
+            if (getLowestBlockNumber() != maxAvailBlockNumber)
+                putBlockData(new BlockData(maxAvailBlockNumber));
 
-                                return subs;
-                            }, executorService);
-                        }
-                    }
+            final List<BlockData> blocks = pendingBlocks;
+            pendingBlocks = null;
+            blocks.forEach(this::addBlockData);
+
+            scheduleNextBlockFetching();
+        }
+
+        /**
+         * Called by SDK delivery thread, just posts the block to the event loop.
+         * Copies of the block, delivered by other peers, are dropped here.
+         */
+        private void addBlock(BlockEvent blockEvent) {
+            // block hub drops copies itself
+            if (blockHub == null && !peerStreamMetrics.onBlock(PeerStreamMetrics.getSourceName(blockEvent), blockEvent.getBlockNumber()))
+                return;
+
+            indexBlock(blockEvent, true);
+            final BlockData blockData = new BlockData(blockEvent);
+            final long receivedMillis = System.currentTimeMillis();
+            eventLoop.execute(() -> {
+                fetchScheduler.onBlockReceived(blockData.getBlockNumber(), receivedMillis);
+                addBlockData(blockData);
+            });
+        }
+
+        private void addBlockData(BlockData blockData) {
+            if (pendingBlocks != null) {
+                pendingBlocks.add(blockData);
+                return;
+            }
+
+            final long expectingBlockNumber = getLowestBlockNumber();
+            final long newBlockNumber = blockData.getBlockNumber();
+            if (newBlockNumber < expectingBlockNumber)
+                return;
+
+            logger.info("Got block {}. Content={}", newBlockNumber, blockData.getContentType());
+            boolean isHEAD = isHead(newBlockNumber);
+            boolean needFetching = blockInfoMap.isEmpty() && newBlockNumber > expectingBlockNumber;
+
+            final BlockData oldBlockData = blockInfoMap.get(newBlockNumber);
+            if (oldBlockData == null || oldBlockData.getPriority() < blockData.getPriority()) {
+                if (!isHEAD && blockData.blockInfo != null && isOverBudget(blockData, oldBlockData))
+                    evict(blockData, oldBlockData);
+                else
+                    putBlockData(blockData);
+            }
+
+            if (needFetching)
+                scheduleNextBlockFetching();
+            if (isHEAD) {
+                for (GroupTracker groupTracker : new ArrayList<>(groups)) {
+                    if (groupTracker.nextBlockNumber == newBlockNumber)
+                        groupTracker.processNextBlock();
                 }
             }
-            return result;
         }
 
-        private void queryBlockEvents(CompletableFuture<Void> completableFuture,
-                                      BlockData blockData) {
-            for (Iterator<String> iterator = blockData.fetchQueue.iterator(); iterator.hasNext(); ) {
-                String s = iterator.next();
-                List<ChaincodeEvent> chaincodeEvents;
-                try {
-                    chaincodeEvents = FabricQueryException.withGuard(() -> TxUtils.queryEventsByTransactionID(channel, s));
-                } catch (FabricQueryException e) {
-                    // TODO
-                    logger.warn("Exception while queriying data", e);
-                    executorService.schedule(() -> queryBlockEvents(completableFuture, blockData),
-                            errorBlockMillis, TimeUnit.MILLISECONDS);
-                    return;
-                } catch (Exception e) {
-                    logger.warn("Ignore fetch error", e);
-                    chaincodeEvents = null;
-                }
+        private boolean isOverBudget(BlockData blockData, BlockData oldBlockData) {
+            int blocks = bufferedBlocks.get() + 1;
+            long bytes = bufferedBytes.get() + blockData.size;
+            if (oldBlockData != null && oldBlockData.blockInfo != null) {
+                blocks--;
+                bytes -= oldBlockData.size;
+            }
+            return blocks > maxBufferedBlocks || bytes > maxBufferedBytes;
+        }
 
-                if (chaincodeEvents != null && !chaincodeEvents.isEmpty())
-                    blockData.txList.put(s, chaincodeEvents);
-                iterator.remove();
+        /**
+         * Keep the block number only, content would be re-fetched when block becomes HEAD.
+         * Filtered content of the old entry, if any, is preserved.
+         */
+        private void evict(BlockData blockData, BlockData oldBlockData) {
+            evictedBlocks.incrementAndGet();
+            logger.debug("Memory budget exceeded ({} blocks, {} bytes), drop content of block {}",
+                    bufferedBlocks.get(), bufferedBytes.get(), blockData.blockNumber);
+
+            if (oldBlockData != null) {
+                oldBlockData.evicted = true;
+                return;
             }
 
-            completableFuture.complete(null);
+            final BlockData stub = new BlockData(blockData.blockNumber);
+            stub.evicted = true;
+            putBlockData(stub);
         }
 
-        private CompletableFuture<Void> fetchTransactions(BlockData blockData) {
-            blockData.eventSubscriptionList.subscriptions.forEach((e) -> {
-                if (e.needFetching)
-                    blockData.fetchQueue.add(e.transactionId);
-            });
+        private void putBlockData(BlockData blockData) {
+            final BlockData oldBlockData = blockInfoMap.put(blockData.blockNumber, blockData);
+            releaseBlockData(oldBlockData);
+            highestKnownBlockNumber = Math.max(highestKnownBlockNumber, blockData.blockNumber);
+            if (blockData.blockInfo != null) {
+                bufferedBlocks.incrementAndGet();
+                bufferedBytes.addAndGet(blockData.size);
+            }
+        }
 
-            final CompletableFuture<Void> completableFuture = new CompletableFuture<>();
-            CompletableFuture.runAsync(() -> queryBlockEvents(completableFuture, blockData));
-            return completableFuture;
+        private void releaseBlockData(BlockData blockData) {
+            if (blockData != null && blockData.blockInfo != null) {
+                bufferedBlocks.decrementAndGet();
+                bufferedBytes.addAndGet(-blockData.size);
+            }
         }
+        private void executeAction(Runnable action) {
+            fetchScheduled = false;
+            if (blockInfoMap.isEmpty())
+                return;
 
-        private synchronized void processNextBlock() {
-            final BlockData blockData = blockInfoMap.get(nextBlockNumber);
+            catchingUp = true;
+            action.run();
+        }
 
-            if (blockData == null || blockData.blockInfo == null) {
-                scheduleNextBlockFetching();
+        /**
+         * Turn to error handling: network action failed, back off
+         */
+        private void actionFailed(Runnable action, Throwable t) {
+            final long delayMillis = fetchScheduler.onError();
+            logger.warn("Exception while doing network action, retry in {} ms", delayMillis, t);
+            if (!fetchScheduled) {
+                fetchScheduled = true;
+                schedule(() -> executeAction(action), delayMillis);
+            }
+        }
+
+        private void scheduleAction(Runnable action) {
+            if (catchingUp && blockInfoMap.isEmpty()) {
+                catchingUp = false;
                 return;
             }
 
-            if (blockData.processing != null)
+            if (fetchScheduled)
                 return;
 
-            blockData.processing =
-                    // 1) filter subscriptions
-                    filterSubscriptions(blockData)
-                            .thenApplyAsync((eventSubscriptionList) -> {
-                                blockData.eventSubscriptionList = eventSubscriptionList;
-                                return null;
-                            }, executorService)
-                            // 2) fetch transactions if necessary
-                            .thenComposeAsync((x) -> {
-                                if (blockData.eventSubscriptionList.needsFetching)
-                                    return fetchTransactions(blockData);
-                                else
-                                    return CompletableFuture.completedFuture(null);
-                            }, executorService)
-                            // 3) Run processing
-                            .thenComposeAsync((x) -> {
-                                return processBlock(blockData);
-                            }, executorService)
-                            // 4) Go to the next block
-                            .handleAsync((r, t) -> {
-                                blockCompleted(blockData.blockNumber);
-                                return null;
-                            }, executorService);
+            final long delayMillis = catchingUp && fetchScheduler.getErrors() == 0
+                    ? 0
+                    : fetchScheduler.getFetchDelayMillis(System.currentTimeMillis());
+            logger.debug("Fetch in {} ms", delayMillis);
+            fetchScheduled = true;
+            if (delayMillis == 0)
+                eventLoop.execute(() -> executeAction(action));
+            else
+                schedule(() -> executeAction(action), delayMillis);
         }
 
-        private void saveStartBlock(long blockNumber) {
-            try {
-                if (persister != null)
-                    persister.setStartBlock(channelName, blockNumber);
-            } catch (Exception e) {
-                logger.warn("persisting block failed: {}", blockNumber);
-            }
+        /**
+         * Future, completed after the delay
+         */
+        private CompletableFuture<Void> delay(long delayMillis) {
+            final CompletableFuture<Void> result = new CompletableFuture<>();
+            executorService.schedule(() -> result.complete(null), delayMillis, TimeUnit.MILLISECONDS);
+            return result;
         }
 
-        private synchronized void blockCompleted(long blockNumber) {
+        /**
+         * Run the task in the event loop after the delay
+         */
+        private void schedule(Runnable task, long delayMillis) {
+            executorService.schedule(() -> eventLoop.execute(task), delayMillis, TimeUnit.MILLISECONDS);
+        }
 
-            if (blockNumber != nextBlockNumber)
-                throw new InternalError(String.format("Invalid block number: %s, expect %s", blockNumber, nextBlockNumber));
+        private void scheduleNextBlockFetching() {
+            scheduleAction(this::fetchNextBlock);
+        }
 
-            nextBlockNumber++;
-            logger.debug("Advance to block {}", nextBlockNumber);
+        /**
+         * Run the network query on the query executor
+         */
+        private <T> CompletableFuture<T> queryAsync(Callable<T> query) {
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    return FabricQueryException.withGuard(query);
+                } catch (FabricQueryException e) {
+                    throw new CompletionException(e);
+                }
+            }, queryExecutorService);
+        }
 
-            saveStartBlock(nextBlockNumber);
-            blockInfoMap.remove(nextBlockNumber - 1);
 
-            processNextBlock();
+
+        /**
+         * Query all the transactions from the fetch queue in parallel.
+         * On network error the query is retried with backoff, transactions fetched
+         * already are taken from the query cache then.
+         */
+        private void queryBlockEvents(CompletableFuture<Void> completableFuture,
+                                      BlockData blockData) {
+            transactionEventsQuery.queryEventsByTransactionIDs(channel, transactionStatusIndex, blockStore, new ArrayList<>(blockData.fetchQueue))
+                    .whenCompleteAsync((events, t) -> {
+                        if (t != null) {
+                            logger.warn("Exception while querying transactions of block {}", blockData.blockNumber, unwrap(t));
+                            schedule(() -> queryBlockEvents(completableFuture, blockData), fetchScheduler.onError());
+                            return;
+                        }
+
+                        events.forEach((transactionID, chaincodeEvents) -> {
+                            if (!chaincodeEvents.isEmpty())
+                                blockData.txList.put(transactionID, chaincodeEvents);
+                            blockData.fetchQueue.remove(transactionID);
+                        });
+                        fetchScheduler.onSuccess();
+                        completableFuture.complete(null);
+                    }, eventLoop);
         }
 
-        private synchronized CompletableFuture<Void> processBlock(BlockData blockInfo) {
-            final EventSubscriptionList eventSubscriptionList = blockInfo.eventSubscriptionList;
-            final Map<String, List<ChaincodeEvent>> txList = blockInfo.txList;
-            final long blockNumber = blockInfo.blockNumber;
+        /**
+         * Download full block once instead of querying transactions one by one.
+         * Events are taken from the full block by processBlock().
+         */
+        private void queryFullBlock(CompletableFuture<Void> completableFuture,
+                                    BlockData blockData) {
+            queryAsync(() -> queryBlock(blockData.blockNumber, true))
+                    .whenCompleteAsync((blockInfo, t) -> {
+                        if (t != null) {
+                            logger.warn("Exception while querying block {}", blockData.blockNumber, unwrap(t));
+                            schedule(() -> queryFullBlock(completableFuture, blockData), fetchScheduler.onError());
+                            return;
+                        }
 
-            blockInfo.blockInfo.getEnvelopeInfos().forEach((e) -> {
-                if (e.isValid() && e instanceof BlockInfo.TransactionEnvelopeInfo) {
-                    final BlockInfo.TransactionEnvelopeInfo txEnvelopeInfo = (BlockInfo.TransactionEnvelopeInfo) e;
-                    txList.computeIfAbsent(e.getTransactionID(),
-                            (k) -> TxUtils.getTransactionEvents(txEnvelopeInfo));
-                }
-            });
+                        fetchScheduler.onSuccess();
 
-            CompletableFuture<Void> blockProcessor;
-
-            if (enableEventsDelivery != null) {
-                if (!enableEventsDelivery.isDone())
-                    logger.info("Events delivery is not enabled, postpone block processing");
-                blockProcessor = enableEventsDelivery;
-            } else
-                blockProcessor = CompletableFuture.completedFuture(null);
-
-            for (EventSubscription s : eventSubscriptionList.subscriptions) {
-
-                final String transactionID = s.transactionId;
-                final List<ChaincodeEvent> chaincodeEvents = txList.get(transactionID);
-
-                final EventListenerInfo listenerInfo = s.listenerInfo.get();
-                if (listenerInfo != null && s.eventIndex < chaincodeEvents.size()) {
-                    final ChaincodeEvent chaincodeEvent = chaincodeEvents.get(s.eventIndex);
-                    final String chaincodeId = chaincodeEvent.getChaincodeId();
-                    final String eventName = chaincodeEvent.getEventName();
-
-                    try {
-
-                        Object message = listenerInfo.payloadDecoder.decode(chaincodeEvent.getPayload());
-
-                        blockProcessor = blockProcessor
-                                .thenCompose((r) -> {
-                                    logger.info("Begin event handling(block={}, chaincode={}, name={}, data={}, txid={})", blockNumber, chaincodeId, eventName, message, transactionID);
-                                    return listenerInfo.listener.onEvent(chaincodeEvent, message);
-                                })
-                                .handle((r, t) -> {
-                                    if (t != null)
-                                        logger.warn("Event handling failed(block={}, chaincode={}, name={}, data={}, txid={})", blockNumber, chaincodeId, eventName, message, transactionID, t);
-                                    else
-                                        logger.info("Event handling succeeded (block={}, chaincode={}, name={}, data={}, txid={}) -> ({})", blockNumber, chaincodeId, eventName, message, transactionID, r);
-                                    return null;
-                                });
-
-                    } catch (Exception e) {
-                        logger.warn("Prepare Event Handling failed(block={}, chaincode={}, name={}, txid={}): ", blockNumber, chaincodeId, eventName, transactionID, e);
-                    }
-                }
-            }
+                        bufferedBytes.addAndGet(getBlockSize(blockInfo) - blockData.size);
+                        blockData.size = getBlockSize(blockInfo);
+                        blockData.blockInfo = blockInfo;
+                        blockData.fetchQueue.clear();
+                        completableFuture.complete(null);
+                    }, eventLoop);
+        }
 
-            return blockProcessor;
+        /**
+         * Full block fetch costs one round trip regardless of the number of transactions,
+         * so it is preferred when many transactions are needed, or when they make
+         * the most of the block anyway. Block in the local store costs nothing.
+         */
+        private boolean preferFullBlock(BlockData blockData) {
+            final int needed = blockData.fetchQueue.size();
+            return needed >= fullBlockFetchThreshold || needed * 2 >= blockData.blockInfo.getTransactionCount()
+                    || blockStore != null && blockStore.containsBlock(channelName, blockData.blockNumber);
         }
 
-        private synchronized boolean resyncBlockchain(BlockchainInfo blockchainInfo) {
+        /**
+         * Fetch payloads of the subscribed events. Fetches of the groups are chained,
+         * so transactions fetched for one group are reused by the others.
+         */
+        private CompletableFuture<Void> fetchTransactions(BlockData blockData, EventSubscriptionList eventSubscriptionList) {
+            final CompletableFuture<Void> previous = blockData.fetched != null
+                    ? blockData.fetched
+                    : CompletableFuture.completedFuture(null);
+
+            blockData.fetched = previous.thenComposeAsync((x) -> {
+                if (!blockData.blockInfo.isFiltered())
+                    return CompletableFuture.completedFuture(null);
+
+                eventSubscriptionList.subscriptions.forEach((e) -> {
+                    if (e.needFetching && !blockData.txList.containsKey(e.transactionId))
+                        blockData.fetchQueue.add(e.transactionId);
+                });
+                if (blockData.fetchQueue.isEmpty())
+                    return CompletableFuture.completedFuture(null);
+
+                final CompletableFuture<Void> completableFuture = new CompletableFuture<>();
+                if (preferFullBlock(blockData)) {
+                    logger.debug("Fetch full block {} for {} transactions", blockData.blockNumber, blockData.fetchQueue.size());
+                    queryFullBlock(completableFuture, blockData);
+                } else
+                    queryBlockEvents(completableFuture, blockData);
+                return completableFuture;
+            }, eventLoop);
+            return blockData.fetched;
+        }
+
+        private boolean resyncBlockchain(BlockchainInfo blockchainInfo) {
             final long currentHeight = blockchainInfo.getHeight();
 
-            if (currentHeight < nextBlockNumber) {
+            long recentKnownBlock = -1;
+            for (GroupTracker groupTracker : groups) {
+                if (groupTracker.processing == null && currentHeight < groupTracker.nextBlockNumber) {
+                    recentKnownBlock = Math.max(recentKnownBlock, groupTracker.nextBlockNumber);
+                    groupTracker.moveTo(currentHeight); // rollback
+                }
+            }
+
+            if (recentKnownBlock >= 0) {
                 // yup!
-                long recentKnownBlock = nextBlockNumber;
-                nextBlockNumber = currentHeight; // rollback
-                setFetchPolicyLk(FetchPolicy.SLEEP); // calm down fetcher
+                catchingUp = false; // calm down fetcher
 
                 // throw all the extra pending blocks
                 for (Iterator<Map.Entry<Long, BlockData>> iterator = blockInfoMap.entrySet().iterator(); iterator.hasNext(); ) {
@@ -509,90 +954,142 @@ public class OrderingEventTracker implements EventTracker {
                     if (blockNumber > recentKnownBlock)
                         recentKnownBlock = blockNumber;
 
-                    if (blockNumber >= currentHeight)
+                    if (blockNumber >= currentHeight) {
+                        releaseBlockData(e.getValue());
                         iterator.remove();
+                    }
                 }
+                highestKnownBlockNumber = Math.min(highestKnownBlockNumber, currentHeight - 1);
+                // blocks of the new chain come with the same numbers, the hub's metrics are shared
+                peerStreamMetrics.rewind(currentHeight);
 
-                logger.warn("While checking block {} blockchain has suddenly been jumped back! Block {} -> {}", nextBlockNumber, recentKnownBlock, currentHeight);
+                logger.warn("While checking block {} blockchain has suddenly been jumped back! Block {} -> {}", currentHeight, recentKnownBlock, currentHeight);
                 return true;
             }
 
             return false;
         }
 
-        private void fetchBlock(long blockNumber) throws FabricQueryException {
-
-            final BlockData blockData;
-
-            synchronized (this) {
-                if (blockNumber != nextBlockNumber)
-                    return;
-
-                blockData = blockInfoMap.get(blockNumber);
-                if (blockData != null && blockData.blockInfo != null)
-                    return;
+        /**
+         * @return the lowest block, which some idle group waits for, Long.MAX_VALUE if none
+         */
+        private long getFetchBlockNumber() {
+            long blockNumber = Long.MAX_VALUE;
+            for (GroupTracker groupTracker : groups) {
+                final BlockData blockData = blockInfoMap.get(groupTracker.nextBlockNumber);
+                if (groupTracker.processing == null && (blockData == null || blockData.blockInfo == null)
+                        && (groupTracker.nextBlockNumber < highestKnownBlockNumber || blockData != null && blockData.isEvicted()))
+                    blockNumber = Math.min(blockNumber, groupTracker.nextBlockNumber);
             }
+            return blockNumber;
+        }
 
-            logger.info("Fetch block {}", blockNumber);
-            try {
-                final BlockInfo blockInfo = FabricQueryException.withGuard(() -> channel.queryBlockByNumber(blockNumber));
-                addBlock(blockInfo);
-            } catch (FabricQueryException ex) {
-                // try to recover if blockchain has been restored
-
-                try {
-                    final BlockchainInfo blockchainInfo = FabricQueryException.withGuard(() -> channel.queryBlockchainInfo());
-
-                    // handle rare case, when new block appear between queryBlockchainInfo() completion
-                    // and resyncBlockchain() start.
+        /**
+         * Fetch the lowest block, some group waits for. Groups at the chain head wait
+         * for the stream, as their block doesn't exist yet.
+         */
+        private void fetchNextBlock() {
+            final long fetchBlockNumber = getFetchBlockNumber();
+            if (fetchBlockNumber == Long.MAX_VALUE)
+                catchingUp = false;
+            if (fetching || fetchBlockNumber == Long.MAX_VALUE)
+                return;
 
-                    if (resyncBlockchain(blockchainInfo)) { //
-                        final BlockchainInfo blockchainInfo1 = FabricQueryException.withGuard(() -> channel.queryBlockchainInfo());
+            logger.info("Fetch block {}", fetchBlockNumber);
+            fetching = true;
+            queryAsync(() -> queryBlock(fetchBlockNumber, false))
+                    .whenCompleteAsync((blockInfo, t) -> {
+                        fetching = false;
+                        if (t == null) {
+                            fetchScheduler.onSuccess();
+                            // fetched block is stored by the query
+                            indexBlock(blockInfo, false);
+                            addBlockData(new BlockData(blockInfo));
+                            // the group, which got its block, is busy now, the others may still wait for theirs
+                            if (getFetchBlockNumber() != Long.MAX_VALUE)
+                                fetchNextBlock();
+                        } else
+                            recoverFetch(unwrap(t));
+                    }, eventLoop);
+        }
 
-                        final long knownHeight = blockchainInfo.getHeight();
-                        final long newHeight = blockchainInfo1.getHeight();
-                        // check if we miss some blocks...
-                        if (knownHeight == newHeight) // ... no blocks missed, do nothing
-                            ex = null;
-                        else { // ... some blocks missed, force fething
-                            addBlockData(new BlockData(blockchainInfo1.getHeight()));
-                        }
-                    }
+        /**
+         * Put the block to the transaction index, and to the block store if {@code putToStore}, on the store
+         * executor, so neither the SDK delivery thread nor the event loop waits for the disk
+         */
+        private void indexBlock(BlockInfo blockInfo, boolean putToStore) {
+            final BlockStore store = putToStore ? blockStore : null;
+            final TransactionStatusIndex index = transactionStatusIndex;
+            if (store == null && index == null)
+                return;
 
-                } catch (FabricQueryException e1) {
-                    ex.addSuppressed(e1);
-                }
+            storeExecutor.execute(() -> {
+                TxUtils.storeBlock(store, channelName, blockInfo);
+                if (index != null)
+                    index.addBlock(channelName, blockInfo);
+            });
+        }
 
-                if (ex != null)
-                    throw ex;
+        /**
+         * Blocks are processed in order, so the time index gets them without gaps
+         * while they are full
+         */
+        /**
+         * Take the block from the block hub buffer, if it is still there, otherwise
+         * from the block store or the network
+         * @param full filtered block is not enough
+         */
+        private BlockInfo queryBlock(long blockNumber, boolean full) throws InvalidArgumentException, ProposalException {
+            if (blockHub != null) {
+                final BlockInfo blockInfo = blockHub.getBlock(blockNumber);
+                if (blockInfo != null && !(full && blockInfo.isFiltered()))
+                    return blockInfo;
             }
+            return TxUtils.queryBlockByNumber(channel, blockStore, blockNumber);
         }
 
-        private boolean filterTransactionEvents(List<ChaincodeEvent> transactionEvents, boolean isFilteredData) {
-            boolean needFetching = false;
-
-            for (Iterator<ChaincodeEvent> iterator = transactionEvents.iterator(); iterator.hasNext(); ) {
-                ChaincodeEvent chaincodeEvent = iterator.next();
-                for (EventListenerInfo e : eventsWaiting) {
-                    final String chaincodeId = chaincodeEvent.getChaincodeId();
-                    final String eventName = chaincodeEvent.getEventName();
-                    if (e.chaincodePattern.matcher(chaincodeId).matches()
-                            && e.eventNamePattern.matcher(eventName).matches()) {
-                        if (!Empty.class.isAssignableFrom(e.payloadDecoder.getTargetClass())
-                                && e.payloadDecoder.getTargetClass() != Void.class) {
-                            needFetching = isFilteredData;
-                        }
-                    } else {
-                        iterator.remove();
-                    }
-                }
-            }
-            return needFetching;
+        /**
+         * try to recover if blockchain has been restored
+         */
+        private void recoverFetch(Throwable ex) {
+            queryAsync(channel::queryBlockchainInfo)
+                    .thenComposeAsync(blockchainInfo -> {
+                        if (!resyncBlockchain(blockchainInfo))
+                            return CompletableFuture.completedFuture(false);
+
+                        // handle rare case, when new block appear between queryBlockchainInfo() completion
+                        // and resyncBlockchain() start.
+                        return queryAsync(channel::queryBlockchainInfo).thenApplyAsync(blockchainInfo1 -> {
+                            final long knownHeight = blockchainInfo.getHeight();
+                            final long newHeight = blockchainInfo1.getHeight();
+                            // check if we miss some blocks...
+                            if (knownHeight == newHeight) // ... no blocks missed, do nothing
+                                return true;
+
+                            // ... some blocks missed, force fething
+                            addBlockData(new BlockData(newHeight));
+                            return false;
+                        }, eventLoop);
+                    }, eventLoop)
+                    .whenCompleteAsync((recovered, t) -> {
+                        if (t != null)
+                            ex.addSuppressed(unwrap(t));
+                        if (!Boolean.TRUE.equals(recovered))
+                            actionFailed(this::fetchNextBlock, ex);
+                    }, eventLoop);
         }
     }
 
     public OrderingEventTracker(Persister persister) {
+        this(persister, new FetchTimings());
+    }
+
+    /**
+     * @param fetchTimings delays of fetching missing blocks and retrying network errors
+     */
+    public OrderingEventTracker(Persister persister, FetchTimings fetchTimings) {
         this.persister = persister;
+        this.fetchTimings = fetchTimings;
     }
 
     @Override
@@ -618,13 +1115,166 @@ public class OrderingEventTracker implements EventTracker {
         return true;
     }
 
+    /**
+     * Add listener to the default group
+     */
     public <T> void addEventListener(String chaincodeName, String eventName, PayloadDecoder<? extends T> payloadDecoder, EventListener<T> listener) {
-        final EventListenerInfo eventListenerInfo = new EventListenerInfo(
-                Pattern.compile(chaincodeName),
-                Pattern.compile(eventName),
-                payloadDecoder,
-                listener);
-        eventsWaiting.add(eventListenerInfo);
+        defaultGroup.addEventListener(chaincodeName, eventName, payloadDecoder, listener);
+    }
+
+    /**
+     * Add listener to the default group
+     * @param failurePolicy what to do when listener fails, null to use the default
+     */
+    public <T> void addEventListener(String chaincodeName, String eventName, PayloadDecoder<? extends T> payloadDecoder, EventListener<T> listener, FailurePolicy failurePolicy) {
+        defaultGroup.addEventListener(chaincodeName, eventName, payloadDecoder, listener, failurePolicy);
+    }
+
+    /**
+     * Set failure policy for listeners registered without one. Default is {@link FailurePolicy#skip()}.
+     */
+    public void setDefaultFailurePolicy(FailurePolicy defaultFailurePolicy) {
+        this.defaultFailurePolicy = Objects.requireNonNull(defaultFailurePolicy);
+    }
+
+    /**
+     * @return counters of event handling outcomes, for all channels and groups
+     */
+    public HandlerMetrics getHandlerMetrics() {
+        return handlerMetrics;
+    }
+
+    /**
+     * Add group of listeners, which is processed independently of the other groups.
+     * Its cursor is saved as "channel/name" in the {@link Persister}. Group without the saved
+     * cursor starts along with the default group. Add groups before channels are configured,
+     * so the channel stream starts from the lowest block of all the groups.
+     * @param name unique group name
+     * @param deliveryExecutor executor to call listeners on, or null to call them on
+     *                         completion of the previous event handling
+     * @return the group to add listeners to
+     */
+    public ListenerGroup addListenerGroup(String name, Executor deliveryExecutor) {
+        Objects.requireNonNull(name);
+        for (ListenerGroup group : listenerGroups) {
+            if (name.equals(group.getName()))
+                throw new IllegalArgumentException("Duplicate listener group: " + name);
+        }
+
+        final ListenerGroup group = new ListenerGroup(name, deliveryExecutor);
+        listenerGroups.add(group);
+        for (ChannelTracker channelTracker : channelStateMap.values())
+            channelTracker.eventLoop.execute(() -> channelTracker.addGroup(group));
+        return group;
+    }
+
+    /**
+     * Set number of transactions to fetch, starting from which the full block is downloaded
+     * instead of querying the transactions one by one.
+     * @param fullBlockFetchThreshold number of transactions
+     */
+    public void setFullBlockFetchThreshold(int fullBlockFetchThreshold) {
+        this.fullBlockFetchThreshold = fullBlockFetchThreshold;
+    }
+
+    /**
+     * Set local store for full blocks. Blocks received or downloaded by the tracker are
+     * put to the store, and blocks are read from the store before querying the network.
+     */
+    public void setBlockStore(BlockStore blockStore) {
+        this.blockStore = blockStore;
+    }
+
+    /**
+     * Receive blocks through the channel's {@link BlockHub}, shared with other trackers
+     * of the same channel, instead of registering own block listener. Should be called
+     * before the channel is configured.
+     */
+    public void setSharedBlockHub(boolean sharedBlockHub) {
+        this.sharedBlockHub = sharedBlockHub;
+    }
+
+    /**
+     * Index transactions of the received blocks. Transaction events are taken from
+     * the block store, when the transaction's block is there.
+     */
+    public void setTransactionStatusIndex(TransactionStatusIndex transactionStatusIndex) {
+        this.transactionStatusIndex = transactionStatusIndex;
+    }
+
+    /**
+     * Transaction lookup used to fetch events of filtered blocks, its cache may be shared with user queries
+     */
+    public TransactionEventsQuery getTransactionEventsQuery() {
+        return transactionEventsQuery;
+    }
+
+    /**
+     * Set memory budget for blocks, received ahead of processing, per channel.
+     * When exceeded, block content is dropped, keeping only block number, and block
+     * is downloaded again when it's turn comes.
+     * @param maxBufferedBlocks maximum number of blocks
+     * @param maxBufferedBytes maximum serialized size of blocks
+     */
+    public void setBlockBufferLimits(int maxBufferedBlocks, long maxBufferedBytes) {
+        this.maxBufferedBlocks = maxBufferedBlocks;
+        this.maxBufferedBytes = maxBufferedBytes;
+    }
+
+    /**
+     * @param channel tracked channel
+     * @return number of blocks with content, received but not processed yet
+     */
+    public int getBufferedBlocks(Channel channel) {
+        return channelStateMap.get(channel).bufferedBlocks.get();
+    }
+
+    /**
+     * @param channel tracked channel
+     * @return serialized size of blocks, received but not processed yet
+     */
+    public long getBufferedBytes(Channel channel) {
+        return channelStateMap.get(channel).bufferedBytes.get();
+    }
+
+    /**
+     * @param channel tracked channel
+     * @return number of blocks, whose content was dropped due to memory budget
+     */
+    public long getEvictedBlocks(Channel channel) {
+        return channelStateMap.get(channel).evictedBlocks.get();
+    }
+
+    /**
+     * @param channel tracked channel
+     * @return heights and lags of the peers delivering blocks to the channel
+     */
+    public PeerStreamMetrics getPeerStreamMetrics(Channel channel) {
+        return channelStateMap.get(channel).peerStreamMetrics;
+    }
+
+    /**
+     * Stop tracking: unregister from the channels and shut down the tracker's threads,
+     * waiting for the running tasks. Events being delivered are not waited for, they are
+     * delivered again after restart. Then the persister is closed, if it is {@link AutoCloseable},
+     * e.g. {@link CheckpointingPersister} writes the pending cursors.
+     */
+    @Override
+    public void close() throws Exception {
+        for (ChannelTracker channelTracker : channelStateMap.values())
+            channelTracker.close();
+
+        // delayed fetches are dropped
+        if (executorService instanceof ScheduledThreadPoolExecutor)
+            ((ScheduledThreadPoolExecutor) executorService).setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        executorService.shutdown();
+        queryExecutorService.shutdown();
+        if (!executorService.awaitTermination(CLOSE_TIMEOUT_SEC, TimeUnit.SECONDS)
+                || !queryExecutorService.awaitTermination(CLOSE_TIMEOUT_SEC, TimeUnit.SECONDS))
+            logger.warn("Tracker threads didn't stop in {} seconds", CLOSE_TIMEOUT_SEC);
+
+        if (persister instanceof AutoCloseable)
+            ((AutoCloseable) persister).close();
     }
 
     public synchronized void enableEventsDelivery() {
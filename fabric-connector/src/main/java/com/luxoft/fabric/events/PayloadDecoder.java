@@ -1,5 +1,11 @@
 package com.luxoft.fabric.events;
 
+import com.google.protobuf.ByteString;
+import org.hyperledger.fabric.sdk.ChaincodeEvent;
+import org.hyperledger.fabric.sdk.SdkTxUtil;
+
+import java.nio.ByteBuffer;
+
 /**
  * Interface which allows decode arbitrary message types coming from chaincode.
  */
@@ -7,5 +13,29 @@ public interface PayloadDecoder<T> {
 
     T decode(byte[] encodedPayload) throws Exception;
 
+    /**
+     * Decode payload without copying it into byte array, if decoder supports it.
+     */
+    default T decode(ByteString encodedPayload) throws Exception {
+        return decode(encodedPayload.toByteArray());
+    }
+
+    /**
+     * Decode remaining bytes of the buffer without copying them, if decoder supports it.
+     */
+    default T decode(ByteBuffer encodedPayload) throws Exception {
+        final byte[] bytes = new byte[encodedPayload.remaining()];
+        encodedPayload.duplicate().get(bytes);
+        return decode(bytes);
+    }
+
+    /**
+     * Decode payload of the event. Used by event trackers, allows decoders
+     * to take the event name into account.
+     */
+    default T decode(ChaincodeEvent chaincodeEvent) throws Exception {
+        return decode(SdkTxUtil.getEventPayload(chaincodeEvent));
+    }
+
     Class<T> getTargetClass();
 }
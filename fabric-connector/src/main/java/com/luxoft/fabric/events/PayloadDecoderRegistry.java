@@ -0,0 +1,83 @@
+package com.luxoft.fabric.events;
+
+import org.hyperledger.fabric.sdk.ChaincodeEvent;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * {@link PayloadDecoder}, which picks the actual decoder by event name: exact names
+ * are checked first, then patterns in registration order, then the default decoder.
+ * Allows single listener to receive events of different payload types.
+ */
+public class PayloadDecoderRegistry implements PayloadDecoder<Object> {
+
+    private static class PatternEntry {
+        final Pattern pattern;
+        final PayloadDecoder<?> payloadDecoder;
+
+        PatternEntry(Pattern pattern, PayloadDecoder<?> payloadDecoder) {
+            this.pattern = pattern;
+            this.payloadDecoder = payloadDecoder;
+        }
+    }
+
+    private final Map<String, PayloadDecoder<?>> byName = new ConcurrentHashMap<>();
+    private final List<PatternEntry> byPattern = new CopyOnWriteArrayList<>();
+    private volatile PayloadDecoder<?> defaultDecoder = null;
+
+    public PayloadDecoderRegistry register(String eventName, PayloadDecoder<?> payloadDecoder) {
+        byName.put(eventName, payloadDecoder);
+        return this;
+    }
+
+    public PayloadDecoderRegistry register(Pattern eventNamePattern, PayloadDecoder<?> payloadDecoder) {
+        byPattern.add(new PatternEntry(eventNamePattern, payloadDecoder));
+        return this;
+    }
+
+    public PayloadDecoderRegistry setDefault(PayloadDecoder<?> payloadDecoder) {
+        this.defaultDecoder = payloadDecoder;
+        return this;
+    }
+
+    /**
+     * @param eventName chaincode event name
+     * @return decoder for the event
+     * @throws IllegalArgumentException if no decoder found
+     */
+    public PayloadDecoder<?> getDecoder(String eventName) {
+        final PayloadDecoder<?> payloadDecoder = byName.get(eventName);
+        if (payloadDecoder != null)
+            return payloadDecoder;
+
+        for (PatternEntry entry : byPattern) {
+            if (entry.pattern.matcher(eventName).matches())
+                return entry.payloadDecoder;
+        }
+
+        if (defaultDecoder == null)
+            throw new IllegalArgumentException("No payload decoder for event: " + eventName);
+        return defaultDecoder;
+    }
+
+    @Override
+    public Object decode(ChaincodeEvent chaincodeEvent) throws Exception {
+        return getDecoder(chaincodeEvent.getEventName()).decode(chaincodeEvent);
+    }
+
+    @Override
+    public Object decode(byte[] encodedPayload) throws Exception {
+        if (defaultDecoder == null)
+            throw new IllegalArgumentException("Event name is required to pick payload decoder");
+        return defaultDecoder.decode(encodedPayload);
+    }
+
+    @Override
+    public Class<Object> getTargetClass() {
+        return Object.class;
+    }
+}
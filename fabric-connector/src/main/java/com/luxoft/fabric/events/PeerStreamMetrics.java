@@ -0,0 +1,124 @@
+package com.luxoft.fabric.events;
+
+import org.hyperledger.fabric.sdk.BlockEvent;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Deliver streams of the channel peers. SDK subscribes to every peer with the event
+ * source role, so each block comes once per peer: the first copy wins and is processed,
+ * the others are dropped before reaching the tracker's event loop. Lagging or dead
+ * stream doesn't delay processing while some other peer is up to date.
+ * <p>
+ * Lag of the peer is the number of blocks it is behind the fastest peer.
+ */
+public class PeerStreamMetrics {
+    /* Delivered block numbers are remembered within this distance from the highest one */
+    private static final int DEDUP_WINDOW = 4096;
+
+    private final Map<String, Long> heights = new ConcurrentHashMap<>();
+    private final long[] delivered = new long[DEDUP_WINDOW / Long.SIZE];
+    private volatile long highestBlockNumber = -1;
+    private final AtomicLong duplicates = new AtomicLong();
+
+    /**
+     * Name of the peer, which delivered the block
+     */
+    static String getSourceName(BlockEvent blockEvent) {
+        return blockEvent.getPeer() != null ? blockEvent.getPeer().getName() : "unknown";
+    }
+
+    /**
+     * Called by SDK delivery thread for every block received
+     * @return true if this is the first copy of the block
+     */
+    synchronized boolean onBlock(String peerName, long blockNumber) {
+        heights.merge(peerName, blockNumber + 1, Math::max);
+
+        if (blockNumber > highestBlockNumber) {
+            // forget blocks leaving the window
+            for (long n = Math.max(highestBlockNumber + 1, blockNumber - DEDUP_WINDOW + 1); n < blockNumber; ++n)
+                setDelivered(n, false);
+            highestBlockNumber = blockNumber;
+        } else if (blockNumber <= highestBlockNumber - DEDUP_WINDOW || isDelivered(blockNumber)) {
+            // streams are ordered, so the block far behind was delivered by the fastest peer
+            duplicates.incrementAndGet();
+            return false;
+        }
+
+        setDelivered(blockNumber, true);
+        return true;
+    }
+
+    /**
+     * Forget blocks from the given height on, e.g. when the ledger was rolled back, so
+     * that the new blocks with the same numbers are accepted again. Bits of the dropped
+     * blocks are left as is: they now stand for the blocks one window lower, which were
+     * behind the window anyway.
+     */
+    synchronized void rewind(long height) {
+        if (height > highestBlockNumber)
+            return;
+        highestBlockNumber = height - 1;
+        heights.replaceAll((peerName, peerHeight) -> Math.min(peerHeight, height));
+    }
+
+    private boolean isDelivered(long blockNumber) {
+        final int bit = (int) (blockNumber % DEDUP_WINDOW);
+        return (delivered[bit / Long.SIZE] & (1L << bit)) != 0;
+    }
+
+    private void setDelivered(long blockNumber, boolean value) {
+        final int bit = (int) (blockNumber % DEDUP_WINDOW);
+        if (value)
+            delivered[bit / Long.SIZE] |= 1L << bit;
+        else
+            delivered[bit / Long.SIZE] &= ~(1L << bit);
+    }
+
+    /**
+     * @return height of the fastest peer's stream, 0 if no blocks received yet
+     */
+    public long getHeight() {
+        return highestBlockNumber + 1;
+    }
+
+    /**
+     * @return height of the peer's stream, 0 if the peer delivered nothing
+     */
+    public long getHeight(String peerName) {
+        return heights.getOrDefault(peerName, 0L);
+    }
+
+    /**
+     * @return number of blocks the peer is behind the fastest one
+     */
+    public long getLag(String peerName) {
+        return getHeight() - getHeight(peerName);
+    }
+
+    /**
+     * @return peer name to lag map for all peers delivered anything
+     */
+    public Map<String, Long> getLags() {
+        final long height = getHeight();
+        final Map<String, Long> lags = new HashMap<>();
+        heights.forEach((peerName, peerHeight) -> lags.put(peerName, Math.max(0, height - peerHeight)));
+        return lags;
+    }
+
+    /**
+     * @return number of block copies dropped
+     */
+    public long getDuplicates() {
+        return duplicates.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("PeerStreamMetrics(height=%d, lags=%s, duplicates=%d)", getHeight(), getLags(), getDuplicates());
+    }
+}
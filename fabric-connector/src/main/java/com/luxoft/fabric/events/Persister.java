@@ -1,5 +1,8 @@
 package com.luxoft.fabric.events;
 
+import java.util.HashMap;
+import java.util.Map;
+
 public interface Persister {
     /**
      * Returns advised start block. Returns {@link Long#MAX_VALUE } if unknown
@@ -15,4 +18,52 @@ public interface Persister {
      *                  when blockchain appears to be shorter than reported value.
      */
     void setStartBlock(String channelName, long startBlock);
+
+    /**
+     * Update start blocks of several channels at once. Implementations backed by
+     * external storage are advised to override it with a single batch write.
+     * @param startBlocks channel name to new block number map
+     */
+    default void setStartBlocks(Map<String, Long> startBlocks) {
+        startBlocks.forEach(this::setStartBlock);
+    }
+
+    /**
+     * Returns the position of the next event to process, or null if unknown.
+     * Default implementation returns the beginning of the start block, start blocks
+     * which are not positive are treated as unknown.
+     * @param name channel name or other checkpoint name
+     */
+    default EventCursor getCursor(String name) {
+        final long startBlock = getStartBlock(name);
+        if (startBlock <= 0 || startBlock == Long.MAX_VALUE)
+            return null;
+        return new EventCursor(startBlock);
+    }
+
+    /**
+     * Update the position of the next event to process. Default implementation keeps
+     * block-level granularity: cursors inside the block are ignored, so the block is
+     * processed again from the beginning on restart.
+     * @param name channel name or other checkpoint name
+     * @param cursor new position
+     */
+    default void setCursor(String name, EventCursor cursor) {
+        if (cursor.isBlockStart())
+            setStartBlock(name, cursor.getBlockNumber());
+    }
+
+    /**
+     * Update several cursors at once.
+     * @param cursors name to cursor map
+     */
+    default void setCursors(Map<String, EventCursor> cursors) {
+        final Map<String, Long> startBlocks = new HashMap<>();
+        cursors.forEach((name, cursor) -> {
+            if (cursor.isBlockStart())
+                startBlocks.put(name, cursor.getBlockNumber());
+        });
+        if (!startBlocks.isEmpty())
+            setStartBlocks(startBlocks);
+    }
 }
@@ -1,43 +1,75 @@
 package com.luxoft.fabric.events;
 
+import com.google.protobuf.ByteString;
 import com.google.protobuf.Empty;
 import com.google.protobuf.InvalidProtocolBufferException;
 import com.google.protobuf.Message;
+import com.google.protobuf.Parser;
 
-import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
 
 /**
- * Implementation of @link PayloadDecoder interface for decoding Protobuff encoded  messages from payload
+ * Implementation of @link PayloadDecoder interface for decoding Protobuff encoded  messages from payload.
+ * Message parser is resolved once, when decoder is created.
  */
 public class ProtobufMessagePayloadDecoder<T extends Message> implements PayloadDecoder<T> {
 
     private final Class<T> targetClass;
+    private final Parser<T> parser;
+    private final T constantMessage;
 
+    @SuppressWarnings("unchecked")
     public ProtobufMessagePayloadDecoder(Class<T> targetClass) {
         this.targetClass = targetClass;
+
+        if (Empty.class.isAssignableFrom(targetClass)) {
+            this.parser = null;
+            this.constantMessage = (T) Empty.getDefaultInstance();
+        } else if (Void.class.isAssignableFrom(targetClass)) {
+            this.parser = null;
+            this.constantMessage = null;
+        } else {
+            try {
+                final Message defaultInstance = (Message) targetClass.getMethod("getDefaultInstance").invoke(null);
+                this.parser = (Parser<T>) defaultInstance.getParserForType();
+                this.constantMessage = null;
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalArgumentException("Not a generated protobuf message class: " + targetClass, e);
+            }
+        }
     }
 
-    @SuppressWarnings("unchecked")
     @Override
-    public T decode(byte[] encodedPayload) throws InvalidProtocolBufferException, ReflectiveOperationException {
-
-        final Method newBuilder = targetClass.getMethod("newBuilder");
-        final Message.Builder builder = (Message.Builder) newBuilder.invoke(null);
-        final T message;
-
+    public T decode(byte[] encodedPayload) throws InvalidProtocolBufferException {
+        return parser != null ? parser.parseFrom(encodedPayload) : constantMessage;
+    }
 
-        if (Empty.class.isAssignableFrom(targetClass))
-            message = (T)Empty.getDefaultInstance();
-        else if (Void.class.isAssignableFrom(targetClass))
-            message = null;
-        else
-            message = (T)builder.mergeFrom(encodedPayload).build();
+    @Override
+    public T decode(ByteString encodedPayload) throws InvalidProtocolBufferException {
+        return parser != null ? parser.parseFrom(encodedPayload) : constantMessage;
+    }
 
-        return message;
+    @Override
+    public T decode(ByteBuffer encodedPayload) throws InvalidProtocolBufferException {
+        return parser != null ? parser.parseFrom(encodedPayload.duplicate()) : constantMessage;
     }
 
     @Override
     public Class<T> getTargetClass() {
         return targetClass;
     }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (o == null || getClass() != o.getClass())
+            return false;
+        return targetClass.equals(((ProtobufMessagePayloadDecoder) o).targetClass);
+    }
+
+    @Override
+    public int hashCode() {
+        return targetClass.hashCode();
+    }
 }
@@ -1,5 +1,8 @@
 package com.luxoft.fabric.events;
 
+import com.google.protobuf.ByteString;
+
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 
@@ -16,6 +19,16 @@ public class StringPayloadDecoder implements PayloadDecoder<String> {
         return new String(encodedPayload, encoding);
     }
 
+    @Override
+    public String decode(ByteString encodedPayload) {
+        return encodedPayload.toString(encoding);
+    }
+
+    @Override
+    public String decode(ByteBuffer encodedPayload) {
+        return encoding.decode(encodedPayload.duplicate()).toString();
+    }
+
     @Override
     public Class<String> getTargetClass() {
         return targetClass;
@@ -29,4 +42,18 @@ public class StringPayloadDecoder implements PayloadDecoder<String> {
     public StringPayloadDecoder() {
         this(StandardCharsets.UTF_8);
     }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (o == null || getClass() != o.getClass())
+            return false;
+        return encoding.equals(((StringPayloadDecoder) o).encoding);
+    }
+
+    @Override
+    public int hashCode() {
+        return encoding.hashCode();
+    }
 }
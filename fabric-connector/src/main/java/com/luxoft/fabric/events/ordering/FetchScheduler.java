@@ -0,0 +1,99 @@
+package com.luxoft.fabric.events.ordering;
+
+/**
+ * Decides, how long to wait before fetching the missing block.
+ * <p>
+ * The deliver stream is watched by the moments of block arrival: exponential moving
+ * average of block intervals estimates when the next block is due. While the stream is
+ * healthy, missing block is likely to be reordered, so it is awaited for the part of the
+ * average interval. When the stream is stale, missing block is fetched immediately.
+ * Network errors delay fetching exponentially, until the next success.
+ * <p>
+ * Not thread-safe, intended to be owned by the channel event loop.
+ */
+public class FetchScheduler {
+    private final FetchTimings timings;
+    private long lastBlockMillis = -1;
+    private long lastBlockNumber = -1;
+    private double averageIntervalMillis = -1;
+    private int errors = 0;
+
+    public FetchScheduler(FetchTimings timings) {
+        this.timings = timings;
+    }
+
+    /**
+     * Called when the block is received from the stream
+     */
+    public void onBlockReceived(long blockNumber, long nowMillis) {
+        // only new blocks show the stream progress, replayed history arrives in bursts
+        if (blockNumber <= lastBlockNumber)
+            return;
+
+        if (lastBlockMillis >= 0) {
+            final double interval = (double) (nowMillis - lastBlockMillis) / (blockNumber - lastBlockNumber);
+            averageIntervalMillis = averageIntervalMillis < 0
+                    ? interval
+                    : averageIntervalMillis + timings.getIntervalSmoothing() * (interval - averageIntervalMillis);
+        }
+        lastBlockMillis = nowMillis;
+        lastBlockNumber = blockNumber;
+    }
+
+    /**
+     * @return true if the stream delivered blocks recently enough
+     */
+    public boolean isStreamHealthy(long nowMillis) {
+        if (lastBlockMillis < 0 || averageIntervalMillis < 0)
+            return false;
+        final double staleMillis = Math.max(averageIntervalMillis, timings.getMinFetchDelayMillis()) * timings.getStaleStreamFactor();
+        return nowMillis - lastBlockMillis <= staleMillis;
+    }
+
+    /**
+     * @return time to wait for the missing block in the stream before fetching it
+     */
+    public long getFetchDelayMillis(long nowMillis) {
+        if (errors > 0)
+            return getErrorDelayMillis();
+
+        // no history yet: stream might replay the missing blocks soon
+        if (lastBlockMillis < 0 || averageIntervalMillis < 0)
+            return timings.getMaxFetchDelayMillis();
+
+        if (!isStreamHealthy(nowMillis))
+            return 0;
+
+        final long delay = (long) (averageIntervalMillis * timings.getReorderFactor());
+        return Math.max(timings.getMinFetchDelayMillis(), Math.min(timings.getMaxFetchDelayMillis(), delay));
+    }
+
+    /**
+     * Called on network error
+     * @return delay before the retry
+     */
+    public long onError() {
+        ++errors;
+        return getErrorDelayMillis();
+    }
+
+    /**
+     * Called on network success, resets error backoff
+     */
+    public void onSuccess() {
+        errors = 0;
+    }
+
+    public int getErrors() {
+        return errors;
+    }
+
+    private long getErrorDelayMillis() {
+        final long delay = timings.getMinErrorDelayMillis() << Math.min(errors - 1, 30);
+        return Math.min(timings.getMaxErrorDelayMillis(), delay);
+    }
+
+    public double getAverageIntervalMillis() {
+        return averageIntervalMillis;
+    }
+}
@@ -0,0 +1,98 @@
+package com.luxoft.fabric.events.ordering;
+
+/**
+ * Timings of block fetching, see {@link FetchScheduler}. Setters return this,
+ * so the timings can be configured in one expression.
+ */
+public class FetchTimings {
+    private long minFetchDelayMillis = 50;
+    private long maxFetchDelayMillis = 5000;
+    private long minErrorDelayMillis = 500;
+    private long maxErrorDelayMillis = 60000;
+    private double reorderFactor = 0.5;
+    private double staleStreamFactor = 3;
+    private double intervalSmoothing = 0.2;
+
+    public long getMinFetchDelayMillis() {
+        return minFetchDelayMillis;
+    }
+
+    /**
+     * Minimal time to wait for the missing block in the healthy stream
+     */
+    public FetchTimings setMinFetchDelayMillis(long minFetchDelayMillis) {
+        this.minFetchDelayMillis = minFetchDelayMillis;
+        return this;
+    }
+
+    public long getMaxFetchDelayMillis() {
+        return maxFetchDelayMillis;
+    }
+
+    /**
+     * Maximal time to wait for the missing block in the stream, also used
+     * until the stream delivers its first block
+     */
+    public FetchTimings setMaxFetchDelayMillis(long maxFetchDelayMillis) {
+        this.maxFetchDelayMillis = maxFetchDelayMillis;
+        return this;
+    }
+
+    public long getMinErrorDelayMillis() {
+        return minErrorDelayMillis;
+    }
+
+    /**
+     * Delay after the first network error, doubled on each subsequent one
+     */
+    public FetchTimings setMinErrorDelayMillis(long minErrorDelayMillis) {
+        this.minErrorDelayMillis = minErrorDelayMillis;
+        return this;
+    }
+
+    public long getMaxErrorDelayMillis() {
+        return maxErrorDelayMillis;
+    }
+
+    public FetchTimings setMaxErrorDelayMillis(long maxErrorDelayMillis) {
+        this.maxErrorDelayMillis = maxErrorDelayMillis;
+        return this;
+    }
+
+    public double getReorderFactor() {
+        return reorderFactor;
+    }
+
+    /**
+     * Part of the average block interval to wait for the missing block in the healthy stream
+     */
+    public FetchTimings setReorderFactor(double reorderFactor) {
+        this.reorderFactor = reorderFactor;
+        return this;
+    }
+
+    public double getStaleStreamFactor() {
+        return staleStreamFactor;
+    }
+
+    /**
+     * Stream is considered stale, when it delivers no blocks for this number of average
+     * block intervals, missing blocks are fetched without waiting then
+     */
+    public FetchTimings setStaleStreamFactor(double staleStreamFactor) {
+        this.staleStreamFactor = staleStreamFactor;
+        return this;
+    }
+
+    public double getIntervalSmoothing() {
+        return intervalSmoothing;
+    }
+
+    /**
+     * Weight of the latest block interval in the moving average, (0, 1]
+     */
+    public FetchTimings setIntervalSmoothing(double intervalSmoothing) {
+        this.intervalSmoothing = intervalSmoothing;
+        return this;
+    }
+}
@@ -0,0 +1,45 @@
+package com.luxoft.fabric.events.ordering;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executor, which runs submitted tasks one at a time, in submission order, on top of
+ * the shared executor. Tasks never run concurrently, so the state they touch
+ * needs no locking (single-writer event loop). Submission never blocks.
+ */
+public class SerialExecutor implements Executor {
+
+    private static final Logger logger = LoggerFactory.getLogger(SerialExecutor.class);
+
+    private final Executor executor;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+
+    public SerialExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        tasks.add(task);
+        if (pending.getAndIncrement() == 0)
+            executor.execute(this::drain);
+    }
+
+    private void drain() {
+        do {
+            final Runnable task = tasks.poll();
+            try {
+                task.run();
+            } catch (Throwable t) {
+                logger.error("Task failed", t);
+            }
+        } while (pending.decrementAndGet() > 0);
+    }
+}
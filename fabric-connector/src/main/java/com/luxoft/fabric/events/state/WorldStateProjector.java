@@ -0,0 +1,276 @@
+package com.luxoft.fabric.events.state;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.luxoft.fabric.events.BlockHub;
+import com.luxoft.fabric.events.EventCursor;
+import com.luxoft.fabric.events.Persister;
+import com.luxoft.fabric.events.store.BlockStore;
+import com.luxoft.fabric.utils.TxUtils;
+import org.hyperledger.fabric.protos.ledger.rwset.kvrwset.KvRwset;
+import org.hyperledger.fabric.sdk.BlockInfo;
+import org.hyperledger.fabric.sdk.Channel;
+import org.hyperledger.fabric.sdk.SdkTxUtil;
+import org.hyperledger.fabric.sdk.exception.InvalidArgumentException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Local projection of the channel world state: write sets of the valid transactions
+ * are applied to the in-memory sorted key/value maps, one per namespace (chaincode),
+ * so read models are served locally instead of querying chaincode.
+ * <p>
+ * Blocks must be applied in order, starting from the projection height. Full blocks
+ * are required, filtered blocks have no write sets. Private data is not projected,
+ * only the hashes of private writes are in the blocks.
+ * <p>
+ * Projection is checkpointed every {@code checkpointInterval} blocks: the snapshot file
+ * is rewritten atomically, then the height is saved through the {@link Persister}.
+ * Without the snapshot file the projection is rebuilt from the genesis block on restart.
+ */
+public class WorldStateProjector implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(WorldStateProjector.class);
+
+    private static final int MAGIC = 0x46575331; // "FWS1"
+
+    private final String checkpointName;
+    private final Persister persister;
+    private final Path snapshotPath;
+    private final int checkpointInterval;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, NavigableMap<String, ByteString>> namespaces = new HashMap<>();
+    /* Number of the next block to apply */
+    private long height = 0;
+    private long checkpointHeight = 0;
+    private BlockHub.Consumer consumer;
+
+    /**
+     * @param checkpointName     name of the projection in the persister
+     * @param persister          persister to save projection height, may be null
+     * @param snapshotPath       snapshot file, may be null to keep projection in memory only
+     * @param checkpointInterval number of blocks between checkpoints
+     */
+    public WorldStateProjector(String checkpointName, Persister persister, Path snapshotPath, int checkpointInterval) throws IOException {
+        this.checkpointName = checkpointName;
+        this.persister = persister;
+        this.snapshotPath = snapshotPath;
+        this.checkpointInterval = checkpointInterval;
+
+        if (snapshotPath != null && Files.exists(snapshotPath))
+            loadSnapshot();
+        checkpointHeight = height;
+
+        final EventCursor cursor = persister != null ? persister.getCursor(checkpointName) : null;
+        if (cursor != null && cursor.getBlockNumber() != height)
+            logger.warn("Projection {} checkpoint is at block {}, snapshot is at block {}, continue from the snapshot",
+                    checkpointName, cursor.getBlockNumber(), height);
+    }
+
+    /**
+     * Apply the write sets of the block. Blocks below the height are ignored.
+     * @throws IllegalArgumentException if the block is ahead of the height, or filtered
+     */
+    public synchronized void applyBlock(BlockInfo blockInfo) throws InvalidProtocolBufferException {
+        final long blockNumber = blockInfo.getBlockNumber();
+        if (blockNumber < height)
+            return;
+        if (blockNumber > height)
+            throw new IllegalArgumentException(String.format("Block %d is ahead of projection height %d", blockNumber, height));
+        if (blockInfo.isFiltered())
+            throw new IllegalArgumentException("Full block is required, block " + blockNumber + " is filtered");
+
+        // decode outside of the lock, readers wait for the map updates only
+        final List<String> writeNamespaces = new ArrayList<>();
+        final List<KvRwset.KVWrite> writes = new ArrayList<>();
+        for (Iterator<BlockInfo.TransactionEnvelopeInfo> it = TxUtils.getBlockTransactions(blockInfo); it.hasNext(); ) {
+            for (SdkTxUtil.TransactionActionInfoEx actionInfo : SdkTxUtil.getTransaction(it.next()).getActions()) {
+                for (SdkTxUtil.NsReadWriteSetEx nsReadWriteSet : actionInfo.getReadWriteSet().getNamespaces()) {
+                    for (KvRwset.KVWrite write : nsReadWriteSet.getWrites()) {
+                        writeNamespaces.add(nsReadWriteSet.getNamespace());
+                        writes.add(write);
+                    }
+                }
+            }
+        }
+
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < writes.size(); ++i) {
+                final KvRwset.KVWrite write = writes.get(i);
+                final NavigableMap<String, ByteString> keys = namespaces.computeIfAbsent(writeNamespaces.get(i), (ns) -> new TreeMap<>());
+                if (write.getIsDelete())
+                    keys.remove(write.getKey());
+                else
+                    keys.put(write.getKey(), write.getValue());
+            }
+            height = blockNumber + 1;
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        if (height - checkpointHeight >= checkpointInterval)
+            checkpoint();
+    }
+
+    /**
+     * Keep the projection up to date with the channel. Blocks are taken from the channel's
+     * {@link BlockHub}, missing blocks and full content of filtered blocks are queried
+     * on the executor, which should not be shared with latency-sensitive tasks.
+     * @param blockStore local block store, may be null
+     */
+    public synchronized void attach(Channel channel, BlockStore blockStore, Executor executor) throws InvalidArgumentException {
+        if (consumer != null)
+            throw new IllegalStateException("Projector is attached already");
+
+        consumer = BlockHub.of(channel).addBlockListener(executor, (blockEvent) -> {
+            final long blockNumber = blockEvent.getBlockNumber();
+            try {
+                for (long n = getHeight(); n < blockNumber; ++n)
+                    applyBlock(TxUtils.queryBlockByNumber(channel, blockStore, n));
+                applyBlock(blockEvent.isFiltered() ? TxUtils.queryBlockByNumber(channel, blockStore, blockNumber) : blockEvent);
+            } catch (Exception e) {
+                // the gap is filled when the next block comes
+                logger.warn("Failed to project block {} of channel {}", blockNumber, channel.getName(), e);
+            }
+        });
+    }
+
+    /**
+     * @return value of the key, null if the key doesn't exist
+     */
+    public ByteString get(String namespace, String key) {
+        lock.readLock().lock();
+        try {
+            final NavigableMap<String, ByteString> keys = namespaces.get(namespace);
+            return keys != null ? keys.get(key) : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return copy of the key range [startKey, endKey), like chaincode's GetStateByRange()
+     */
+    public SortedMap<String, ByteString> getRange(String namespace, String startKey, String endKey) {
+        lock.readLock().lock();
+        try {
+            final NavigableMap<String, ByteString> keys = namespaces.get(namespace);
+            return keys != null ? new TreeMap<>(keys.subMap(startKey, true, endKey, false)) : new TreeMap<>();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public Set<String> getNamespaces() {
+        lock.readLock().lock();
+        try {
+            return new TreeSet<>(namespaces.keySet());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return number of the next block to apply
+     */
+    public long getHeight() {
+        lock.readLock().lock();
+        try {
+            return height;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Save the snapshot, then the height through the persister
+     */
+    public synchronized void checkpoint() {
+        final long snapshotHeight;
+        try {
+            snapshotHeight = snapshotPath != null ? saveSnapshot() : getHeight();
+        } catch (IOException e) {
+            logger.warn("Failed to save projection {} snapshot", checkpointName, e);
+            return;
+        }
+
+        checkpointHeight = snapshotHeight;
+        if (persister != null)
+            persister.setCursor(checkpointName, new EventCursor(snapshotHeight));
+    }
+
+    private long saveSnapshot() throws IOException {
+        final Path tmp = snapshotPath.resolveSibling(snapshotPath.getFileName() + ".tmp");
+        final long snapshotHeight;
+        lock.readLock().lock();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            snapshotHeight = height;
+            out.writeInt(MAGIC);
+            out.writeLong(height);
+            out.writeInt(namespaces.size());
+            for (Map.Entry<String, NavigableMap<String, ByteString>> namespace : namespaces.entrySet()) {
+                writeBytes(out, namespace.getKey().getBytes(StandardCharsets.UTF_8));
+                out.writeInt(namespace.getValue().size());
+                for (Map.Entry<String, ByteString> entry : namespace.getValue().entrySet()) {
+                    writeBytes(out, entry.getKey().getBytes(StandardCharsets.UTF_8));
+                    out.writeInt(entry.getValue().size());
+                    entry.getValue().writeTo(out);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        Files.move(tmp, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return snapshotHeight;
+    }
+
+    private void loadSnapshot() throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshotPath)))) {
+            if (in.readInt() != MAGIC)
+                throw new IOException("Invalid snapshot " + snapshotPath);
+            height = in.readLong();
+            for (int namespaceCount = in.readInt(); namespaceCount > 0; --namespaceCount) {
+                final NavigableMap<String, ByteString> keys = new TreeMap<>();
+                namespaces.put(new String(readBytes(in), StandardCharsets.UTF_8), keys);
+                for (int keyCount = in.readInt(); keyCount > 0; --keyCount)
+                    keys.put(new String(readBytes(in), StandardCharsets.UTF_8), ByteString.copyFrom(readBytes(in)));
+            }
+        }
+        logger.info("Projection {} is loaded at block {}", checkpointName, height);
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        final byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    /**
+     * Detach from the channel and save the checkpoint
+     */
+    @Override
+    public synchronized void close() {
+        if (consumer != null) {
+            consumer.close();
+            consumer = null;
+        }
+        checkpoint();
+    }
+}
@@ -0,0 +1,23 @@
+package com.luxoft.fabric.events.store;
+
+import org.hyperledger.fabric.protos.common.Common;
+
+import java.io.IOException;
+
+/**
+ * Local storage of full blocks, used to avoid downloading them again.
+ * Implementations are thread-safe.
+ */
+public interface BlockStore {
+    /**
+     * @return the block, or null if it's not stored
+     */
+    Common.Block getBlock(String channelName, long blockNumber) throws IOException;
+
+    boolean containsBlock(String channelName, long blockNumber);
+
+    /**
+     * Store the block. Does nothing if the block is stored already.
+     */
+    void putBlock(String channelName, Common.Block block) throws IOException;
+}
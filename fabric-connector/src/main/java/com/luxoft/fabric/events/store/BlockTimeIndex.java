@@ -0,0 +1,199 @@
+package com.luxoft.fabric.events.store;
+
+import org.hyperledger.fabric.sdk.BlockInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Index of block timestamps, to find blocks by time without querying the peers.
+ * <p>
+ * Blocks have no timestamp of their own, block timestamp is the latest timestamp of its
+ * transactions and of the blocks before it, so it never decreases and blocks are found
+ * by binary search. Transaction timestamps are set by the clients, so the transaction may be
+ * committed after the blocks, which are later than its timestamp; time range lookups allow
+ * for such skew, see {@link com.luxoft.fabric.utils.TxUtils#findBlockRange}.
+ * <p>
+ * Full blocks are indexed in order, without gaps, starting from the first block added.
+ * The tracker delivers filtered blocks, which have no timestamps, so it doesn't feed the index:
+ * keep the index up to date with {@link com.luxoft.fabric.utils.TxUtils#updateBlockTimeIndex},
+ * e.g. periodically or before the time lookups.
+ * Each channel has a file in the index directory: the header with the first block number,
+ * followed by 8-byte timestamps of consecutive blocks. Index is thread-safe.
+ */
+public class BlockTimeIndex implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(BlockTimeIndex.class);
+
+    private static final int MAGIC = 0x46425431; // "FBT1"
+    private static final int HEADER_SIZE = 4 + 8;
+    private static final String FILE_SUFFIX = ".bti";
+
+    private static class ChannelIndex {
+        final FileChannel file;
+        long baseBlock = -1;
+        long[] timestamps = new long[1024];
+        int size = 0;
+
+        ChannelIndex(FileChannel file) {
+            this.file = file;
+        }
+
+        long getHeight() {
+            return baseBlock + size;
+        }
+
+        long getLastTimestamp() {
+            return size > 0 ? timestamps[size - 1] : Long.MIN_VALUE;
+        }
+    }
+
+    private final Path directory;
+    private final Map<String, ChannelIndex> channels = new HashMap<>();
+
+    public BlockTimeIndex(Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+    }
+
+    private ChannelIndex getChannelIndex(String channelName) throws IOException {
+        ChannelIndex channelIndex = channels.get(channelName);
+        if (channelIndex == null) {
+            final Path path = directory.resolve(channelName + FILE_SUFFIX);
+            channelIndex = new ChannelIndex(FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE));
+            load(path, channelIndex);
+            channels.put(channelName, channelIndex);
+        }
+        return channelIndex;
+    }
+
+    private static void load(Path path, ChannelIndex channelIndex) throws IOException {
+        final long fileSize = channelIndex.file.size();
+        if (fileSize < HEADER_SIZE)
+            return;
+
+        final ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(fileSize, Integer.MAX_VALUE - 8));
+        int read;
+        do {
+            read = channelIndex.file.read(buffer, buffer.position());
+        } while (read > 0 && buffer.hasRemaining());
+        buffer.flip();
+        if (buffer.getInt() != MAGIC) {
+            logger.warn("Invalid block time index {}, rebuild it", path);
+            channelIndex.file.truncate(0);
+            return;
+        }
+
+        channelIndex.baseBlock = buffer.getLong();
+        // incomplete record of the interrupted write is dropped
+        channelIndex.size = buffer.remaining() / 8;
+        channelIndex.timestamps = new long[Math.max(channelIndex.size * 2, 1024)];
+        buffer.asLongBuffer().get(channelIndex.timestamps, 0, channelIndex.size);
+        channelIndex.file.truncate(HEADER_SIZE + channelIndex.size * 8L);
+    }
+
+    /**
+     * Index the full block, if it's the next block of the channel. Filtered blocks have no timestamps
+     * and are ignored.
+     * @return true if the block is indexed now or was indexed before
+     */
+    public synchronized boolean addBlock(String channelName, BlockInfo blockInfo) throws IOException {
+        final long blockNumber = blockInfo.getBlockNumber();
+        final ChannelIndex channelIndex = getChannelIndex(channelName);
+        if (channelIndex.baseBlock >= 0 && blockNumber < channelIndex.getHeight())
+            return blockNumber >= channelIndex.baseBlock;
+        if (blockInfo.isFiltered() || channelIndex.baseBlock >= 0 && blockNumber > channelIndex.getHeight())
+            return false;
+
+        long timestamp = channelIndex.getLastTimestamp();
+        for (BlockInfo.EnvelopeInfo envelopeInfo : blockInfo.getEnvelopeInfos()) {
+            final Date envelopeTimestamp = envelopeInfo.getTimestamp();
+            if (envelopeTimestamp != null)
+                timestamp = Math.max(timestamp, envelopeTimestamp.getTime());
+        }
+
+        if (channelIndex.baseBlock < 0) {
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putLong(blockNumber).flip();
+            channelIndex.file.write(header, 0);
+            channelIndex.baseBlock = blockNumber;
+        }
+
+        final ByteBuffer record = ByteBuffer.allocate(8);
+        record.putLong(timestamp).flip();
+        channelIndex.file.write(record, HEADER_SIZE + channelIndex.size * 8L);
+
+        if (channelIndex.size == channelIndex.timestamps.length)
+            channelIndex.timestamps = Arrays.copyOf(channelIndex.timestamps, channelIndex.size * 2);
+        channelIndex.timestamps[channelIndex.size++] = timestamp;
+        return true;
+    }
+
+    /**
+     * @return number of the first indexed block, -1 if none
+     */
+    public synchronized long getBaseBlock(String channelName) throws IOException {
+        return getChannelIndex(channelName).baseBlock;
+    }
+
+    /**
+     * @return number of the next block to index, -1 if none is indexed
+     */
+    public synchronized long getHeight(String channelName) throws IOException {
+        final ChannelIndex channelIndex = getChannelIndex(channelName);
+        return channelIndex.baseBlock >= 0 ? channelIndex.getHeight() : -1;
+    }
+
+    /**
+     * @return timestamp of the block in milliseconds, -1 if the block is not indexed
+     */
+    public synchronized long getTimestamp(String channelName, long blockNumber) throws IOException {
+        final ChannelIndex channelIndex = getChannelIndex(channelName);
+        if (channelIndex.baseBlock < 0 || blockNumber < channelIndex.baseBlock || blockNumber >= channelIndex.getHeight())
+            return -1;
+        return channelIndex.timestamps[(int) (blockNumber - channelIndex.baseBlock)];
+    }
+
+    /**
+     * @return the first indexed block with timestamp not before the time, the height if none,
+     * -1 if no block is indexed
+     */
+    public synchronized long findBlock(String channelName, long timeMillis) throws IOException {
+        final ChannelIndex channelIndex = getChannelIndex(channelName);
+        if (channelIndex.baseBlock < 0)
+            return -1;
+
+        int low = 0;
+        int high = channelIndex.size;
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (channelIndex.timestamps[middle] < timeMillis)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        return channelIndex.baseBlock + low;
+    }
+
+    @Override
+    public synchronized void close() {
+        for (Map.Entry<String, ChannelIndex> entry : channels.entrySet()) {
+            try {
+                entry.getValue().file.close();
+            } catch (IOException e) {
+                logger.warn("Failed to close block time index of channel {}", entry.getKey(), e);
+            }
+        }
+        channels.clear();
+    }
+}
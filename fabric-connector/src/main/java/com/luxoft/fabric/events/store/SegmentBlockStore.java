@@ -0,0 +1,304 @@
+package com.luxoft.fabric.events.store;
+
+import com.google.protobuf.CodedInputStream;
+import org.hyperledger.fabric.protos.common.Common;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * {@link BlockStore} implementation, which appends raw blocks to memory-mapped segment files,
+ * one directory per channel. Segment files are preallocated to the segment size, blocks are
+ * written and read through the mapping.
+ * <p>
+ * Segment layout: magic(int), creation time(long), followed by records:
+ * length(int), crc32(int), block number(long), block(protobuf). Zero length marks the end.
+ * Block number index is kept in memory and rebuilt by scanning record headers on start;
+ * torn records at the end of the last segment are dropped.
+ * <p>
+ * Whole segments are evicted, oldest first, when total size of the channel segments
+ * exceeds {@code maxBytes}, or when segment is older than {@code maxAgeMillis}.
+ * The segment being written is never evicted.
+ */
+public class SegmentBlockStore implements BlockStore, AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(SegmentBlockStore.class);
+
+    private static final int MAGIC = 0x46425331; // "FBS1"
+    private static final int SEGMENT_HEADER_SIZE = 4 + 8;
+    private static final int RECORD_HEADER_SIZE = 4 + 4 + 8;
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    private final Path directory;
+    private final int segmentSize;
+    private final long maxBytes;
+    private final long maxAgeMillis;
+    private final Map<String, ChannelStore> channels = new HashMap<>();
+
+    private static class Segment {
+        final int id;
+        final Path path;
+        final MappedByteBuffer buffer;
+        final long createdMillis;
+        final List<Long> blocks = new ArrayList<>();
+        int writePosition;
+
+        Segment(int id, Path path, MappedByteBuffer buffer, long createdMillis, int writePosition) {
+            this.id = id;
+            this.path = path;
+            this.buffer = buffer;
+            this.createdMillis = createdMillis;
+            this.writePosition = writePosition;
+        }
+    }
+
+    private class ChannelStore {
+        final Path directory;
+        final NavigableMap<Integer, Segment> segments = new TreeMap<>();
+        /* block number -> segment id (high 32 bits) and record offset (low 32 bits) */
+        final Map<Long, Long> index = new HashMap<>();
+        long totalBytes = 0;
+
+        ChannelStore(Path directory) throws IOException {
+            this.directory = directory;
+            Files.createDirectories(directory);
+
+            final List<Path> paths = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+                stream.forEach(paths::add);
+            }
+            for (Path path : paths) {
+                final String fileName = path.getFileName().toString();
+                final int id = Integer.parseInt(fileName.substring(0, fileName.length() - SEGMENT_SUFFIX.length()));
+                final Segment segment = openSegment(id, path);
+                if (segment != null)
+                    addSegment(segment);
+            }
+        }
+
+        private Segment openSegment(int id, Path path) throws IOException {
+            final MappedByteBuffer buffer;
+            try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+                buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, file.length());
+            }
+
+            if (buffer.capacity() < SEGMENT_HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+                logger.warn("Invalid segment {}, ignore", path);
+                return null;
+            }
+
+            final Segment segment = new Segment(id, path, buffer, buffer.getLong(4), SEGMENT_HEADER_SIZE);
+            final CRC32 crc32 = new CRC32();
+            int position = SEGMENT_HEADER_SIZE;
+            while (position + RECORD_HEADER_SIZE <= buffer.capacity()) {
+                final int length = buffer.getInt(position);
+                if (length <= 0 || position + RECORD_HEADER_SIZE + length > buffer.capacity())
+                    break;
+
+                final ByteBuffer record = buffer.duplicate();
+                record.position(position + RECORD_HEADER_SIZE).limit(position + RECORD_HEADER_SIZE + length);
+                crc32.reset();
+                crc32.update(record);
+                if ((int) crc32.getValue() != buffer.getInt(position + 4)) {
+                    logger.warn("Torn record in segment {} at {}, drop the rest", path, position);
+                    break;
+                }
+
+                final long blockNumber = buffer.getLong(position + 8);
+                index.put(blockNumber, ((long) id << 32) | position);
+                segment.blocks.add(blockNumber);
+                position += RECORD_HEADER_SIZE + length;
+            }
+            segment.writePosition = position;
+            return segment;
+        }
+
+        private void addSegment(Segment segment) {
+            segments.put(segment.id, segment);
+            totalBytes += segment.buffer.capacity();
+        }
+
+        private Segment newSegment(int minSize) throws IOException {
+            final int id = segments.isEmpty() ? 0 : segments.lastKey() + 1;
+            final Path path = directory.resolve(String.format("%010d%s", id, SEGMENT_SUFFIX));
+            final int size = Math.max(segmentSize, SEGMENT_HEADER_SIZE + minSize + 4);
+
+            final MappedByteBuffer buffer;
+            try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+                file.setLength(size);
+                buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            }
+
+            final long createdMillis = System.currentTimeMillis();
+            buffer.putLong(4, createdMillis);
+            buffer.putInt(0, MAGIC);
+
+            final Segment segment = new Segment(id, path, buffer, createdMillis, SEGMENT_HEADER_SIZE);
+            addSegment(segment);
+            return segment;
+        }
+
+        void put(long blockNumber, byte[] bytes) throws IOException {
+            if (index.containsKey(blockNumber))
+                return;
+
+            final int recordSize = RECORD_HEADER_SIZE + bytes.length;
+            Segment segment = segments.isEmpty() ? null : segments.lastEntry().getValue();
+            // keep room for the end marker
+            if (segment == null || segment.writePosition + recordSize + 4 > segment.buffer.capacity())
+                segment = newSegment(recordSize);
+
+            final CRC32 crc32 = new CRC32();
+            crc32.update(bytes);
+
+            final int position = segment.writePosition;
+            final ByteBuffer buffer = segment.buffer.duplicate();
+            buffer.position(position + 4);
+            buffer.putInt((int) crc32.getValue());
+            buffer.putLong(blockNumber);
+            buffer.put(bytes);
+            buffer.putInt(0);
+            segment.buffer.putInt(position, bytes.length);
+
+            segment.writePosition = position + recordSize;
+            segment.blocks.add(blockNumber);
+            index.put(blockNumber, ((long) segment.id << 32) | position);
+
+            evict();
+        }
+
+        ByteBuffer get(long blockNumber) {
+            final Long location = index.get(blockNumber);
+            if (location == null)
+                return null;
+
+            final Segment segment = segments.get((int) (location >>> 32));
+            final int position = (int) (long) location;
+            final ByteBuffer buffer = segment.buffer.duplicate();
+            buffer.position(position + RECORD_HEADER_SIZE);
+            buffer.limit(position + RECORD_HEADER_SIZE + segment.buffer.getInt(position));
+            return buffer.slice();
+        }
+
+        private void evict() throws IOException {
+            final long minCreatedMillis = maxAgeMillis > 0 ? System.currentTimeMillis() - maxAgeMillis : Long.MIN_VALUE;
+
+            while (segments.size() > 1) {
+                final Segment oldest = segments.firstEntry().getValue();
+                if (totalBytes <= maxBytes && oldest.createdMillis >= minCreatedMillis)
+                    break;
+
+                logger.debug("Evict segment {} with {} blocks", oldest.path, oldest.blocks.size());
+                segments.remove(oldest.id);
+                totalBytes -= oldest.buffer.capacity();
+                for (Long blockNumber : oldest.blocks)
+                    index.remove(blockNumber);
+                // the mapping stays valid for the readers until it is collected
+                Files.deleteIfExists(oldest.path);
+            }
+        }
+    }
+
+    public SegmentBlockStore(Path directory) {
+        this(directory, 64 * 1024 * 1024, Long.MAX_VALUE, 0);
+    }
+
+    /**
+     * @param directory    root directory of the store
+     * @param segmentSize  size of segment file
+     * @param maxBytes     maximum size of segments per channel
+     * @param maxAgeMillis maximum age of segment, 0 to keep segments regardless of age
+     */
+    public SegmentBlockStore(Path directory, int segmentSize, long maxBytes, long maxAgeMillis) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxBytes = maxBytes;
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    private synchronized ChannelStore getChannelStore(String channelName) throws IOException {
+        ChannelStore channelStore = channels.get(channelName);
+        if (channelStore == null) {
+            channelStore = new ChannelStore(directory.resolve(channelName));
+            channels.put(channelName, channelStore);
+        }
+        return channelStore;
+    }
+
+    @Override
+    public Common.Block getBlock(String channelName, long blockNumber) throws IOException {
+        final ByteBuffer buffer;
+        final ChannelStore channelStore = getChannelStore(channelName);
+        synchronized (this) {
+            buffer = channelStore.get(blockNumber);
+        }
+        // parse outside of the lock, evicted segment stays mapped while it's referenced
+        return buffer != null ? Common.Block.parseFrom(CodedInputStream.newInstance(buffer)) : null;
+    }
+
+    /**
+     * Serialized block without parsing it, e.g. for {@link com.luxoft.fabric.utils.BlockDecoder}.
+     * Buffer is read-only, evicted segment stays mapped while the buffer is referenced.
+     * @return the block bytes, or null if it's not stored
+     */
+    public ByteBuffer getBlockBytes(String channelName, long blockNumber) throws IOException {
+        final ChannelStore channelStore = getChannelStore(channelName);
+        synchronized (this) {
+            final ByteBuffer buffer = channelStore.get(blockNumber);
+            return buffer != null ? buffer.asReadOnlyBuffer() : null;
+        }
+    }
+
+    @Override
+    public boolean containsBlock(String channelName, long blockNumber) {
+        try {
+            final ChannelStore channelStore = getChannelStore(channelName);
+            synchronized (this) {
+                return channelStore.index.containsKey(blockNumber);
+            }
+        } catch (IOException e) {
+            logger.warn("Failed to open block store of channel {}", channelName, e);
+            return false;
+        }
+    }
+
+    @Override
+    public void putBlock(String channelName, Common.Block block) throws IOException {
+        final long blockNumber = block.getHeader().getNumber();
+        final ChannelStore channelStore = getChannelStore(channelName);
+        synchronized (this) {
+            if (channelStore.index.containsKey(blockNumber))
+                return;
+        }
+        final byte[] bytes = block.toByteArray();
+        synchronized (this) {
+            channelStore.put(blockNumber, bytes);
+        }
+    }
+
+    /**
+     * @return number of blocks stored for the channel
+     */
+    public synchronized int getBlockCount(String channelName) throws IOException {
+        return getChannelStore(channelName).index.size();
+    }
+
+    @Override
+    public synchronized void close() {
+        for (ChannelStore channelStore : channels.values()) {
+            for (Segment segment : channelStore.segments.values())
+                segment.buffer.force();
+        }
+        channels.clear();
+    }
+}
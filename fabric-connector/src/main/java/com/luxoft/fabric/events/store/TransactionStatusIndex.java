@@ -0,0 +1,359 @@
+package com.luxoft.fabric.events.store;
+
+import org.hyperledger.fabric.protos.peer.FabricTransaction;
+import org.hyperledger.fabric.sdk.BlockInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Index of committed transactions: (channel, txId) to block number and validation code.
+ * It is fed with blocks from the deliver stream, filtered blocks are enough, so the status
+ * of recent transactions is known without querying the peer.
+ * <p>
+ * Transaction is kept as 128-bit fingerprint and packed status, 24 bytes per entry,
+ * in open addressing hash tables. Index is bounded: entries are put to the current table,
+ * full table becomes the previous one, and the previous table is dropped. Optionally
+ * retired tables are spilled to the memory-mapped files in the spill directory, keeping
+ * {@code maxSpillFiles} most recent files. Spilled entries survive restart.
+ * <p>
+ * Index is thread-safe.
+ */
+public class TransactionStatusIndex implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(TransactionStatusIndex.class);
+
+    private static final int MAGIC = 0x46544931; // "FTI1"
+    private static final int HEADER_SIZE = 4 + 4;
+    private static final int SLOT_SIZE = 8 + 8 + 8;
+    private static final String SPILL_SUFFIX = ".idx";
+
+    /**
+     * Status of the committed transaction
+     */
+    public static class Status {
+        private final long blockNumber;
+        private final int validationCode;
+
+        public Status(long blockNumber, int validationCode) {
+            this.blockNumber = blockNumber;
+            this.validationCode = validationCode;
+        }
+
+        public long getBlockNumber() {
+            return blockNumber;
+        }
+
+        /**
+         * @return {@link FabricTransaction.TxValidationCode} number
+         */
+        public int getValidationCode() {
+            return validationCode;
+        }
+
+        public boolean isValid() {
+            return validationCode == FabricTransaction.TxValidationCode.VALID_VALUE;
+        }
+
+        @Override
+        public String toString() {
+            final FabricTransaction.TxValidationCode code = FabricTransaction.TxValidationCode.forNumber(validationCode);
+            return "Status(block=" + blockNumber + ", " + (code != null ? code : validationCode) + ")";
+        }
+    }
+
+    /**
+     * Open addressing hash table with linear probing over the buffer. Slot is empty
+     * when its value is 0, entries are never removed.
+     */
+    private static class Table {
+        final ByteBuffer buffer;
+        final Path path;
+        final int mask;
+        final int maxSize;
+        int size = 0;
+
+        Table(ByteBuffer buffer, Path path, int capacity) {
+            this.buffer = buffer;
+            this.path = path;
+            this.mask = capacity - 1;
+            this.maxSize = capacity / 4 * 3;
+        }
+
+        boolean isFull() {
+            return size >= maxSize;
+        }
+
+        private int slotOffset(int slot) {
+            return HEADER_SIZE + slot * SLOT_SIZE;
+        }
+
+        private int findSlot(long hi, long lo) {
+            int slot = (int) (hi ^ (hi >>> 32)) & mask;
+            while (true) {
+                final int offset = slotOffset(slot);
+                if (buffer.getLong(offset + 16) == 0
+                        || buffer.getLong(offset) == hi && buffer.getLong(offset + 8) == lo)
+                    return offset;
+                slot = (slot + 1) & mask;
+            }
+        }
+
+        long get(long hi, long lo) {
+            return buffer.getLong(findSlot(hi, lo) + 16);
+        }
+
+        void put(long hi, long lo, long value) {
+            final int offset = findSlot(hi, lo);
+            if (buffer.getLong(offset + 16) == 0)
+                ++size;
+            buffer.putLong(offset, hi);
+            buffer.putLong(offset + 8, lo);
+            buffer.putLong(offset + 16, value);
+        }
+
+        /**
+         * Put the entries starting from the slot to the other table
+         * @return the slot to continue from when the other table is full, capacity when done
+         */
+        int copyTo(Table table, int fromSlot) {
+            for (int slot = fromSlot; slot <= mask; ++slot) {
+                final int offset = slotOffset(slot);
+                final long value = buffer.getLong(offset + 16);
+                if (value == 0)
+                    continue;
+                if (table.isFull())
+                    return slot;
+                table.put(buffer.getLong(offset), buffer.getLong(offset + 8), value);
+            }
+            return mask + 1;
+        }
+
+        void countEntries() {
+            size = 0;
+            for (int slot = 0; slot <= mask; ++slot) {
+                if (buffer.getLong(slotOffset(slot) + 16) != 0)
+                    ++size;
+            }
+        }
+    }
+
+    private final int capacity;
+    private Table current;
+    private Table previous;
+
+    private final Path spillDirectory;
+    private final int spillCapacity;
+    private final int maxSpillFiles;
+    /* Spilled tables, the newest first */
+    private final Deque<Table> spilled = new ArrayDeque<>();
+    private int nextSpillId = 0;
+
+    /**
+     * Index in memory only
+     * @param capacity number of transactions kept at least, twice as much at most
+     */
+    public TransactionStatusIndex(int capacity) {
+        this.capacity = tableCapacity(capacity);
+        this.spillDirectory = null;
+        this.spillCapacity = 0;
+        this.maxSpillFiles = 0;
+        this.current = newMemoryTable();
+    }
+
+    /**
+     * Index, spilling old entries to disk
+     * @param capacity       number of transactions kept in memory
+     * @param spillDirectory directory of the spill files
+     * @param spillCapacity  number of transactions per spill file
+     * @param maxSpillFiles  number of spill files to keep
+     */
+    public TransactionStatusIndex(int capacity, Path spillDirectory, int spillCapacity, int maxSpillFiles) throws IOException {
+        this.capacity = tableCapacity(capacity);
+        this.spillDirectory = spillDirectory;
+        this.spillCapacity = tableCapacity(Math.max(spillCapacity, capacity));
+        this.maxSpillFiles = maxSpillFiles;
+        this.current = newMemoryTable();
+
+        Files.createDirectories(spillDirectory);
+        final List<Path> paths = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(spillDirectory, "*" + SPILL_SUFFIX)) {
+            stream.forEach(paths::add);
+        }
+        Collections.sort(paths);
+        for (Path path : paths) {
+            final String fileName = path.getFileName().toString();
+            nextSpillId = Math.max(nextSpillId, Integer.parseInt(fileName.substring(0, fileName.length() - SPILL_SUFFIX.length())) + 1);
+            final Table table = openSpillTable(path);
+            if (table != null)
+                spilled.addFirst(table);
+        }
+        dropSpilled();
+    }
+
+    /**
+     * Load factor is kept under 3/4
+     */
+    private static int tableCapacity(int entries) {
+        if (entries <= 0)
+            throw new IllegalArgumentException("Capacity must be positive: " + entries);
+        return Integer.highestOneBit(Math.max(entries / 3 * 4 + 3, 4) - 1) << 1;
+    }
+
+    private Table newMemoryTable() {
+        return new Table(ByteBuffer.allocate(HEADER_SIZE + capacity * SLOT_SIZE), null, capacity);
+    }
+
+    private Table openSpillTable(Path path) throws IOException {
+        final MappedByteBuffer buffer;
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, file.length());
+        }
+
+        final int tableCapacity = buffer.capacity() >= HEADER_SIZE ? buffer.getInt(4) : 0;
+        if (buffer.getInt(0) != MAGIC || Integer.bitCount(tableCapacity) != 1
+                || buffer.capacity() != HEADER_SIZE + (long) tableCapacity * SLOT_SIZE) {
+            logger.warn("Invalid index file {}, ignore", path);
+            return null;
+        }
+
+        final Table table = new Table(buffer, path, tableCapacity);
+        table.countEntries();
+        return table;
+    }
+
+    private Table newSpillTable() throws IOException {
+        final Path path = spillDirectory.resolve(String.format("%010d%s", nextSpillId++, SPILL_SUFFIX));
+        final long size = HEADER_SIZE + (long) spillCapacity * SLOT_SIZE;
+        final MappedByteBuffer buffer;
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            file.setLength(size);
+            buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+        buffer.putInt(4, spillCapacity);
+        buffer.putInt(0, MAGIC);
+        final Table table = new Table(buffer, path, spillCapacity);
+        spilled.addFirst(table);
+        return table;
+    }
+
+    private void spill(Table table) {
+        try {
+            Table target = spilled.isEmpty() ? newSpillTable() : spilled.peekFirst();
+            int slot = 0;
+            while ((slot = table.copyTo(target, slot)) <= table.mask)
+                target = newSpillTable();
+        } catch (IOException e) {
+            logger.warn("Failed to spill transaction index to {}", spillDirectory, e);
+        }
+        dropSpilled();
+    }
+
+    private void dropSpilled() {
+        while (spilled.size() > Math.max(maxSpillFiles, 1)) {
+            final Table oldest = spilled.removeLast();
+            try {
+                // the mapping stays valid until it is collected
+                Files.deleteIfExists(oldest.path);
+            } catch (IOException e) {
+                logger.warn("Failed to delete index file {}", oldest.path, e);
+            }
+        }
+    }
+
+    /**
+     * Put the status of the transaction. Envelopes rejected as {@link FabricTransaction.TxValidationCode#DUPLICATE_TXID}
+     * are ignored: they reuse the id of the transaction committed before, which keeps its status.
+     */
+    public synchronized void put(String channelName, String txId, long blockNumber, int validationCode) {
+        if (validationCode == FabricTransaction.TxValidationCode.DUPLICATE_TXID_VALUE)
+            return;
+
+        if (current.isFull()) {
+            if (spillDirectory != null)
+                spill(current);
+            previous = current;
+            current = newMemoryTable();
+        }
+
+        final long[] key = fingerprint(channelName, txId);
+        current.put(key[0], key[1], ((blockNumber + 1) << 8) | (validationCode & 0xFF));
+    }
+
+    /**
+     * Index all the transactions of the block, full or filtered, except duplicates
+     */
+    public void addBlock(String channelName, BlockInfo blockInfo) {
+        final long blockNumber = blockInfo.getBlockNumber();
+        for (BlockInfo.EnvelopeInfo envelopeInfo : blockInfo.getEnvelopeInfos()) {
+            if (envelopeInfo.getType() == BlockInfo.EnvelopeType.TRANSACTION_ENVELOPE)
+                put(channelName, envelopeInfo.getTransactionID(), blockNumber, envelopeInfo.getValidationCode());
+        }
+    }
+
+    /**
+     * @return status of the transaction, null if the transaction is not known to the index
+     */
+    public synchronized Status get(String channelName, String txId) {
+        final long[] key = fingerprint(channelName, txId);
+        long value = current.get(key[0], key[1]);
+        if (value == 0 && previous != null)
+            value = previous.get(key[0], key[1]);
+        if (value == 0) {
+            for (Table table : spilled) {
+                if ((value = table.get(key[0], key[1])) != 0)
+                    break;
+            }
+        }
+        return value != 0 ? new Status((value >>> 8) - 1, (int) (value & 0xFF)) : null;
+    }
+
+    /**
+     * Fabric transaction id is hex SHA-256, its first 128 bits are taken as is.
+     * Other ids are hashed.
+     */
+    private static long[] fingerprint(String channelName, String txId) {
+        long channelHash = 0xcbf29ce484222325L; // FNV-1a
+        for (int i = 0; i < channelName.length(); ++i)
+            channelHash = (channelHash ^ channelName.charAt(i)) * 0x100000001b3L;
+
+        if (txId.length() >= 32) {
+            try {
+                return new long[]{Long.parseUnsignedLong(txId.substring(0, 16), 16) ^ channelHash,
+                        Long.parseUnsignedLong(txId.substring(16, 32), 16)};
+            } catch (NumberFormatException e) {
+                // not a hex id
+            }
+        }
+
+        try {
+            final ByteBuffer digest = ByteBuffer.wrap(MessageDigest.getInstance("SHA-256")
+                    .digest(txId.getBytes(StandardCharsets.UTF_8)));
+            return new long[]{digest.getLong() ^ channelHash, digest.getLong()};
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        for (Table table : spilled)
+            ((MappedByteBuffer) table.buffer).force();
+    }
+}
@@ -0,0 +1,295 @@
+package com.luxoft.fabric.utils;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.UnsafeByteOperations;
+import com.google.protobuf.WireFormat;
+import org.hyperledger.fabric.protos.common.Common;
+import org.hyperledger.fabric.protos.peer.FabricTransaction;
+import org.hyperledger.fabric.sdk.ChaincodeEvent;
+import org.hyperledger.fabric.sdk.SdkTxUtil;
+import org.hyperledger.fabric.sdk.exception.InvalidProtocolBufferRuntimeException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Streaming decoder of the serialized block, an alternative to {@link org.hyperledger.fabric.sdk.BlockInfo}
+ * for very large blocks. Envelopes are read one at a time from the block bytes, e.g. from
+ * {@link com.luxoft.fabric.events.store.SegmentBlockStore#getBlockBytes(String, long)}, and are decoded
+ * only as far as they are accessed. Envelope bytes are slices of the block buffer, not copies,
+ * so the buffer must not be modified while the decoded data is in use, and only the envelope
+ * being decoded takes extra memory.
+ * <p>
+ * Invalid transactions are skipped by the validation codes of the block metadata without parsing.
+ * Iterators throw {@link InvalidProtocolBufferRuntimeException} on malformed data.
+ */
+public class BlockDecoder {
+
+    private static final int BLOCK_HEADER = 1;
+    private static final int BLOCK_DATA = 2;
+    private static final int BLOCK_METADATA = 3;
+    /* BlockData.data and BlockMetadata.metadata */
+    private static final int REPEATED_BYTES = 1;
+
+    private final Common.BlockHeader header;
+    private final ByteString data;
+    private final ByteString validationCodes;
+
+    /**
+     * Envelope of the block
+     */
+    public static class Envelope {
+        private final int index;
+        private final int validationCode;
+        private final ByteString envelopeBytes;
+        private Common.Payload payload;
+        private Common.ChannelHeader channelHeader;
+
+        private Envelope(int index, int validationCode, ByteString envelopeBytes) {
+            this.index = index;
+            this.validationCode = validationCode;
+            this.envelopeBytes = envelopeBytes;
+        }
+
+        /**
+         * @return index of the envelope in the block
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        /**
+         * @return {@link FabricTransaction.TxValidationCode} number
+         */
+        public int getValidationCode() {
+            return validationCode;
+        }
+
+        public boolean isValid() {
+            return validationCode == FabricTransaction.TxValidationCode.VALID_VALUE;
+        }
+
+        public ByteString getEnvelopeBytes() {
+            return envelopeBytes;
+        }
+
+        public Common.Payload getPayload() throws InvalidProtocolBufferException {
+            if (payload == null)
+                payload = Common.Payload.parseFrom(Common.Envelope.parseFrom(envelopeBytes).getPayload());
+            return payload;
+        }
+
+        public Common.ChannelHeader getChannelHeader() throws InvalidProtocolBufferException {
+            if (channelHeader == null)
+                channelHeader = Common.ChannelHeader.parseFrom(getPayload().getHeader().getChannelHeader());
+            return channelHeader;
+        }
+
+        public String getTransactionID() throws InvalidProtocolBufferException {
+            return getChannelHeader().getTxId();
+        }
+
+        public boolean isEndorserTransaction() throws InvalidProtocolBufferException {
+            return getChannelHeader().getType() == Common.HeaderType.ENDORSER_TRANSACTION_VALUE;
+        }
+
+        /**
+         * @return transaction, null if the envelope is not an endorser transaction
+         */
+        public SdkTxUtil.TransactionInfoEx getTransaction() throws InvalidProtocolBufferException {
+            return isEndorserTransaction() ? SdkTxUtil.getTransaction(getPayload()) : null;
+        }
+    }
+
+    public BlockDecoder(ByteBuffer blockBytes) throws InvalidProtocolBufferException {
+        Common.BlockHeader header = Common.BlockHeader.getDefaultInstance();
+        ByteString data = ByteString.EMPTY;
+        ByteString metadata = ByteString.EMPTY;
+        try {
+            // wrapped buffer is treated as immutable, so byte fields are read as slices
+            final CodedInputStream input = newInput(UnsafeByteOperations.unsafeWrap(blockBytes.duplicate()));
+            for (int tag = input.readTag(); tag != 0; tag = input.readTag()) {
+                switch (WireFormat.getTagFieldNumber(tag)) {
+                    case BLOCK_HEADER:
+                        header = Common.BlockHeader.parseFrom(input.readBytes());
+                        break;
+                    case BLOCK_DATA:
+                        data = input.readBytes();
+                        break;
+                    case BLOCK_METADATA:
+                        metadata = input.readBytes();
+                        break;
+                    default:
+                        input.skipField(tag);
+                }
+            }
+        } catch (InvalidProtocolBufferException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new InvalidProtocolBufferException(e.getMessage());
+        }
+        this.header = header;
+        this.data = data;
+        this.validationCodes = getMetadata(metadata, Common.BlockMetadataIndex.TRANSACTIONS_FILTER_VALUE);
+    }
+
+    private static CodedInputStream newInput(ByteString bytes) {
+        final CodedInputStream input = bytes.newCodedInput();
+        input.enableAliasing(true);
+        input.setSizeLimit(Integer.MAX_VALUE);
+        return input;
+    }
+
+    private static ByteString getMetadata(ByteString metadata, int index) throws InvalidProtocolBufferException {
+        try {
+            final CodedInputStream input = newInput(metadata);
+            int i = 0;
+            for (int tag = input.readTag(); tag != 0; tag = input.readTag()) {
+                if (WireFormat.getTagFieldNumber(tag) != REPEATED_BYTES)
+                    input.skipField(tag);
+                else if (i++ == index)
+                    return input.readBytes();
+                else
+                    input.skipField(tag);
+            }
+            return ByteString.EMPTY;
+        } catch (InvalidProtocolBufferException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new InvalidProtocolBufferException(e.getMessage());
+        }
+    }
+
+    public long getBlockNumber() {
+        return header.getNumber();
+    }
+
+    public Common.BlockHeader getHeader() {
+        return header;
+    }
+
+    /**
+     * @return validation code of the envelope, {@link FabricTransaction.TxValidationCode#VALID} if the block has no codes
+     */
+    public int getValidationCode(int index) {
+        return index < validationCodes.size() ? validationCodes.byteAt(index) & 0xFF : FabricTransaction.TxValidationCode.VALID_VALUE;
+    }
+
+    /**
+     * @param validOnly skip invalid transactions, without parsing them
+     */
+    public Iterator<Envelope> getEnvelopes(boolean validOnly) {
+        final CodedInputStream input = newInput(data);
+
+        return new Iterator<Envelope>() {
+            int index = 0;
+            Envelope nextObject = null;
+
+            private Envelope nextObject() throws IOException {
+                for (int tag = input.readTag(); tag != 0; tag = input.readTag()) {
+                    if (WireFormat.getTagFieldNumber(tag) != REPEATED_BYTES) {
+                        input.skipField(tag);
+                        continue;
+                    }
+
+                    final int envelopeIndex = index++;
+                    final int validationCode = getValidationCode(envelopeIndex);
+                    if (validOnly && validationCode != FabricTransaction.TxValidationCode.VALID_VALUE)
+                        input.skipField(tag);
+                    else
+                        return new Envelope(envelopeIndex, validationCode, input.readBytes());
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                if (nextObject == null) {
+                    try {
+                        nextObject = nextObject();
+                    } catch (InvalidProtocolBufferException e) {
+                        throw new InvalidProtocolBufferRuntimeException(e);
+                    } catch (IOException e) {
+                        throw new InvalidProtocolBufferRuntimeException(new InvalidProtocolBufferException(e.getMessage()));
+                    }
+                }
+                return nextObject != null;
+            }
+
+            @Override
+            public Envelope next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                final Envelope envelope = nextObject;
+                nextObject = null;
+                return envelope;
+            }
+        };
+    }
+
+    /**
+     * Actions of the valid endorser transactions, decoded one transaction at a time
+     */
+    public Iterator<SdkTxUtil.TransactionActionInfoEx> getActions() {
+        final Iterator<Envelope> envelopes = getEnvelopes(true);
+
+        return new Iterator<SdkTxUtil.TransactionActionInfoEx>() {
+            Iterator<SdkTxUtil.TransactionActionInfoEx> actions = Collections.emptyIterator();
+
+            @Override
+            public boolean hasNext() {
+                try {
+                    while (!actions.hasNext()) {
+                        if (!envelopes.hasNext())
+                            return false;
+                        final SdkTxUtil.TransactionInfoEx transaction = envelopes.next().getTransaction();
+                        if (transaction != null)
+                            actions = transaction.getActions().iterator();
+                    }
+                    return true;
+                } catch (InvalidProtocolBufferException e) {
+                    throw new InvalidProtocolBufferRuntimeException(e);
+                }
+            }
+
+            @Override
+            public SdkTxUtil.TransactionActionInfoEx next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                return actions.next();
+            }
+        };
+    }
+
+    /**
+     * Chaincode events of the valid transactions, like {@link TxUtils#getBlockEvents(org.hyperledger.fabric.sdk.BlockInfo)}
+     */
+    public Iterator<ChaincodeEvent> getEvents() {
+        final Iterator<SdkTxUtil.TransactionActionInfoEx> actions = getActions();
+
+        return new Iterator<ChaincodeEvent>() {
+            ChaincodeEvent nextObject = null;
+
+            @Override
+            public boolean hasNext() {
+                while (nextObject == null && actions.hasNext())
+                    nextObject = actions.next().getEvent();
+                return nextObject != null;
+            }
+
+            @Override
+            public ChaincodeEvent next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                final ChaincodeEvent event = nextObject;
+                nextObject = null;
+                return event;
+            }
+        };
+    }
+}
@@ -0,0 +1,244 @@
+package com.luxoft.fabric.utils;
+
+import com.luxoft.fabric.events.ordering.FabricQueryException;
+import com.luxoft.fabric.events.store.BlockStore;
+import org.hyperledger.fabric.sdk.BlockInfo;
+import org.hyperledger.fabric.sdk.ChaincodeEvent;
+import org.hyperledger.fabric.sdk.Channel;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Scans the range of blocks for analytics: blocks are fetched concurrently (from the block store
+ * if set, otherwise from the peers), decoded in parallel on the fork/join pool, and results are
+ * streamed in block order or in order of completion.
+ * <p>
+ * Number of blocks fetched or decoded at once is bounded by {@code maxConcurrentFetches},
+ * so is the memory. Filters are applied while decoding, before event payloads are copied,
+ * so only matching results reach the stream.
+ * <p>
+ * Stream fails with {@link CompletionException}, caused by {@link FabricQueryException},
+ * if the block can't be fetched. Close the stream, if it's not consumed to the end.
+ * <pre>
+ *     try (Stream&lt;ChaincodeEvent&gt; events = new BlockScanner(channel, 0, height).events(false)) {
+ *         events.forEach(...);
+ *     }
+ * </pre>
+ */
+public class BlockScanner {
+
+    public static final int DEFAULT_MAX_CONCURRENT_FETCHES = 8;
+
+    private final Channel channel;
+    private final long fromBlock;
+    private final long toBlock;
+
+    private BlockStore blockStore;
+    private int maxConcurrentFetches = DEFAULT_MAX_CONCURRENT_FETCHES;
+    private Executor fetchExecutor;
+    private Executor decodeExecutor = ForkJoinPool.commonPool();
+    private Predicate<BlockInfo.TransactionEnvelopeInfo> transactionFilter = (transaction) -> true;
+    private Predicate<ChaincodeEvent> eventFilter = (event) -> true;
+
+    /**
+     * @param fromBlock first block to scan
+     * @param toBlock   block after the last one to scan
+     */
+    public BlockScanner(Channel channel, long fromBlock, long toBlock) {
+        if (fromBlock < 0 || fromBlock > toBlock)
+            throw new IllegalArgumentException(String.format("Invalid block range [%d, %d)", fromBlock, toBlock));
+        this.channel = channel;
+        this.fromBlock = fromBlock;
+        this.toBlock = toBlock;
+    }
+
+    /**
+     * @param blockStore local block store, fetched blocks are put to it
+     */
+    public void setBlockStore(BlockStore blockStore) {
+        this.blockStore = blockStore;
+    }
+
+    public void setMaxConcurrentFetches(int maxConcurrentFetches) {
+        if (maxConcurrentFetches <= 0)
+            throw new IllegalArgumentException("Max concurrent fetches must be positive: " + maxConcurrentFetches);
+        this.maxConcurrentFetches = maxConcurrentFetches;
+    }
+
+    /**
+     * @param fetchExecutor executor to run blocking block queries on, by default each stream
+     *                      has its own pool of {@code maxConcurrentFetches} daemon threads,
+     *                      created when the first block is fetched
+     */
+    public void setFetchExecutor(Executor fetchExecutor) {
+        this.fetchExecutor = fetchExecutor;
+    }
+
+    /**
+     * @param decodeExecutor executor to decode blocks on, common fork/join pool by default
+     */
+    public void setDecodeExecutor(Executor decodeExecutor) {
+        this.decodeExecutor = decodeExecutor;
+    }
+
+    /**
+     * Filter of the valid transactions, applied before the transaction's events are extracted
+     */
+    public void setTransactionFilter(Predicate<BlockInfo.TransactionEnvelopeInfo> transactionFilter) {
+        this.transactionFilter = transactionFilter;
+    }
+
+    /**
+     * Filter of the events, e.g. by chaincode id and event name, applied before the payload is copied
+     */
+    public void setEventFilter(Predicate<ChaincodeEvent> eventFilter) {
+        this.eventFilter = eventFilter;
+    }
+
+    public Stream<BlockInfo> blocks(boolean ordered) {
+        return scan(Collections::singletonList, ordered);
+    }
+
+    /**
+     * Valid transactions, which pass the transaction filter
+     */
+    public Stream<BlockInfo.TransactionEnvelopeInfo> transactions(boolean ordered) {
+        return scan((blockInfo) -> {
+            final List<BlockInfo.TransactionEnvelopeInfo> result = new ArrayList<>();
+            TxUtils.getBlockTransactions(blockInfo).forEachRemaining((transaction) -> {
+                if (transactionFilter.test(transaction))
+                    result.add(transaction);
+            });
+            return result;
+        }, ordered);
+    }
+
+    /**
+     * Events of the valid transactions, which pass both filters
+     */
+    public Stream<ChaincodeEvent> events(boolean ordered) {
+        return scan((blockInfo) -> {
+            final List<ChaincodeEvent> result = new ArrayList<>();
+            TxUtils.getBlockTransactions(blockInfo).forEachRemaining((transaction) -> {
+                if (!transactionFilter.test(transaction))
+                    return;
+                for (ChaincodeEvent event : TxUtils.getTransactionEvents(transaction)) {
+                    if (eventFilter.test(event))
+                        result.add(event);
+                }
+            });
+            return result;
+        }, ordered);
+    }
+
+    private <T> Stream<T> scan(Function<BlockInfo, List<T>> decoder, boolean ordered) {
+        final Scan<T> scan = new Scan<>(decoder, ordered);
+        return StreamSupport.stream(scan, false).onClose(scan::close).flatMap(List::stream);
+    }
+
+    private BlockInfo fetchBlock(long blockNumber) {
+        try {
+            return TxUtils.queryBlockByNumber(channel, blockStore, blockNumber);
+        } catch (Exception e) {
+            throw new CompletionException(new FabricQueryException("Failed to fetch block " + blockNumber, e));
+        }
+    }
+
+    /**
+     * Results of the blocks, one list per block. Keeps a window of blocks in progress.
+     */
+    private class Scan<T> extends Spliterators.AbstractSpliterator<List<T>> implements AutoCloseable {
+        private final Function<BlockInfo, List<T>> decoder;
+        private final boolean ordered;
+        private final Deque<CompletableFuture<List<T>>> window = new ArrayDeque<>();
+        private final BlockingQueue<CompletableFuture<List<T>>> completed = new LinkedBlockingQueue<>();
+        private ExecutorService ownExecutor;
+        private Executor executor;
+        private long nextBlock = fromBlock;
+
+        private Scan(Function<BlockInfo, List<T>> decoder, boolean ordered) {
+            super(toBlock - fromBlock, ordered ? ORDERED | NONNULL : NONNULL);
+            this.decoder = decoder;
+            this.ordered = ordered;
+        }
+
+        private Executor getExecutor() {
+            if (executor == null) {
+                if (fetchExecutor != null) {
+                    executor = fetchExecutor;
+                } else {
+                    // stream, which is abandoned without closing, doesn't keep the JVM running
+                    ownExecutor = Executors.newFixedThreadPool(maxConcurrentFetches, r -> {
+                        final Thread thread = new Thread(r, "block-scanner-" + channel.getName());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                    executor = ownExecutor;
+                }
+            }
+            return executor;
+        }
+
+        private void fill() {
+            while (window.size() < maxConcurrentFetches && nextBlock < toBlock) {
+                final long blockNumber = nextBlock++;
+                final Executor executor = getExecutor();
+                final CompletableFuture<List<T>> future = CompletableFuture
+                        .supplyAsync(() -> fetchBlock(blockNumber), executor)
+                        .thenApplyAsync(decoder, decodeExecutor);
+                window.add(future);
+                if (!ordered)
+                    future.whenComplete((result, e) -> completed.add(future));
+            }
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super List<T>> action) {
+            fill();
+            if (window.isEmpty()) {
+                close();
+                return false;
+            }
+
+            final CompletableFuture<List<T>> future;
+            if (ordered) {
+                future = window.poll();
+            } else {
+                try {
+                    future = completed.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    close();
+                    throw new CancellationException("Scan is interrupted");
+                }
+                window.remove(future);
+            }
+
+            final List<T> result;
+            try {
+                result = future.join();
+            } catch (RuntimeException e) {
+                close();
+                throw e;
+            }
+            action.accept(result);
+            return true;
+        }
+
+        @Override
+        public void close() {
+            for (CompletableFuture<List<T>> future : window)
+                future.cancel(false);
+            window.clear();
+            nextBlock = toBlock;
+            if (ownExecutor != null)
+                ownExecutor.shutdownNow();
+        }
+    }
+}
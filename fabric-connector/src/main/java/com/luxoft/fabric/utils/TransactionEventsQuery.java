@@ -0,0 +1,167 @@
+package com.luxoft.fabric.utils;
+
+import com.luxoft.fabric.events.ordering.FabricQueryException;
+import com.luxoft.fabric.events.store.BlockStore;
+import com.luxoft.fabric.events.store.TransactionStatusIndex;
+import org.hyperledger.fabric.sdk.ChaincodeEvent;
+import org.hyperledger.fabric.sdk.Channel;
+import org.hyperledger.fabric.sdk.Peer;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bulk lookup of the events of committed transactions. Transaction ids are deduplicated,
+ * queried in parallel, at most {@code maxConcurrentQueries} at once, spreading queries
+ * over the channel's ledger query peers round-robin (the other peers are tried if the peer fails).
+ * <p>
+ * Results are kept in the bounded LRU cache, shared by all the callers, and concurrent
+ * lookups of the same transaction share a single query. Failed lookups are not cached,
+ * so retrying the bulk query repeats only the failed ones.
+ */
+public class TransactionEventsQuery {
+
+    public static final int DEFAULT_CACHE_SIZE = 1024;
+
+    private final Executor executor;
+    private final int maxConcurrentQueries;
+    private final Map<String, List<ChaincodeEvent>> cache;
+    private final ConcurrentMap<String, CompletableFuture<List<ChaincodeEvent>>> inFlight = new ConcurrentHashMap<>();
+    private final Queue<PendingQuery> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger nextPeer = new AtomicInteger();
+
+    private static class PendingQuery {
+        final String key;
+        final CompletableFuture<List<ChaincodeEvent>> future;
+        final Runnable task;
+
+        PendingQuery(String key, CompletableFuture<List<ChaincodeEvent>> future, Runnable task) {
+            this.key = key;
+            this.future = future;
+            this.task = task;
+        }
+    }
+
+    /**
+     * @param executor             executor to run blocking queries on
+     * @param maxConcurrentQueries number of queries run at once
+     * @param cacheSize            number of transactions to keep in the cache
+     */
+    public TransactionEventsQuery(Executor executor, int maxConcurrentQueries, int cacheSize) {
+        if (maxConcurrentQueries <= 0)
+            throw new IllegalArgumentException("Max concurrent queries must be positive: " + maxConcurrentQueries);
+        this.executor = executor;
+        this.maxConcurrentQueries = maxConcurrentQueries;
+        this.cache = Collections.synchronizedMap(new LinkedHashMap<String, List<ChaincodeEvent>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, List<ChaincodeEvent>> eldest) {
+                return size() > cacheSize;
+            }
+        });
+    }
+
+    public CompletableFuture<Map<String, List<ChaincodeEvent>>> queryEventsByTransactionIDs(Channel channel, Collection<String> transactionIDs) {
+        return queryEventsByTransactionIDs(channel, null, null, transactionIDs);
+    }
+
+    /**
+     * Events of the transactions, see {@link TxUtils#queryEventsByTransactionID(Channel, TransactionStatusIndex, BlockStore, String)}
+     * @param transactionStatusIndex index of committed transactions, may be null
+     * @param blockStore             local block store, may be null
+     * @return events by transaction id, fails with {@link FabricQueryException} if any lookup fails
+     */
+    public CompletableFuture<Map<String, List<ChaincodeEvent>>> queryEventsByTransactionIDs(Channel channel, TransactionStatusIndex transactionStatusIndex,
+                                                                                            BlockStore blockStore, Collection<String> transactionIDs) {
+        final Map<String, CompletableFuture<List<ChaincodeEvent>>> queries = new LinkedHashMap<>();
+        for (String transactionID : transactionIDs) {
+            if (!queries.containsKey(transactionID))
+                queries.put(transactionID, query(channel, transactionStatusIndex, blockStore, transactionID));
+        }
+
+        return CompletableFuture.allOf(queries.values().toArray(new CompletableFuture[0])).thenApply((x) -> {
+            final Map<String, List<ChaincodeEvent>> result = new LinkedHashMap<>();
+            queries.forEach((transactionID, query) -> result.put(transactionID, query.join()));
+            return result;
+        });
+    }
+
+    private CompletableFuture<List<ChaincodeEvent>> query(Channel channel, TransactionStatusIndex transactionStatusIndex,
+                                                          BlockStore blockStore, String transactionID) {
+        final String key = channel.getName() + '/' + transactionID;
+        final List<ChaincodeEvent> cached = cache.get(key);
+        if (cached != null)
+            return CompletableFuture.completedFuture(cached);
+
+        final CompletableFuture<List<ChaincodeEvent>> future = new CompletableFuture<>();
+        final CompletableFuture<List<ChaincodeEvent>> existing = inFlight.putIfAbsent(key, future);
+        if (existing != null)
+            return existing;
+
+        submit(new PendingQuery(key, future, () -> {
+            try {
+                final List<ChaincodeEvent> events = Collections.unmodifiableList(TxUtils.queryEventsByTransactionID(
+                        channel, nextPeers(channel), transactionStatusIndex, blockStore, transactionID));
+                cache.put(key, events);
+                future.complete(events);
+            } catch (FabricQueryException e) {
+                future.completeExceptionally(e);
+            } catch (Exception e) {
+                future.completeExceptionally(new FabricQueryException("Failed to query transaction " + transactionID, e));
+            } finally {
+                inFlight.remove(key, future);
+            }
+        }));
+        return future;
+    }
+
+    /**
+     * Ledger query peers, starting from the next one
+     */
+    private List<Peer> nextPeers(Channel channel) {
+        final List<Peer> peers = new ArrayList<>(channel.getPeers(EnumSet.of(Peer.PeerRole.LEDGER_QUERY)));
+        if (peers.size() > 1)
+            Collections.rotate(peers, -Math.floorMod(nextPeer.getAndIncrement(), peers.size()));
+        return peers;
+    }
+
+    private void submit(PendingQuery query) {
+        pending.add(query);
+        drain();
+    }
+
+    private void drain() {
+        while (!pending.isEmpty()) {
+            final int current = running.get();
+            if (current >= maxConcurrentQueries)
+                return;
+            if (!running.compareAndSet(current, current + 1))
+                continue;
+
+            final PendingQuery query = pending.poll();
+            if (query == null) {
+                running.decrementAndGet();
+                continue;
+            }
+            try {
+                executor.execute(() -> {
+                    try {
+                        query.task.run();
+                    } finally {
+                        running.decrementAndGet();
+                        drain();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                running.decrementAndGet();
+                inFlight.remove(query.key, query.future);
+                query.future.completeExceptionally(new FabricQueryException("Query of transaction " + query.key + " rejected", e));
+            }
+        }
+    }
+
+    public void clearCache() {
+        cache.clear();
+    }
+}
@@ -2,13 +2,31 @@ package com.luxoft.fabric.utils;
 
 import com.google.protobuf.InvalidProtocolBufferException;
 import com.luxoft.fabric.events.ordering.FabricQueryException;
+import com.luxoft.fabric.events.store.BlockStore;
+import com.luxoft.fabric.events.store.BlockTimeIndex;
+import com.luxoft.fabric.events.store.TransactionStatusIndex;
+import org.hyperledger.fabric.protos.common.Common;
 import org.hyperledger.fabric.sdk.*;
 import org.hyperledger.fabric.sdk.exception.InvalidArgumentException;
 import org.hyperledger.fabric.sdk.exception.ProposalException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.*;
+import java.util.stream.Stream;
 
 public class TxUtils {
+    private static final Logger logger = LoggerFactory.getLogger(TxUtils.class);
+
+    /**
+     * Default for how far the timestamp of the committed transaction may lag behind the earlier blocks,
+     * see {@link #findBlockRange(Channel, BlockTimeIndex, Instant, Instant, Duration)}
+     */
+    public static final Duration DEFAULT_MAX_TIMESTAMP_SKEW = Duration.ofMinutes(5);
+
     public static Iterator<ChaincodeEvent> getBlockEvents(BlockInfo blockInfo) {
 
         Iterator<ChaincodeEvent> iterator = new Iterator<ChaincodeEvent>() {
@@ -106,6 +124,14 @@ public class TxUtils {
         return iterator;
     }
 
+    /**
+     * Actions of the valid transactions of the block. The action object is reused,
+     * see {@link SdkTxUtil#scanActions(Iterator)}.
+     */
+    public static Iterator<SdkTxUtil.TransactionActionInfoEx> scanBlockActions(BlockInfo blockInfo) {
+        return SdkTxUtil.scanActions(getBlockTransactions(blockInfo));
+    }
+
     public static List<ChaincodeEvent> getTransactionEvents(BlockInfo.TransactionEnvelopeInfo transactionEnvelopeInfo) {
         List<ChaincodeEvent> result = new ArrayList<>();
 
@@ -118,10 +144,200 @@ public class TxUtils {
         return result;
     }
 
+    /**
+     * Read the block from the store, or query it from the network and put to the store.
+     * Store failures are logged and don't fail the query.
+     * @param blockStore local block store, may be null
+     */
+    public static BlockInfo queryBlockByNumber(Channel channel, BlockStore blockStore, long blockNumber) throws InvalidArgumentException, ProposalException {
+        if (blockStore != null) {
+            try {
+                final Common.Block block = blockStore.getBlock(channel.getName(), blockNumber);
+                if (block != null)
+                    return SdkTxUtil.newBlockInfo(block);
+            } catch (IOException e) {
+                logger.warn("Failed to read block {} from the store", blockNumber, e);
+            }
+        }
+
+        final BlockInfo blockInfo = channel.queryBlockByNumber(blockNumber);
+        storeBlock(blockStore, channel.getName(), blockInfo);
+        return blockInfo;
+    }
+
+    /**
+     * Put full block to the store, filtered blocks are ignored
+     * @param blockStore local block store, may be null
+     */
+    public static void storeBlock(BlockStore blockStore, String channelName, BlockInfo blockInfo) {
+        if (blockStore == null || blockInfo.isFiltered())
+            return;
+
+        try {
+            blockStore.putBlock(channelName, blockInfo.getBlock());
+        } catch (IOException e) {
+            logger.warn("Failed to store block {}", blockInfo.getBlockNumber(), e);
+        }
+    }
+
+    /**
+     * Scanner of the block range [fromBlock, toBlock), fetching and decoding blocks in parallel
+     * @param blockStore local block store, may be null
+     */
+    public static BlockScanner scanBlocks(Channel channel, BlockStore blockStore, long fromBlock, long toBlock) {
+        final BlockScanner scanner = new BlockScanner(channel, fromBlock, toBlock);
+        scanner.setBlockStore(blockStore);
+        return scanner;
+    }
+
     public static List<ChaincodeEvent> queryEventsByTransactionID(Channel channel, String transactionID) throws InvalidArgumentException, ProposalException, InvalidProtocolBufferException, FabricQueryException {
         return SdkTxUtil.queryEventsByTransactionID(channel, transactionID);
     }
 
+    /**
+     * Events of the transaction, taken from the locally stored block if the transaction is indexed,
+     * queried from the peer otherwise
+     * @param transactionStatusIndex index of committed transactions, may be null
+     * @param blockStore local block store, may be null
+     */
+    public static List<ChaincodeEvent> queryEventsByTransactionID(Channel channel, TransactionStatusIndex transactionStatusIndex, BlockStore blockStore, String transactionID) throws InvalidArgumentException, ProposalException, InvalidProtocolBufferException, FabricQueryException {
+        return queryEventsByTransactionID(channel, null, transactionStatusIndex, blockStore, transactionID);
+    }
+
+    /**
+     * @param peers peers to query in order, null for the channel's ledger query peers in random order
+     * @see #queryEventsByTransactionID(Channel, TransactionStatusIndex, BlockStore, String)
+     */
+    public static List<ChaincodeEvent> queryEventsByTransactionID(Channel channel, Collection<Peer> peers, TransactionStatusIndex transactionStatusIndex, BlockStore blockStore, String transactionID) throws InvalidArgumentException, ProposalException, InvalidProtocolBufferException, FabricQueryException {
+        if (transactionStatusIndex != null && blockStore != null) {
+            final TransactionStatusIndex.Status status = transactionStatusIndex.get(channel.getName(), transactionID);
+            if (status != null && blockStore.containsBlock(channel.getName(), status.getBlockNumber())) {
+                final BlockInfo blockInfo = queryBlockByNumber(channel, blockStore, status.getBlockNumber());
+                for (BlockInfo.EnvelopeInfo envelopeInfo : blockInfo.getEnvelopeInfos()) {
+                    if (envelopeInfo instanceof BlockInfo.TransactionEnvelopeInfo && transactionID.equals(envelopeInfo.getTransactionID()))
+                        return getTransactionEvents((BlockInfo.TransactionEnvelopeInfo) envelopeInfo);
+                }
+            }
+        }
+        return SdkTxUtil.queryEventsByTransactionID(channel, peers, transactionID);
+    }
+
+    /**
+     * Status of the committed transaction. Index is consulted first, otherwise the block
+     * of the transaction is queried from the peer and put to the index.
+     * @param transactionStatusIndex index of committed transactions, may be null
+     */
+    public static TransactionStatusIndex.Status queryTransactionStatus(Channel channel, TransactionStatusIndex transactionStatusIndex, String transactionID) throws InvalidArgumentException, ProposalException {
+        if (transactionStatusIndex != null) {
+            final TransactionStatusIndex.Status status = transactionStatusIndex.get(channel.getName(), transactionID);
+            if (status != null)
+                return status;
+        }
+
+        final BlockInfo blockInfo = channel.queryBlockByTransactionID(transactionID);
+        if (transactionStatusIndex != null)
+            transactionStatusIndex.addBlock(channel.getName(), blockInfo);
+
+        for (BlockInfo.EnvelopeInfo envelopeInfo : blockInfo.getEnvelopeInfos()) {
+            if (transactionID.equals(envelopeInfo.getTransactionID()))
+                return new TransactionStatusIndex.Status(blockInfo.getBlockNumber(), envelopeInfo.getValidationCode());
+        }
+        throw new ProposalException(String.format("Transaction %s not found in block %d", transactionID, blockInfo.getBlockNumber()));
+    }
+
+    /**
+     * Block of the committed transaction, taken from the block store if the transaction is indexed,
+     * queried from the peer otherwise and put to the index
+     * @param transactionStatusIndex index of committed transactions, may be null
+     * @param blockStore local block store, may be null
+     */
+    public static BlockInfo queryBlockByTransactionID(Channel channel, TransactionStatusIndex transactionStatusIndex, BlockStore blockStore, String transactionID) throws InvalidArgumentException, ProposalException {
+        if (transactionStatusIndex != null) {
+            final TransactionStatusIndex.Status status = transactionStatusIndex.get(channel.getName(), transactionID);
+            if (status != null)
+                return queryBlockByNumber(channel, blockStore, status.getBlockNumber());
+        }
+
+        final BlockInfo blockInfo = channel.queryBlockByTransactionID(transactionID);
+        if (transactionStatusIndex != null)
+            transactionStatusIndex.addBlock(channel.getName(), blockInfo);
+        storeBlock(blockStore, channel.getName(), blockInfo);
+        return blockInfo;
+    }
+
+    /**
+     * Index timestamps of the blocks up to toBlock, fetching the blocks in parallel.
+     * Empty index starts from the genesis block.
+     * @param blockStore local block store, may be null
+     * @return height of the index
+     */
+    public static long updateBlockTimeIndex(Channel channel, BlockStore blockStore, BlockTimeIndex blockTimeIndex, long toBlock) throws IOException {
+        final long height = Math.max(blockTimeIndex.getHeight(channel.getName()), 0);
+        if (height >= toBlock)
+            return height;
+
+        try (Stream<BlockInfo> blocks = scanBlocks(channel, blockStore, height, toBlock).blocks(true)) {
+            for (Iterator<BlockInfo> it = blocks.iterator(); it.hasNext(); )
+                blockTimeIndex.addBlock(channel.getName(), it.next());
+        }
+        return blockTimeIndex.getHeight(channel.getName());
+    }
+
+    /**
+     * @see #findBlockRange(Channel, BlockTimeIndex, Instant, Instant, Duration)
+     */
+    public static long[] findBlockRange(Channel channel, BlockTimeIndex blockTimeIndex, Instant from, Instant to) throws IOException {
+        return findBlockRange(channel, blockTimeIndex, from, to, DEFAULT_MAX_TIMESTAMP_SKEW);
+    }
+
+    /**
+     * Range of the indexed blocks [fromBlock, toBlock), which may contain transactions of the time range [from, to).
+     * <p>
+     * Transaction timestamps are set by clients, so transaction may be committed after the transactions with later
+     * timestamps. Such transaction is in the range, unless some transaction of the earlier blocks has timestamp
+     * later than its own by {@code maxSkew} or more.
+     * @param maxSkew how far the transaction's timestamp may lag behind the timestamps of the earlier blocks
+     * @return null if no block is indexed
+     */
+    public static long[] findBlockRange(Channel channel, BlockTimeIndex blockTimeIndex, Instant from, Instant to, Duration maxSkew) throws IOException {
+        final long height = blockTimeIndex.getHeight(channel.getName());
+        if (height < 0)
+            return null;
+        // block timestamp never decreases, so transactions after the start are not in the earlier blocks,
+        // and the block, which reached the end of the range (widened by the skew), may still have transactions before it
+        return new long[]{blockTimeIndex.findBlock(channel.getName(), from.toEpochMilli()),
+                Math.min(blockTimeIndex.findBlock(channel.getName(), to.plus(maxSkew).toEpochMilli()) + 1, height)};
+    }
+
+    /**
+     * @see #queryEventsByTime(Channel, BlockStore, BlockTimeIndex, Instant, Instant, Duration)
+     */
+    public static Stream<ChaincodeEvent> queryEventsByTime(Channel channel, BlockStore blockStore, BlockTimeIndex blockTimeIndex, Instant from, Instant to) throws IOException {
+        return queryEventsByTime(channel, blockStore, blockTimeIndex, from, to, DEFAULT_MAX_TIMESTAMP_SKEW);
+    }
+
+    /**
+     * Events of the valid transactions with timestamps in [from, to), in block order.
+     * Only the indexed blocks are scanned, see {@link #updateBlockTimeIndex(Channel, BlockStore, BlockTimeIndex, long)},
+     * and transactions committed out of order by more than {@code maxSkew} may be missed,
+     * see {@link #findBlockRange(Channel, BlockTimeIndex, Instant, Instant, Duration)}.
+     * Close the stream, if it's not consumed to the end.
+     * @param blockStore local block store, may be null
+     */
+    public static Stream<ChaincodeEvent> queryEventsByTime(Channel channel, BlockStore blockStore, BlockTimeIndex blockTimeIndex,
+                                                           Instant from, Instant to, Duration maxSkew) throws IOException {
+        final long[] blockRange = findBlockRange(channel, blockTimeIndex, from, to, maxSkew);
+        if (blockRange == null || blockRange[0] >= blockRange[1])
+            return Stream.empty();
+
+        final BlockScanner scanner = scanBlocks(channel, blockStore, blockRange[0], blockRange[1]);
+        scanner.setTransactionFilter((transaction) -> {
+            final long timestamp = transaction.getTimestamp().getTime();
+            return timestamp >= from.toEpochMilli() && timestamp < to.toEpochMilli();
+        });
+        return scanner.events(true);
+    }
+
     public static List<ChaincodeEvent> getTransactionEvents(TransactionInfo transactionInfo) throws InvalidProtocolBufferException {
         return SdkTxUtil.getEventsByTransactionInfo(transactionInfo);
     }
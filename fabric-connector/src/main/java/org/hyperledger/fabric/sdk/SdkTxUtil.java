@@ -1,9 +1,14 @@
 package org.hyperledger.fabric.sdk;
 
 import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
 import com.google.protobuf.InvalidProtocolBufferException;
 import com.luxoft.fabric.events.ordering.FabricQueryException;
 import org.hyperledger.fabric.protos.common.Common;
+import org.hyperledger.fabric.protos.ledger.rwset.Rwset;
+import org.hyperledger.fabric.protos.ledger.rwset.kvrwset.KvRwset;
+import org.hyperledger.fabric.protos.peer.Chaincode;
+import org.hyperledger.fabric.protos.peer.FabricProposal;
 import org.hyperledger.fabric.sdk.exception.InvalidArgumentException;
 import org.hyperledger.fabric.sdk.exception.ProposalException;
 
@@ -11,41 +16,180 @@ import java.util.*;
 
 public class SdkTxUtil {
 
+    /**
+     * Input, which returns bytes fields as views of the source instead of copies
+     */
+    private static CodedInputStream newAliasingInput(ByteString bytes) {
+        final CodedInputStream input = bytes.newCodedInput();
+        input.enableAliasing(true);
+        return input;
+    }
+
+    /**
+     * Reads and writes of the transaction action in one namespace (chaincode).
+     * Key/value set is decoded on the first access, values are not copied: they share
+     * the bytes of the action.
+     */
+    public static class NsReadWriteSetEx {
+        private final Rwset.NsReadWriteSet nsReadWriteSet;
+        private KvRwset.KVRWSet kvRwSet;
+
+        NsReadWriteSetEx(Rwset.NsReadWriteSet nsReadWriteSet) {
+            this.nsReadWriteSet = nsReadWriteSet;
+        }
+
+        public String getNamespace() {
+            return nsReadWriteSet.getNamespace();
+        }
+
+        public KvRwset.KVRWSet getKvRwSet() throws InvalidProtocolBufferException {
+            if (kvRwSet == null)
+                kvRwSet = KvRwset.KVRWSet.parser().parseFrom(newAliasingInput(nsReadWriteSet.getRwset()));
+            return kvRwSet;
+        }
+
+        /**
+         * @return keys read with their versions, version is absent for the keys read as missing
+         */
+        public List<KvRwset.KVRead> getReads() throws InvalidProtocolBufferException {
+            return getKvRwSet().getReadsList();
+        }
+
+        /**
+         * @return keys written with their values, or deleted
+         */
+        public List<KvRwset.KVWrite> getWrites() throws InvalidProtocolBufferException {
+            return getKvRwSet().getWritesList();
+        }
+
+        /**
+         * @return range queries executed, with the keys read or their merkle summary
+         */
+        public List<KvRwset.RangeQueryInfo> getRangeQueries() throws InvalidProtocolBufferException {
+            return getKvRwSet().getRangeQueriesInfoList();
+        }
+
+        public List<KvRwset.KVMetadataWrite> getMetadataWrites() throws InvalidProtocolBufferException {
+            return getKvRwSet().getMetadataWritesList();
+        }
+
+        /**
+         * @return serialized key/value set, e.g. to store it
+         */
+        public ByteString getRawRwSet() {
+            return nsReadWriteSet.getRwset();
+        }
+    }
+
+    /**
+     * Read/write set of the transaction action, decoded on the first access.
+     */
+    public static class ReadWriteSetInfoEx {
+        private final ByteString results;
+        private List<NsReadWriteSetEx> namespaces;
+
+        ReadWriteSetInfoEx(ByteString results) {
+            this.results = results;
+        }
+
+        public List<NsReadWriteSetEx> getNamespaces() throws InvalidProtocolBufferException {
+            if (namespaces == null) {
+                final List<NsReadWriteSetEx> list = new ArrayList<>();
+                for (Rwset.NsReadWriteSet nsReadWriteSet : Rwset.TxReadWriteSet.parser().parseFrom(newAliasingInput(results)).getNsRwsetList())
+                    list.add(new NsReadWriteSetEx(nsReadWriteSet));
+                namespaces = Collections.unmodifiableList(list);
+            }
+            return namespaces;
+        }
+
+        /**
+         * @return read/write set of the namespace, null if the action didn't touch it
+         */
+        public NsReadWriteSetEx getNamespace(String namespace) throws InvalidProtocolBufferException {
+            for (NsReadWriteSetEx nsReadWriteSet : getNamespaces()) {
+                if (nsReadWriteSet.getNamespace().equals(namespace))
+                    return nsReadWriteSet;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Action of the transaction. SDK deserializers keep parsed messages by weak references only,
+     * so the messages used by the accessors are parsed once and kept here.
+     */
     public static class TransactionActionInfoEx {
-        private final TransactionActionDeserializer actionDeserializer;
+        private TransactionActionDeserializer actionDeserializer;
+        private Chaincode.ChaincodeInput chaincodeInput;
+        private FabricProposal.ChaincodeAction chaincodeAction;
+        private ReadWriteSetInfoEx readWriteSet;
 
         public TransactionActionInfoEx(TransactionActionDeserializer actionDeserializer) {
             this.actionDeserializer = actionDeserializer;
         }
 
+        /**
+         * Point the flyweight to another action
+         */
+        void reset(TransactionActionDeserializer actionDeserializer) {
+            this.actionDeserializer = actionDeserializer;
+            this.chaincodeInput = null;
+            this.chaincodeAction = null;
+            this.readWriteSet = null;
+        }
+
+        private Chaincode.ChaincodeInput getChaincodeInput() {
+            if (chaincodeInput == null)
+                chaincodeInput = actionDeserializer.getPayload().getChaincodeProposalPayload().
+                        getChaincodeInvocationSpec().getChaincodeInput().getChaincodeInput();
+            return chaincodeInput;
+        }
+
+        private FabricProposal.ChaincodeAction getChaincodeAction() {
+            if (chaincodeAction == null)
+                chaincodeAction = actionDeserializer.getPayload().getAction().
+                        getProposalResponsePayload().getExtension().getChaincodeAction();
+            return chaincodeAction;
+        }
+
         public int getArgsCount() {
-            return actionDeserializer.getPayload().getChaincodeProposalPayload().
-                    getChaincodeInvocationSpec().getChaincodeInput().getChaincodeInput().getArgsCount();
+            return getChaincodeInput().getArgsCount();
         }
 
         public ByteString getArg(int index) {
-            return actionDeserializer.getPayload().getChaincodeProposalPayload().
-                    getChaincodeInvocationSpec().getChaincodeInput().getChaincodeInput().getArgs(index);
+            return getChaincodeInput().getArgs(index);
         }
 
         public List<ByteString> getArgs() {
-            return actionDeserializer.getPayload().getChaincodeProposalPayload().
-                    getChaincodeInvocationSpec().getChaincodeInput().getChaincodeInput().getArgsList();
+            return getChaincodeInput().getArgsList();
         }
 
         public byte[] getProposalResponseMessageBytes() {
-            return actionDeserializer.getPayload().getAction().
-                    getProposalResponsePayload().getExtension().getResponseMessageBytes();
+            return getChaincodeAction().getResponse().getMessageBytes().toByteArray();
         }
 
         public int getProposalResponseStatus() {
-            return actionDeserializer.getPayload().getAction().getProposalResponsePayload().
-                    getExtension().getResponseStatus();
+            return getChaincodeAction().getResponse().getStatus();
+        }
+
+        /**
+         * @return chaincode event of the action, null if none
+         */
+        public ChaincodeEvent getEvent() {
+            final ByteString events = getChaincodeAction().getEvents();
+            return events.isEmpty() ? null : new ChaincodeEvent(events);
+        }
+
+        public ReadWriteSetInfoEx getReadWriteSet() {
+            if (readWriteSet == null)
+                readWriteSet = new ReadWriteSetInfoEx(getChaincodeAction().getResults());
+            return readWriteSet;
         }
     }
 
     public static class TransactionInfoEx {
         private final TransactionDeserializer transactionDeserializer;
+        private TransactionActionInfoEx[] actions;
 
         TransactionInfoEx(final TransactionDeserializer transactionDeserializer) {
             this.transactionDeserializer = transactionDeserializer;
@@ -71,28 +215,28 @@ public class SdkTxUtil {
         }
 
         public TransactionActionInfoEx getAction(int index) {
-            return new TransactionActionInfoEx(transactionDeserializer.getTransactionAction(index));
+            if (actions == null)
+                actions = new TransactionActionInfoEx[getActionCount()];
+            if (actions[index] == null)
+                actions[index] = new TransactionActionInfoEx(transactionDeserializer.getTransactionAction(index));
+            return actions[index];
         }
 
         public Iterable<TransactionActionInfoEx> getActions() {
-            final Iterable<TransactionActionDeserializer> transactionActions = transactionDeserializer.getTransactionActions();
-            return new Iterable<TransactionActionInfoEx>() {
+            return () -> new Iterator<TransactionActionInfoEx>() {
+                final int actionCount = getActionCount();
+                int index = 0;
+
+                @Override
+                public boolean hasNext() {
+                    return index < actionCount;
+                }
 
                 @Override
-                public Iterator<TransactionActionInfoEx> iterator() {
-                    final Iterator<TransactionActionDeserializer> iterator = transactionActions.iterator();
-
-                    return new Iterator<TransactionActionInfoEx>() {
-                        @Override
-                        public boolean hasNext() {
-                            return iterator.hasNext();
-                        }
-
-                        @Override
-                        public TransactionActionInfoEx next() {
-                            return new TransactionActionInfoEx(iterator.next());
-                        }
-                    };
+                public TransactionActionInfoEx next() {
+                    if (index >= actionCount)
+                        throw new NoSuchElementException();
+                    return getAction(index++);
                 }
             };
         }
@@ -102,15 +246,94 @@ public class SdkTxUtil {
         final Common.Envelope envelope = transactionInfo.getEnvelope();
         final Common.Payload payload = Common.Payload.parseFrom(envelope.getPayload());
 
-        TransactionDeserializer transactionDeserializer = new TransactionDeserializer(payload.getData());
+        return getTransaction(payload);
 
         //        final FabricTransaction.ProcessedTransaction processedTransaction = transactionInfo.getProcessedTransaction();
 //        byte validationCode = (byte)processedTransaction.getValidationCode();
 //        final ByteString payload = processedTransaction.getTransactionEnvelope().getPayload();
 //
 //        final EndorserTransactionEnvDeserializer transactionDeserializer = new EndorserTransactionEnvDeserializer(payload, validationCode);
+    }
+
+    /**
+     * Transaction of the endorser transaction envelope payload
+     */
+    public static TransactionInfoEx getTransaction(Common.Payload payload) {
+        return new TransactionInfoEx(new TransactionDeserializer(payload.getData()));
+    }
+
+    /**
+     * Transaction of the block, e.g. to get its read/write sets.
+     * @return null for filtered block transaction
+     */
+    public static TransactionInfoEx getTransaction(BlockInfo.TransactionEnvelopeInfo transactionEnvelopeInfo) {
+        final EndorserTransactionEnvDeserializer transactionDeserializer = transactionEnvelopeInfo.getTransactionDeserializer();
+        return transactionDeserializer != null ? new TransactionInfoEx(transactionDeserializer.getPayload().getTransaction()) : null;
+    }
 
-        return new TransactionInfoEx(transactionDeserializer);
+    /**
+     * Actions of the transactions, for bulk scanning of many transactions. The same action object
+     * is returned by each {@code next()}, pointed to the next action, so it must not be kept.
+     * Filtered block transactions are skipped.
+     */
+    public static Iterator<TransactionActionInfoEx> scanActions(Iterator<BlockInfo.TransactionEnvelopeInfo> transactions) {
+        return new Iterator<TransactionActionInfoEx>() {
+            final TransactionActionInfoEx action = new TransactionActionInfoEx(null);
+            TransactionDeserializer transactionDeserializer;
+            int actionCount = 0;
+            int index = 0;
+
+            @Override
+            public boolean hasNext() {
+                while (index >= actionCount) {
+                    if (!transactions.hasNext())
+                        return false;
+                    final EndorserTransactionEnvDeserializer envelopeDeserializer = transactions.next().getTransactionDeserializer();
+                    if (envelopeDeserializer == null)
+                        continue;
+                    transactionDeserializer = envelopeDeserializer.getPayload().getTransaction();
+                    actionCount = transactionDeserializer.getActionsCount();
+                    index = 0;
+                }
+                return true;
+            }
+
+            @Override
+            public TransactionActionInfoEx next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                action.reset(transactionDeserializer.getTransactionAction(index++));
+                return action;
+            }
+        };
+    }
+
+    /**
+     * Get event payload without copying it, unlike {@link ChaincodeEvent#getPayload()}
+     */
+    public static ByteString getEventPayload(ChaincodeEvent chaincodeEvent) {
+        return chaincodeEvent.getChaincodeEvent().getPayload();
+    }
+
+    /**
+     * Serialize event, e.g. to store it for later processing
+     */
+    public static ByteString getEventBytes(ChaincodeEvent chaincodeEvent) {
+        return chaincodeEvent.getChaincodeEvent().toByteString();
+    }
+
+    /**
+     * Restore event, serialized by {@link #getEventBytes(ChaincodeEvent)}
+     */
+    public static ChaincodeEvent newChaincodeEvent(ByteString eventBytes) {
+        return new ChaincodeEvent(eventBytes);
+    }
+
+    /**
+     * Wrap the block, e.g. read from the local store
+     */
+    public static BlockInfo newBlockInfo(Common.Block block) {
+        return new BlockInfo(block);
     }
 
     public static List<ChaincodeEvent> queryEventsByTransactionID(Channel channel, String transactionID) throws InvalidArgumentException, ProposalException, InvalidProtocolBufferException, FabricQueryException {
@@ -119,6 +342,18 @@ public class SdkTxUtil {
         return getEventsByTransactionInfo(transactionInfo);
     }
 
+    /**
+     * @param peers peers to query in order, null for the channel's ledger query peers in random order
+     */
+    public static List<ChaincodeEvent> queryEventsByTransactionID(Channel channel, Collection<Peer> peers, String transactionID) throws InvalidArgumentException, ProposalException, InvalidProtocolBufferException, FabricQueryException {
+        if (peers == null || peers.isEmpty())
+            return queryEventsByTransactionID(channel, transactionID);
+
+        final TransactionInfo transactionInfo = FabricQueryException.withGuard(()->
+                channel.queryTransactionByID(peers, transactionID, channel.client.getUserContext()));
+        return getEventsByTransactionInfo(transactionInfo);
+    }
+
     public static List<ChaincodeEvent> getEventsByTransactionInfo(TransactionInfo transactionInfo) throws InvalidProtocolBufferException {
         final List<ChaincodeEvent> result = new ArrayList<>();
         final Common.Envelope envelope = transactionInfo.getEnvelope();
@@ -0,0 +1,114 @@
+package com.luxoft.fabric.events;
+
+import org.hyperledger.fabric.sdk.BlockEvent;
+import org.hyperledger.fabric.sdk.TestChannel;
+import org.junit.Test;
+
+import java.lang.ref.WeakReference;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for BlockHub, running against the in-memory channel
+ */
+public class BlockHubTest {
+
+    private static List<Long> blockNumbers(List<BlockEvent> blockEvents) {
+        final List<Long> result = new ArrayList<>();
+        for (BlockEvent blockEvent : blockEvents)
+            result.add(blockEvent.getBlockNumber());
+        return result;
+    }
+
+    private static void deliverBlocks(TestChannel channel, int count) {
+        for (int i = 0; i < count; ++i)
+            channel.deliver(channel.appendBlock(1, 1));
+    }
+
+    @Test
+    public void testRingReplay() throws Exception {
+        final TestChannel channel = new TestChannel("mychannel");
+        final BlockHub hub = new BlockHub(channel, 4);
+        deliverBlocks(channel, 6);
+
+        // late consumer gets the blocks still in the buffer, then the new ones
+        final List<BlockEvent> received = Collections.synchronizedList(new ArrayList<>());
+        hub.addBlockListener(received::add);
+        assertEquals(Arrays.asList(2L, 3L, 4L, 5L), blockNumbers(received));
+        deliverBlocks(channel, 1);
+        assertEquals(Arrays.asList(2L, 3L, 4L, 5L, 6L), blockNumbers(received));
+
+        assertNull(hub.getBlock(2));
+        assertEquals(3, hub.getBlock(3).getBlockNumber());
+        assertEquals(6, hub.getBlock(6).getBlockNumber());
+    }
+
+    @Test
+    public void testSlowConsumerSkips() throws Exception {
+        final TestChannel channel = new TestChannel("mychannel");
+        final BlockHub hub = new BlockHub(channel, 4);
+
+        final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        final List<BlockEvent> received = Collections.synchronizedList(new ArrayList<>());
+        final BlockHub.Consumer consumer = hub.addBlockListener(tasks::add, received::add);
+        deliverBlocks(channel, 6);
+
+        while (!tasks.isEmpty())
+            tasks.poll().run();
+        assertEquals(Arrays.asList(2L, 3L, 4L, 5L), blockNumbers(received));
+        assertEquals(2, consumer.getSkippedBlocks());
+    }
+
+    @Test
+    public void testDuplicatesDropped() throws Exception {
+        final TestChannel channel = new TestChannel("mychannel");
+        final BlockHub hub = new BlockHub(channel, 4);
+        final List<BlockEvent> received = Collections.synchronizedList(new ArrayList<>());
+        hub.addBlockListener(received::add);
+
+        channel.deliver(channel.appendBlock(1, 1));
+        channel.deliver(channel.getLedgerBlock(0));
+        assertEquals(Collections.singletonList(0L), blockNumbers(received));
+        assertEquals(1, hub.getPeerStreamMetrics().getDuplicates());
+    }
+
+    @Test
+    public void testConsumerDetach() throws Exception {
+        final TestChannel channel = new TestChannel("mychannel");
+        final BlockHub hub = BlockHub.of(channel);
+        assertSame(hub, BlockHub.of(channel));
+
+        final List<BlockEvent> received1 = Collections.synchronizedList(new ArrayList<>());
+        final List<BlockEvent> received2 = Collections.synchronizedList(new ArrayList<>());
+        final BlockHub.Consumer consumer1 = hub.addBlockListener(received1::add);
+        hub.addBlockListener(received2::add);
+        deliverBlocks(channel, 2);
+
+        consumer1.close();
+        deliverBlocks(channel, 2);
+        assertEquals(Arrays.asList(0L, 1L), blockNumbers(received1));
+        assertEquals(Arrays.asList(0L, 1L, 2L, 3L), blockNumbers(received2));
+
+        // closed hub is unregistered from the channel and replaced in the registry
+        hub.close();
+        deliverBlocks(channel, 1);
+        assertEquals(Arrays.asList(0L, 1L, 2L, 3L), blockNumbers(received2));
+        assertNotSame(hub, BlockHub.of(channel));
+    }
+
+    @Test
+    public void testSharedHubDoesNotKeepChannel() throws Exception {
+        TestChannel channel = new TestChannel("mychannel");
+        BlockHub.of(channel).addBlockListener((blockEvent) -> { });
+        final WeakReference<TestChannel> channelRef = new WeakReference<>(channel);
+        channel = null;
+
+        for (int i = 0; i < 50 && channelRef.get() != null; ++i) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        assertNull(channelRef.get());
+    }
+}
@@ -0,0 +1,109 @@
+package com.luxoft.fabric.events;
+
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for CheckpointingPersister
+ */
+public class CheckpointingPersisterTest {
+
+    private static final long TIMEOUT_MILLIS = 10000;
+    private static final long HOUR_MILLIS = 3600 * 1000;
+
+    /**
+     * Persister, which records the batches written to it
+     */
+    private static class RecordingPersister implements Persister {
+        final List<Map<String, EventCursor>> writes = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public long getStartBlock(String channelName) {
+            return Long.MAX_VALUE;
+        }
+
+        @Override
+        public void setStartBlock(String channelName, long startBlock) {
+            setCursors(Collections.singletonMap(channelName, new EventCursor(startBlock)));
+        }
+
+        @Override
+        public void setCursors(Map<String, EventCursor> cursors) {
+            writes.add(new HashMap<>(cursors));
+        }
+
+        void await(int count) throws InterruptedException {
+            final long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+            while (writes.size() < count && System.currentTimeMillis() < deadline)
+                Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void testCoalescing() throws Exception {
+        final RecordingPersister recordingPersister = new RecordingPersister();
+        final CheckpointingPersister persister = new CheckpointingPersister(recordingPersister, 3, HOUR_MILLIS);
+
+        persister.setCursor("mychannel", new EventCursor(1, 0, 1));
+        persister.setCursor("mychannel", new EventCursor(1, 1, 0));
+        assertEquals(new EventCursor(1, 1, 0), persister.getCursor("mychannel"));
+        persister.setCursor("mychannel/archive", new EventCursor(1));
+
+        // the third update writes the latest cursors at once
+        recordingPersister.await(1);
+        final Map<String, EventCursor> expected = new HashMap<>();
+        expected.put("mychannel", new EventCursor(1, 1, 0));
+        expected.put("mychannel/archive", new EventCursor(1));
+        assertEquals(Collections.singletonList(expected), recordingPersister.writes);
+
+        // the counter starts over
+        persister.setCursor("mychannel", new EventCursor(2));
+        persister.setCursor("mychannel", new EventCursor(3));
+        Thread.sleep(200);
+        assertEquals(1, recordingPersister.writes.size());
+        persister.setCursor("mychannel", new EventCursor(4));
+        recordingPersister.await(2);
+        assertEquals(Collections.singletonMap("mychannel", new EventCursor(4)), recordingPersister.writes.get(1));
+    }
+
+    @Test
+    public void testDelay() throws Exception {
+        final RecordingPersister recordingPersister = new RecordingPersister();
+        final CheckpointingPersister persister = new CheckpointingPersister(recordingPersister, 1000, 300);
+
+        final long startMillis = System.currentTimeMillis();
+        persister.setCursor("mychannel", new EventCursor(5));
+        persister.setCursor("mychannel", new EventCursor(6));
+        recordingPersister.await(1);
+        assertTrue(System.currentTimeMillis() - startMillis >= 300);
+        assertEquals(Collections.singletonList(Collections.singletonMap("mychannel", new EventCursor(6))), recordingPersister.writes);
+    }
+
+    @Test
+    public void testCloseFlushes() {
+        final RecordingPersister recordingPersister = new RecordingPersister();
+        final CheckpointingPersister persister = new CheckpointingPersister(recordingPersister, 1000, HOUR_MILLIS);
+
+        persister.setCursor("mychannel", new EventCursor(5, 2, 0));
+        assertTrue(recordingPersister.writes.isEmpty());
+
+        persister.close();
+        assertEquals(Collections.singletonList(Collections.singletonMap("mychannel", new EventCursor(5, 2, 0))), recordingPersister.writes);
+    }
+
+    @Test
+    public void testUpdateAfterClose() throws Exception {
+        final RecordingPersister recordingPersister = new RecordingPersister();
+        final CheckpointingPersister persister = new CheckpointingPersister(recordingPersister, 1, 0);
+        persister.close();
+
+        // warned about and not written
+        persister.setCursor("mychannel", new EventCursor(5));
+        persister.setCursors(Collections.singletonMap("mychannel", new EventCursor(6)));
+        Thread.sleep(200);
+        assertTrue(recordingPersister.writes.isEmpty());
+    }
+}
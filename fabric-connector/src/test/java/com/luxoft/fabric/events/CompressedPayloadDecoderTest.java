@@ -0,0 +1,89 @@
+package com.luxoft.fabric.events;
+
+import com.google.protobuf.ByteString;
+import org.apache.commons.compress.compressors.lz4.FramedLZ4CompressorOutputStream;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for CompressedPayloadDecoder and JsonPayloadDecoder
+ */
+public class CompressedPayloadDecoderTest {
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzipOutputStream = new GZIPOutputStream(outputStream)) {
+            gzipOutputStream.write(data);
+        }
+        return outputStream.toByteArray();
+    }
+
+    private static byte[] lz4(byte[] data) throws IOException {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try (FramedLZ4CompressorOutputStream lz4OutputStream = new FramedLZ4CompressorOutputStream(outputStream)) {
+            lz4OutputStream.write(data);
+        }
+        return outputStream.toByteArray();
+    }
+
+    @Test
+    public void testGzipJson() throws Exception {
+        final CompressedPayloadDecoder<Map> decoder = new CompressedPayloadDecoder<>(new JsonPayloadDecoder<>(Map.class));
+        final byte[] json = "{\"key\":\"value\",\"count\":5}".getBytes(StandardCharsets.UTF_8);
+
+        final Map decoded = decoder.decode(ByteString.copyFrom(gzip(json)));
+        assertEquals("value", decoded.get("key"));
+        assertEquals(5, decoded.get("count"));
+    }
+
+    @Test
+    public void testUncompressedPassedAsIs() throws Exception {
+        final CompressedPayloadDecoder<String> decoder = new CompressedPayloadDecoder<>(new StringPayloadDecoder());
+        assertEquals("plain", decoder.decode("plain".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void testLargePayload() throws Exception {
+        final StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 100000; ++i)
+            builder.append(i % 10);
+        final String text = builder.toString();
+
+        final CompressedPayloadDecoder<String> decoder = new CompressedPayloadDecoder<>(new StringPayloadDecoder(),
+                CompressedPayloadDecoder.Compression.GZIP);
+        assertEquals(text, decoder.decode(gzip(text.getBytes(StandardCharsets.UTF_8))));
+        assertEquals("small", decoder.decode(gzip("small".getBytes(StandardCharsets.UTF_8))));
+    }
+
+    @Test
+    public void testLz4() throws Exception {
+        final CompressedPayloadDecoder<String> decoder = new CompressedPayloadDecoder<>(new StringPayloadDecoder());
+        final byte[] compressed = lz4("lz4 payload".getBytes(StandardCharsets.UTF_8));
+
+        assertEquals("lz4 payload", decoder.decode(compressed));
+        assertEquals("lz4 payload", decoder.decode(ByteString.copyFrom(compressed)));
+        final ByteBuffer buffer = ByteBuffer.allocate(compressed.length + 2);
+        buffer.put((byte) 'x').put(compressed).put((byte) 'y').flip().position(1).limit(compressed.length + 1);
+        assertEquals("lz4 payload", decoder.decode(buffer));
+        assertEquals(1, buffer.position());
+    }
+
+    @Test
+    public void testPartialMagicPassedAsIs() throws Exception {
+        final CompressedPayloadDecoder<String> decoder = new CompressedPayloadDecoder<>(new StringPayloadDecoder());
+        // starts with the first two bytes of the LZ4 magic only
+        final byte[] payload = {0x04, 0x22, 'a', 'b'};
+        assertEquals(new String(payload, StandardCharsets.UTF_8), decoder.decode(payload));
+        assertEquals(new String(payload, StandardCharsets.UTF_8), decoder.decode(ByteString.copyFrom(payload)));
+        assertEquals(new String(payload, StandardCharsets.UTF_8), decoder.decode(ByteBuffer.wrap(payload)));
+        assertEquals("\u0004", decoder.decode(new byte[]{0x04}));
+    }
+}
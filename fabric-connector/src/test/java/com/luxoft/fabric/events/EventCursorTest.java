@@ -0,0 +1,47 @@
+package com.luxoft.fabric.events;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for EventCursor
+ */
+public class EventCursorTest {
+
+    @Test
+    public void testEncoding() {
+        final EventCursor[] cursors = {
+                new EventCursor(0),
+                new EventCursor(127, 0, 1),
+                new EventCursor(128, 500, 3),
+                new EventCursor(Long.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE)
+        };
+
+        for (EventCursor cursor : cursors) {
+            final byte[] bytes = cursor.toBytes();
+            assertEquals(cursor.getEncodedSize(), bytes.length);
+            assertEquals(cursor, EventCursor.fromBytes(bytes));
+        }
+
+        assertEquals(3, new EventCursor(100).toBytes().length);
+        assertEquals(6, new EventCursor(1000000, 499, 0).toBytes().length);
+    }
+
+    @Test
+    public void testOrdering() {
+        final EventCursor cursor = new EventCursor(10, 2, 1);
+
+        assertTrue(cursor.isAfter(9, 5, 5));
+        assertTrue(cursor.isAfter(10, 1, 7));
+        assertTrue(cursor.isAfter(10, 2, 0));
+        assertFalse(cursor.isAfter(10, 2, 1));
+        assertFalse(cursor.isAfter(10, 3, 0));
+        assertFalse(cursor.isAfter(11, 0, 0));
+
+        assertTrue(cursor.compareTo(new EventCursor(11)) < 0);
+        assertTrue(cursor.compareTo(new EventCursor(10, 2, 0)) > 0);
+        assertFalse(cursor.isBlockStart());
+        assertTrue(new EventCursor(10).isBlockStart());
+    }
+}
@@ -0,0 +1,99 @@
+package com.luxoft.fabric.events;
+
+import com.google.protobuf.ByteString;
+import org.hyperledger.fabric.protos.peer.ChaincodeEventOuterClass;
+import org.hyperledger.fabric.sdk.ChaincodeEvent;
+import org.hyperledger.fabric.sdk.SdkTxUtil;
+import org.junit.Test;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for EventPublisher
+ */
+public class EventPublisherTest {
+
+    private static ChaincodeEvent event(String txId, String payload) {
+        return SdkTxUtil.newChaincodeEvent(ChaincodeEventOuterClass.ChaincodeEvent.newBuilder()
+                .setChaincodeId("mycc")
+                .setTxId(txId)
+                .setEventName("ev")
+                .setPayload(ByteString.copyFromUtf8(payload))
+                .build().toByteString());
+    }
+
+    private static class TestSubscriber implements Subscriber<EventPublisher.Event<String>> {
+        final List<String> received = new ArrayList<>();
+        Subscription subscription;
+        Throwable error;
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(EventPublisher.Event<String> event) {
+            try {
+                received.add(event.getPayload().get());
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            this.error = error;
+        }
+
+        @Override
+        public void onComplete() {
+        }
+    }
+
+    private static CompletableFuture deliver(EventPublisher<String> publisher, String txId, String payload) {
+        final ChaincodeEvent chaincodeEvent = event(txId, payload);
+        return publisher.onEvent(chaincodeEvent, new DecodedPayload<>(new StringPayloadDecoder(), chaincodeEvent));
+    }
+
+    @Test
+    public void testDemandHoldsBackTracker() {
+        final EventPublisher<String> publisher = new EventPublisher<>();
+        final TestSubscriber subscriber = new TestSubscriber();
+        publisher.subscribe(subscriber);
+
+        final CompletableFuture first = deliver(publisher, "tx1", "data1");
+        assertFalse(first.isDone());
+
+        subscriber.subscription.request(2);
+        assertTrue(first.isDone());
+        assertTrue(deliver(publisher, "tx2", "data2").isDone());
+
+        final CompletableFuture third = deliver(publisher, "tx3", "data3");
+        assertFalse(third.isDone());
+        assertEquals(2, subscriber.received.size());
+
+        // the next subscriber continues from the event not delivered
+        subscriber.subscription.cancel();
+        final TestSubscriber next = new TestSubscriber();
+        publisher.subscribe(next);
+        next.subscription.request(Long.MAX_VALUE);
+        assertTrue(third.isDone());
+        assertEquals("data3", next.received.get(0));
+    }
+
+    @Test
+    public void testSingleSubscriber() {
+        final EventPublisher<String> publisher = new EventPublisher<>();
+        publisher.subscribe(new TestSubscriber());
+        final TestSubscriber second = new TestSubscriber();
+        publisher.subscribe(second);
+        assertTrue(second.error instanceof IllegalStateException);
+    }
+}
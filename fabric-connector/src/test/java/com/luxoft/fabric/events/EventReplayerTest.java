@@ -0,0 +1,154 @@
+package com.luxoft.fabric.events;
+
+import com.luxoft.fabric.events.store.BlockStore;
+import org.hyperledger.fabric.protos.common.Common;
+import org.hyperledger.fabric.sdk.ChaincodeEvent;
+import org.hyperledger.fabric.sdk.TestChannel;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for EventReplayer, running against the in-memory channel
+ */
+public class EventReplayerTest {
+
+    private static class CollectingListener implements OrderingEventTracker.EventListener<String> {
+        final List<String> payloads = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public CompletableFuture<Boolean> filter(ChaincodeEvent chaincodeEvent) {
+            return null;
+        }
+
+        @Override
+        public CompletableFuture<?> onEvent(ChaincodeEvent chaincodeEvent, String eventData) {
+            payloads.add(eventData);
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+
+    private static class CountingDecoder extends StringPayloadDecoder {
+        final AtomicInteger decoded = new AtomicInteger();
+
+        @Override
+        public String decode(ChaincodeEvent chaincodeEvent) throws Exception {
+            decoded.incrementAndGet();
+            return super.decode(chaincodeEvent);
+        }
+    }
+
+    /**
+     * Store, which has no blocks and answers after a random delay, so blocks are fetched out of order
+     */
+    private static class DelayingBlockStore implements BlockStore {
+        @Override
+        public Common.Block getBlock(String channelName, long blockNumber) {
+            try {
+                Thread.sleep(ThreadLocalRandom.current().nextInt(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return null;
+        }
+
+        @Override
+        public boolean containsBlock(String channelName, long blockNumber) {
+            return false;
+        }
+
+        @Override
+        public void putBlock(String channelName, Common.Block block) {
+        }
+    }
+
+    private static List<String> payloads(long fromBlock, long toBlock, int transactions, int events) {
+        final List<String> result = new ArrayList<>();
+        for (long b = fromBlock; b < toBlock; ++b)
+            for (int t = 0; t < transactions; ++t)
+                for (int e = 0; e < events; ++e)
+                    result.add("payload-" + b + "-" + t + "-" + e);
+        return result;
+    }
+
+    @Test
+    public void testParallelReplayOrder() throws Exception {
+        final TestChannel channel = new TestChannel("mychannel");
+        for (int i = 0; i < 30; ++i)
+            channel.appendBlock(2, 2);
+
+        final EventReplayer replayer = new EventReplayer(4, 8, ForkJoinPool.commonPool());
+        replayer.setBlockStore(new DelayingBlockStore());
+        final CollectingListener listener = new CollectingListener();
+        replayer.addEventListener(TestChannel.CHAINCODE_ID, ".*", new StringPayloadDecoder(), listener);
+
+        replayer.replay(channel, 5, 25).get(30, TimeUnit.SECONDS);
+        assertEquals(payloads(5, 25, 2, 2), listener.payloads);
+    }
+
+    @Test
+    public void testSharedDecoding() throws Exception {
+        final TestChannel channel = new TestChannel("mychannel");
+        for (int i = 0; i < 5; ++i)
+            channel.appendBlock(1, 2, i % 2 == 0 ? "even" : "odd");
+
+        final EventReplayer replayer = new EventReplayer();
+        final CountingDecoder decoder = new CountingDecoder();
+        final CollectingListener listener1 = new CollectingListener();
+        final CollectingListener listener2 = new CollectingListener();
+        final CollectingListener evenListener = new CollectingListener();
+        replayer.addEventListener(TestChannel.CHAINCODE_ID, ".*", decoder, listener1);
+        replayer.addEventListener(TestChannel.CHAINCODE_ID, ".*", decoder, listener2);
+        replayer.addEventListener(TestChannel.CHAINCODE_ID, "even", new StringPayloadDecoder(), evenListener);
+
+        replayer.replay(channel, 0, 5).get(30, TimeUnit.SECONDS);
+        assertEquals(payloads(0, 5, 1, 2), listener1.payloads);
+        assertEquals(payloads(0, 5, 1, 2), listener2.payloads);
+        final List<String> expected = new ArrayList<>();
+        for (long b = 0; b < 5; b += 2)
+            expected.addAll(payloads(b, b + 1, 1, 2));
+        assertEquals(expected, evenListener.payloads);
+        // events are decoded once for the listeners sharing the decoder
+        assertEquals(10, decoder.decoded.get());
+    }
+
+    @Test
+    public void testLongRange() throws Exception {
+        final int blocks = 20000;
+        final TestChannel channel = new TestChannel("mychannel");
+        for (int i = 0; i < blocks; ++i)
+            channel.appendBlock(1, 1);
+
+        // the first event holds the delivery until all the blocks are fetched and decoded
+        final CompletableFuture<Void> firstHandled = new CompletableFuture<>();
+        final EventReplayer replayer = new EventReplayer(4, blocks, Runnable::run);
+        final AtomicInteger received = new AtomicInteger();
+        replayer.addEventListener(TestChannel.CHAINCODE_ID, ".*", new StringPayloadDecoder(), new CollectingListener() {
+            @Override
+            public CompletableFuture<?> onEvent(ChaincodeEvent chaincodeEvent, String eventData) {
+                assertEquals("payload-" + received.getAndIncrement() + "-0-0", eventData);
+                return received.get() == 1 ? firstHandled : CompletableFuture.completedFuture(null);
+            }
+        });
+
+        final CompletableFuture<Void> replayed = replayer.replay(channel, 0, blocks);
+        final long deadline = System.currentTimeMillis() + 30000;
+        while (channel.getBlockQueries() < blocks && System.currentTimeMillis() < deadline)
+            Thread.sleep(20);
+        Thread.sleep(200);
+
+        // the rest of the blocks is delivered in the completing thread, its stack should not grow
+        final Thread completer = new Thread(null, () -> firstHandled.complete(null), "completer", 256 * 1024);
+        completer.start();
+        completer.join();
+        replayed.get(30, TimeUnit.SECONDS);
+        assertEquals(blocks, received.get());
+    }
+}
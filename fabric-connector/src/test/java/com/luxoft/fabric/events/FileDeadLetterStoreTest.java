@@ -0,0 +1,99 @@
+package com.luxoft.fabric.events;
+
+import com.google.protobuf.ByteString;
+import org.hyperledger.fabric.protos.peer.ChaincodeEventOuterClass;
+import org.hyperledger.fabric.sdk.ChaincodeEvent;
+import org.hyperledger.fabric.sdk.SdkTxUtil;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for FileDeadLetterStore
+ */
+public class FileDeadLetterStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static ChaincodeEvent event(String txId, String payload) {
+        return SdkTxUtil.newChaincodeEvent(ChaincodeEventOuterClass.ChaincodeEvent.newBuilder()
+                .setChaincodeId("mycc")
+                .setTxId(txId)
+                .setEventName("ev")
+                .setPayload(ByteString.copyFromUtf8(payload))
+                .build().toByteString());
+    }
+
+    @Test
+    public void testParkAndList() throws Exception {
+        final FileDeadLetterStore store = new FileDeadLetterStore(folder.getRoot().toPath().resolve("dlq"));
+        store.park(new DeadLetter("mychannel", new EventCursor(10, 2, 1), event("tx1", "data1"), "error1"));
+        store.park(new DeadLetter("mychannel/archive", new EventCursor(11), event("tx2", "data2"), "error2"));
+
+        final List<DeadLetter> deadLetters = store.list();
+        assertEquals(2, deadLetters.size());
+        assertEquals("mychannel", deadLetters.get(0).getCheckpointName());
+        assertEquals(new EventCursor(10, 2, 1), deadLetters.get(0).getPosition());
+        assertEquals("error1", deadLetters.get(0).getError());
+        assertEquals("tx1", deadLetters.get(0).getChaincodeEvent().getTxId());
+        assertEquals("data2", new String(deadLetters.get(1).getChaincodeEvent().getPayload(), "UTF-8"));
+    }
+
+    @Test
+    public void testReplayKeepsFailed() throws Exception {
+        final Path path = folder.getRoot().toPath().resolve("dlq");
+        final FileDeadLetterStore store = new FileDeadLetterStore(path, false);
+        for (int i = 0; i < 3; ++i)
+            store.park(new DeadLetter("mychannel", new EventCursor(i), event("tx" + i, "data" + i), "error"));
+
+        final List<String> replayed = new ArrayList<>();
+        final int count = store.replay(new StringPayloadDecoder(), new OrderingEventTracker.EventListener<String>() {
+            @Override
+            public CompletableFuture<Boolean> filter(ChaincodeEvent chaincodeEvent) {
+                return null;
+            }
+
+            @Override
+            public CompletableFuture onEvent(ChaincodeEvent chaincodeEvent, String eventData) {
+                if (eventData.equals("data1"))
+                    throw new IllegalStateException("still failing");
+                replayed.add(eventData);
+                return CompletableFuture.completedFuture(null);
+            }
+        });
+
+        assertEquals(2, count);
+        assertEquals(2, replayed.size());
+        assertEquals(1, store.list().size());
+        assertEquals("tx1", store.list().get(0).getChaincodeEvent().getTxId());
+    }
+
+    @Test(timeout = 10000)
+    public void testParkDuringReplay() throws Exception {
+        final FileDeadLetterStore store = new FileDeadLetterStore(folder.getRoot().toPath().resolve("dlq"), false);
+        store.park(new DeadLetter("mychannel", new EventCursor(1), event("tx1", "data1"), "error"));
+
+        // handler parks the event on another thread, as the tracker does
+        final int count = store.replay((deadLetter) -> CompletableFuture.runAsync(() -> {
+            try {
+                store.park(new DeadLetter("mychannel", new EventCursor(2), event("tx2", "data2"), "error"));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }));
+
+        assertEquals(1, count);
+        assertEquals(1, store.list().size());
+        assertEquals("tx2", store.list().get(0).getChaincodeEvent().getTxId());
+    }
+}
@@ -0,0 +1,113 @@
+package com.luxoft.fabric.events;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for JdbcPersister, using in-memory H2 database
+ */
+public class JdbcPersisterTest {
+
+    private static final AtomicInteger databases = new AtomicInteger();
+
+    private JdbcDataSource dataSource;
+
+    @Before
+    public void setUp() {
+        dataSource = new JdbcDataSource();
+        // database lives while the test keeps a connection or until the JVM exits
+        dataSource.setURL("jdbc:h2:mem:persister" + databases.incrementAndGet() + ";DB_CLOSE_DELAY=-1");
+    }
+
+    /**
+     * Data source, which reports batch update counts as {@link Statement#SUCCESS_NO_INFO}
+     */
+    private static DataSource noInfoDataSource(DataSource dataSource) {
+        return (DataSource) Proxy.newProxyInstance(JdbcPersisterTest.class.getClassLoader(), new Class<?>[]{DataSource.class}, (proxy, method, args) -> {
+            final Object result = invoke(dataSource, method, args);
+            if (!"getConnection".equals(method.getName()))
+                return result;
+
+            final Connection connection = (Connection) result;
+            return Proxy.newProxyInstance(JdbcPersisterTest.class.getClassLoader(), new Class<?>[]{Connection.class}, (proxy1, method1, args1) -> {
+                final Object result1 = invoke(connection, method1, args1);
+                if (!"prepareStatement".equals(method1.getName()))
+                    return result1;
+
+                final PreparedStatement statement = (PreparedStatement) result1;
+                return Proxy.newProxyInstance(JdbcPersisterTest.class.getClassLoader(), new Class<?>[]{PreparedStatement.class}, (proxy2, method2, args2) -> {
+                    final Object result2 = invoke(statement, method2, args2);
+                    if (!"executeBatch".equals(method2.getName()))
+                        return result2;
+
+                    final int[] counts = new int[((int[]) result2).length];
+                    Arrays.fill(counts, Statement.SUCCESS_NO_INFO);
+                    return counts;
+                });
+            });
+        });
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static void testUpsert(JdbcPersister persister) {
+        assertEquals(Long.MAX_VALUE, persister.getStartBlock("mychannel"));
+
+        persister.setStartBlock("mychannel", 10);
+        persister.setStartBlock("mychannel", 11);
+        assertEquals(11, persister.getStartBlock("mychannel"));
+
+        final Map<String, Long> startBlocks = new HashMap<>();
+        startBlocks.put("mychannel", 12L);
+        startBlocks.put("otherchannel", 5L);
+        persister.setStartBlocks(startBlocks);
+        assertEquals(12, persister.getStartBlock("mychannel"));
+        assertEquals(5, persister.getStartBlock("otherchannel"));
+    }
+
+    @Test
+    public void testUpsert() throws Exception {
+        final JdbcPersister persister = new JdbcPersister(dataSource);
+        persister.createTable();
+        testUpsert(persister);
+    }
+
+    @Test
+    public void testUpsertWithoutUpdateCounts() throws Exception {
+        final JdbcPersister persister = new JdbcPersister(noInfoDataSource(dataSource), "checkpoints");
+        persister.createTable();
+        testUpsert(persister);
+    }
+
+    @Test
+    public void testCursors() throws Exception {
+        final JdbcPersister persister = new JdbcPersister(dataSource);
+        persister.createTable();
+
+        // block-level granularity
+        persister.setCursor("mychannel", new EventCursor(10));
+        persister.setCursor("mychannel", new EventCursor(10, 2, 0));
+        assertEquals(new EventCursor(10), persister.getCursor("mychannel"));
+    }
+}
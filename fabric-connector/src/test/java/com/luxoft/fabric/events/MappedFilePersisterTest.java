@@ -0,0 +1,108 @@
+package com.luxoft.fabric.events;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for MappedFilePersister
+ */
+public class MappedFilePersisterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testUnknownChannel() throws Exception {
+        try (MappedFilePersister persister = new MappedFilePersister(folder.newFile().toPath())) {
+            assertEquals(Long.MAX_VALUE, persister.getStartBlock("mychannel"));
+        }
+    }
+
+    @Test
+    public void testReopen() throws Exception {
+        final File file = folder.newFile();
+        try (MappedFilePersister persister = new MappedFilePersister(file.toPath())) {
+            persister.setStartBlock("mychannel", 10);
+            persister.setStartBlock("mychannel", 11);
+
+            final Map<String, Long> startBlocks = new HashMap<>();
+            startBlocks.put("mychannel", 12L);
+            startBlocks.put("otherchannel", 5L);
+            persister.setStartBlocks(startBlocks);
+        }
+
+        try (MappedFilePersister persister = new MappedFilePersister(file.toPath())) {
+            assertEquals(12, persister.getStartBlock("mychannel"));
+            assertEquals(5, persister.getStartBlock("otherchannel"));
+        }
+    }
+
+    @Test
+    public void testCursors() throws Exception {
+        final File file = folder.newFile();
+        try (MappedFilePersister persister = new MappedFilePersister(file.toPath())) {
+            persister.setStartBlock("mychannel", 10);
+            persister.setCursor("mychannel", new EventCursor(10, 3, 1));
+            persister.setCursor("mychannel/archive", new EventCursor(7));
+        }
+
+        try (MappedFilePersister persister = new MappedFilePersister(file.toPath())) {
+            assertEquals(new EventCursor(10, 3, 1), persister.getCursor("mychannel"));
+            assertEquals(10, persister.getStartBlock("mychannel"));
+            assertEquals(new EventCursor(7), persister.getCursor("mychannel/archive"));
+            assertNull(persister.getCursor("otherchannel"));
+        }
+    }
+
+    @Test
+    public void testTornWriteFallsBackToPreviousSlot() throws Exception {
+        final File file = folder.newFile();
+        try (MappedFilePersister persister = new MappedFilePersister(file.toPath(), 256, 1)) {
+            persister.setStartBlock("mychannel", 10); // slot 1
+            persister.setStartBlock("mychannel", 11); // slot 0
+        }
+
+        // damage the payload of the most recent slot
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(30);
+            raf.write(0xff);
+        }
+
+        try (MappedFilePersister persister = new MappedFilePersister(file.toPath(), 256, 1)) {
+            assertEquals(10, persister.getStartBlock("mychannel"));
+        }
+    }
+
+    @Test
+    public void testSlotOverflowKeepsState() throws Exception {
+        final File file = folder.newFile();
+        try (MappedFilePersister persister = new MappedFilePersister(file.toPath(), 64, 0)) {
+            persister.setStartBlock("channel-1", 10);
+            persister.setStartBlock("channel-2", 20);
+            try {
+                persister.setStartBlock("channel-3", 30);
+                fail("Slot overflow expected");
+            } catch (IllegalStateException e) {
+                // expected
+            }
+            assertNull(persister.getCursor("channel-3"));
+
+            // persister is still usable
+            persister.setStartBlock("channel-1", 11);
+        }
+
+        try (MappedFilePersister persister = new MappedFilePersister(file.toPath(), 64, 0)) {
+            assertEquals(11, persister.getStartBlock("channel-1"));
+            assertEquals(20, persister.getStartBlock("channel-2"));
+            assertNull(persister.getCursor("channel-3"));
+        }
+    }
+}
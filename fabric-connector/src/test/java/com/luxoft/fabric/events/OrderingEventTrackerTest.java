@@ -0,0 +1,519 @@
+package com.luxoft.fabric.events;
+
+import com.luxoft.fabric.events.store.BlockStore;
+import org.hyperledger.fabric.protos.common.Common;
+import org.hyperledger.fabric.sdk.ChaincodeEvent;
+import org.hyperledger.fabric.sdk.TestChannel;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for OrderingEventTracker, running against the in-memory channel
+ */
+public class OrderingEventTrackerTest {
+
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    private static class MemoryPersister implements Persister {
+        final Map<String, EventCursor> cursors = new ConcurrentHashMap<>();
+
+        @Override
+        public long getStartBlock(String channelName) {
+            final EventCursor cursor = cursors.get(channelName);
+            return cursor != null ? cursor.getBlockNumber() : Long.MAX_VALUE;
+        }
+
+        @Override
+        public void setStartBlock(String channelName, long startBlock) {
+            cursors.put(channelName, new EventCursor(startBlock));
+        }
+
+        @Override
+        public EventCursor getCursor(String name) {
+            return cursors.get(name);
+        }
+
+        @Override
+        public void setCursor(String name, EventCursor cursor) {
+            cursors.put(name, cursor);
+        }
+    }
+
+    private static class CollectingListener implements OrderingEventTracker.EventListener<String> {
+        final List<String> payloads = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public CompletableFuture<Boolean> filter(ChaincodeEvent chaincodeEvent) {
+            return null;
+        }
+
+        @Override
+        public CompletableFuture onEvent(ChaincodeEvent chaincodeEvent, String eventData) {
+            payloads.add(eventData);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        void await(int count) throws InterruptedException {
+            final long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+            while (payloads.size() < count && System.currentTimeMillis() < deadline)
+                Thread.sleep(20);
+            // let the extra events, if any, arrive
+            Thread.sleep(200);
+        }
+    }
+
+    private static List<String> payloads(long fromBlock, long toBlock, int transactions, int events) {
+        final List<String> result = new ArrayList<>();
+        for (long b = fromBlock; b < toBlock; ++b)
+            for (int t = 0; t < transactions; ++t)
+                for (int e = 0; e < events; ++e)
+                    result.add("payload-" + b + "-" + t + "-" + e);
+        return result;
+    }
+
+    private static OrderingEventTracker startTracker(TestChannel channel, Persister persister, CollectingListener listener) throws Exception {
+        final OrderingEventTracker tracker = new OrderingEventTracker(persister);
+        tracker.addEventListener(TestChannel.CHAINCODE_ID, ".*", new StringPayloadDecoder(), listener);
+        tracker.configureChannel(channel);
+        tracker.enableEventsDelivery();
+        tracker.connectChannel(channel);
+        return tracker;
+    }
+
+    @Test
+    public void testResumeMidBlock() throws Exception {
+        final TestChannel channel = new TestChannel("mychannel");
+        for (int i = 0; i < 5; ++i)
+            channel.appendBlock(2, 2);
+
+        final MemoryPersister persister = new MemoryPersister();
+        persister.setCursor("mychannel", new EventCursor(3, 1, 1));
+        final CollectingListener listener = new CollectingListener();
+        startTracker(channel, persister, listener);
+
+        final List<String> expected = new ArrayList<>();
+        expected.add("payload-3-1-1");
+        expected.addAll(payloads(4, 5, 2, 2));
+        listener.await(expected.size());
+        assertEquals(expected, listener.payloads);
+        assertEquals(new EventCursor(5), persister.getCursor("mychannel"));
+    }
+
+    @Test
+    public void testResumeAfterRollback() throws Exception {
+        final TestChannel channel = new TestChannel("mychannel");
+        for (int i = 0; i < 2; ++i)
+            channel.appendBlock(2, 2);
+
+        // cursor is ahead of the ledger, restored from the backup
+        final MemoryPersister persister = new MemoryPersister();
+        persister.setCursor("mychannel", new EventCursor(3, 1, 1));
+        final CollectingListener listener = new CollectingListener();
+        startTracker(channel, persister, listener);
+
+        final long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (!new EventCursor(2).equals(persister.getCursor("mychannel")) && System.currentTimeMillis() < deadline)
+            Thread.sleep(20);
+        assertEquals(new EventCursor(2), persister.getCursor("mychannel"));
+
+        // new blocks 2 and 3 are processed from the beginning
+        channel.deliver(channel.appendBlock(2, 2));
+        channel.deliver(channel.appendBlock(2, 2));
+
+        final List<String> expected = payloads(2, 4, 2, 2);
+        listener.await(expected.size());
+        assertEquals(expected, listener.payloads);
+        assertEquals(new EventCursor(4), persister.getCursor("mychannel"));
+    }
+
+    @Test
+    public void testLedgerRollback() throws Exception {
+        checkLedgerRollback(false);
+    }
+
+    @Test
+    public void testLedgerRollbackWithBlockHub() throws Exception {
+        checkLedgerRollback(true);
+    }
+
+    private void checkLedgerRollback(boolean sharedBlockHub) throws Exception {
+        final TestChannel channel = new TestChannel("mychannel");
+        channel.appendBlock(1, 1);
+
+        final MemoryPersister persister = new MemoryPersister();
+        final OrderingEventTracker tracker = new OrderingEventTracker(persister);
+        tracker.setSharedBlockHub(sharedBlockHub);
+        final CollectingListener listener = new CollectingListener();
+        tracker.addEventListener(TestChannel.CHAINCODE_ID, ".*", new StringPayloadDecoder(), listener);
+        tracker.configureChannel(channel);
+        tracker.enableEventsDelivery();
+        tracker.connectChannel(channel);
+
+        for (int i = 0; i < 5; ++i)
+            channel.deliver(channel.appendBlock(1, 1));
+        awaitCursor(persister, "mychannel", new EventCursor(6));
+
+        // ledger is restored from the backup at the height 3, the block ahead of it makes the tracker notice that
+        channel.truncate(3);
+        channel.deliver(TestChannel.newBlock("mychannel", 7, 1, 1, "event"));
+        final PeerStreamMetrics metrics = tracker.getPeerStreamMetrics(channel);
+        final long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (metrics.getHeight() != 3 && System.currentTimeMillis() < deadline)
+            Thread.sleep(20);
+        assertEquals(3, metrics.getHeight());
+
+        // blocks 3..5 of the new chain are not taken for copies of the old ones
+        for (int i = 0; i < 4; ++i)
+            channel.deliver(channel.appendBlock(1, 1));
+
+        final List<String> expected = payloads(1, 6, 1, 1);
+        expected.addAll(payloads(3, 7, 1, 1));
+        listener.await(expected.size());
+        assertEquals(expected, listener.payloads);
+        awaitCursor(persister, "mychannel", new EventCursor(7));
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        final TestChannel channel = new TestChannel("mychannel");
+        channel.appendBlock(1, 1);
+
+        final MemoryPersister memoryPersister = new MemoryPersister();
+        final CheckpointingPersister persister = new CheckpointingPersister(memoryPersister, 1000, 3600 * 1000);
+        final CollectingListener listener = new CollectingListener();
+        final OrderingEventTracker tracker = startTracker(channel, persister, listener);
+        channel.deliver(channel.appendBlock(1, 1));
+        awaitCursor(persister, "mychannel", new EventCursor(2));
+        assertNull(memoryPersister.getCursor("mychannel"));
+
+        // pending cursor is written on close
+        tracker.close();
+        assertEquals(new EventCursor(2), memoryPersister.getCursor("mychannel"));
+
+        // the tracker is not listening the channel anymore
+        channel.deliver(channel.appendBlock(1, 1));
+        listener.await(2);
+        assertEquals(payloads(1, 2, 1, 1), listener.payloads);
+        assertEquals(new EventCursor(2), memoryPersister.getCursor("mychannel"));
+    }
+
+    @Test
+    public void testHaltedGroupReleasesBlocks() throws Exception {
+        final TestChannel channel = new TestChannel("mychannel");
+        channel.appendBlock(1, 1);
+
+        final MemoryPersister persister = new MemoryPersister();
+        final OrderingEventTracker tracker = new OrderingEventTracker(persister);
+        tracker.addEventListener(TestChannel.CHAINCODE_ID, ".*", new StringPayloadDecoder(), new CollectingListener() {
+            @Override
+            public CompletableFuture onEvent(ChaincodeEvent chaincodeEvent, String eventData) {
+                throw new IllegalStateException("Listener failed");
+            }
+        }, FailurePolicy.halt());
+        final CollectingListener archiveListener = new CollectingListener();
+        tracker.addListenerGroup("archive", null).addEventListener(TestChannel.CHAINCODE_ID, ".*", new StringPayloadDecoder(), archiveListener);
+        tracker.configureChannel(channel);
+        tracker.enableEventsDelivery();
+        tracker.connectChannel(channel);
+
+        for (int i = 0; i < 5; ++i)
+            channel.deliver(channel.appendBlock(1, 1));
+
+        archiveListener.await(5);
+        assertEquals(payloads(1, 6, 1, 1), archiveListener.payloads);
+        assertEquals(new EventCursor(1), persister.getCursor("mychannel"));
+        assertEquals(new EventCursor(6), persister.getCursor("mychannel/archive"));
+        assertEquals(0, tracker.getBufferedBlocks(channel));
+    }
+
+    @Test
+    public void testBlocksStoredOffDeliveryThread() throws Exception {
+        final TestChannel channel = new TestChannel("mychannel");
+        channel.appendBlock(1, 1);
+
+        final Map<Long, Thread> storingThreads = new ConcurrentHashMap<>();
+        final MemoryPersister persister = new MemoryPersister();
+        final OrderingEventTracker tracker = new OrderingEventTracker(persister);
+        tracker.setBlockStore(new BlockStore() {
+            @Override
+            public Common.Block getBlock(String channelName, long blockNumber) {
+                return null;
+            }
+
+            @Override
+            public boolean containsBlock(String channelName, long blockNumber) {
+                return storingThreads.containsKey(blockNumber);
+            }
+
+            @Override
+            public void putBlock(String channelName, Common.Block block) {
+                storingThreads.put(block.getHeader().getNumber(), Thread.currentThread());
+            }
+        });
+        final CollectingListener listener = new CollectingListener();
+        tracker.addEventListener(TestChannel.CHAINCODE_ID, ".*", new StringPayloadDecoder(), listener);
+        tracker.configureChannel(channel);
+        tracker.enableEventsDelivery();
+        tracker.connectChannel(channel);
+
+        for (int i = 0; i < 3; ++i)
+            channel.deliver(channel.appendBlock(1, 1));
+
+        listener.await(3);
+        assertEquals(payloads(1, 4, 1, 1), listener.payloads);
+        // blocks are stored asynchronously
+        final long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (storingThreads.size() < 3 && System.currentTimeMillis() < deadline)
+            Thread.sleep(20);
+        assertEquals(new HashSet<>(Arrays.asList(1L, 2L, 3L)), storingThreads.keySet());
+        assertFalse(storingThreads.containsValue(Thread.currentThread()));
+    }
+
+    @Test
+    public void testConcurrentDelivery() throws Exception {
+        final TestChannel channel = new TestChannel("mychannel");
+        channel.appendBlock(1, 1);
+
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger overlaps = new AtomicInteger();
+        final CollectingListener listener = new CollectingListener() {
+            @Override
+            public CompletableFuture onEvent(ChaincodeEvent chaincodeEvent, String eventData) {
+                if (running.incrementAndGet() > 1)
+                    overlaps.incrementAndGet();
+                try {
+                    return super.onEvent(chaincodeEvent, eventData);
+                } finally {
+                    running.decrementAndGet();
+                }
+            }
+        };
+        final MemoryPersister persister = new MemoryPersister();
+        startTracker(channel, persister, listener);
+
+        // blocks arrive from several delivery threads, out of order
+        final List<Common.Block> blocks = new ArrayList<>();
+        for (int i = 0; i < 40; ++i)
+            blocks.add(channel.appendBlock(1, 2));
+        Collections.reverse(blocks);
+        final List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; ++t) {
+            final int first = t;
+            threads.add(new Thread(() -> {
+                for (int i = first; i < blocks.size(); i += 4)
+                    channel.deliver(blocks.get(i));
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads)
+            thread.join();
+
+        listener.await(80);
+        assertEquals(payloads(1, 41, 1, 2), listener.payloads);
+        assertEquals(0, overlaps.get());
+        awaitCursor(persister, "mychannel", new EventCursor(41));
+    }
+
+    /**
+     * Listener, which holds handling of the first event until released
+     */
+    private static class HoldingListener extends CollectingListener {
+        final CompletableFuture<Void> released = new CompletableFuture<>();
+
+        @Override
+        public CompletableFuture onEvent(ChaincodeEvent chaincodeEvent, String eventData) {
+            super.onEvent(chaincodeEvent, eventData);
+            return payloads.size() == 1 ? released : CompletableFuture.completedFuture(null);
+        }
+    }
+
+    private static void awaitCursor(Persister persister, String name, EventCursor cursor) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (!cursor.equals(persister.getCursor(name)) && System.currentTimeMillis() < deadline)
+            Thread.sleep(20);
+        assertEquals(cursor, persister.getCursor(name));
+    }
+
+    @Test
+    public void testMemoryBudget() throws Exception {
+        final TestChannel channel = new TestChannel("mychannel");
+        channel.appendBlock(1, 1);
+
+        final MemoryPersister persister = new MemoryPersister();
+        final OrderingEventTracker tracker = new OrderingEventTracker(persister);
+        tracker.setBlockBufferLimits(2, Long.MAX_VALUE);
+        final HoldingListener listener = new HoldingListener();
+        tracker.addEventListener(TestChannel.CHAINCODE_ID, ".*", new StringPayloadDecoder(), listener);
+        tracker.configureChannel(channel);
+        tracker.enableEventsDelivery();
+        tracker.connectChannel(channel);
+
+        // block 1 is held by the listener, the blocks behind it are over the budget
+        for (int i = 0; i < 7; ++i)
+            channel.deliver(channel.appendBlock(1, 1));
+        listener.await(1);
+        assertEquals(payloads(1, 2, 1, 1), listener.payloads);
+        assertTrue(tracker.getBufferedBlocks(channel) <= 2);
+        assertTrue(tracker.getEvictedBlocks(channel) >= 5);
+
+        // evicted blocks are downloaded again
+        final int blockQueries = channel.getBlockQueries();
+        listener.released.complete(null);
+        listener.await(7);
+        assertEquals(payloads(1, 8, 1, 1), listener.payloads);
+        assertTrue(channel.getBlockQueries() > blockQueries);
+        awaitCursor(persister, "mychannel", new EventCursor(8));
+        assertEquals(0, tracker.getBufferedBlocks(channel));
+        assertEquals(0, tracker.getBufferedBytes(channel));
+    }
+
+    @Test
+    public void testGroupCursors() throws Exception {
+        final TestChannel channel = new TestChannel("mychannel");
+        for (int i = 0; i < 6; ++i)
+            channel.appendBlock(1, 1);
+
+        // each group resumes from its own cursor
+        final MemoryPersister persister = new MemoryPersister();
+        persister.setCursor("mychannel", new EventCursor(5));
+        persister.setCursor("mychannel/archive", new EventCursor(2));
+        final OrderingEventTracker tracker = new OrderingEventTracker(persister);
+        final CollectingListener listener = new CollectingListener();
+        tracker.addEventListener(TestChannel.CHAINCODE_ID, ".*", new StringPayloadDecoder(), listener);
+        final HoldingListener archiveListener = new HoldingListener();
+        tracker.addListenerGroup("archive", null).addEventListener(TestChannel.CHAINCODE_ID, ".*", new StringPayloadDecoder(), archiveListener);
+        tracker.configureChannel(channel);
+        tracker.enableEventsDelivery();
+        tracker.connectChannel(channel);
+
+        // slow group doesn't hold back the default one
+        for (int i = 0; i < 2; ++i)
+            channel.deliver(channel.appendBlock(1, 1));
+        listener.await(3);
+        assertEquals(payloads(5, 8, 1, 1), listener.payloads);
+        awaitCursor(persister, "mychannel", new EventCursor(8));
+        assertEquals(payloads(2, 3, 1, 1), archiveListener.payloads);
+        assertEquals(new EventCursor(2), persister.getCursor("mychannel/archive"));
+
+        archiveListener.released.complete(null);
+        archiveListener.await(6);
+        assertEquals(payloads(2, 8, 1, 1), archiveListener.payloads);
+        awaitCursor(persister, "mychannel/archive", new EventCursor(8));
+        assertEquals(payloads(5, 8, 1, 1), listener.payloads);
+    }
+
+    @Test
+    public void testGroupExecutor() throws Exception {
+        final TestChannel channel = new TestChannel("mychannel");
+        for (int i = 0; i < 4; ++i)
+            channel.appendBlock(1, 1);
+
+        final MemoryPersister persister = new MemoryPersister();
+        persister.setCursor("mychannel", new EventCursor(3));
+        final OrderingEventTracker tracker = new OrderingEventTracker(persister);
+        final CollectingListener listener = new CollectingListener();
+        tracker.addEventListener(TestChannel.CHAINCODE_ID, ".*", new StringPayloadDecoder(), listener);
+        final ExecutorService auditExecutor = Executors.newSingleThreadExecutor((r) -> new Thread(r, "audit-delivery"));
+        final Set<String> auditThreads = ConcurrentHashMap.newKeySet();
+        final CollectingListener auditListener = new CollectingListener() {
+            @Override
+            public CompletableFuture onEvent(ChaincodeEvent chaincodeEvent, String eventData) {
+                auditThreads.add(Thread.currentThread().getName());
+                return super.onEvent(chaincodeEvent, eventData);
+            }
+        };
+        tracker.addListenerGroup("audit", auditExecutor).addEventListener(TestChannel.CHAINCODE_ID, ".*", new StringPayloadDecoder(), auditListener);
+        tracker.configureChannel(channel);
+        tracker.enableEventsDelivery();
+        tracker.connectChannel(channel);
+
+        for (int i = 0; i < 3; ++i)
+            channel.deliver(channel.appendBlock(1, 1));
+
+        // group without the saved cursor starts at the chain head, and is delivered on its executor
+        auditListener.await(3);
+        assertEquals(payloads(4, 7, 1, 1), auditListener.payloads);
+        assertEquals(Collections.singleton("audit-delivery"), auditThreads);
+        awaitCursor(persister, "mychannel/audit", new EventCursor(7));
+        listener.await(4);
+        assertEquals(payloads(3, 7, 1, 1), listener.payloads);
+
+        tracker.close();
+        auditExecutor.shutdown();
+    }
+
+    @Test
+    public void testFailurePolicies() throws Exception {
+        final TestChannel channel = new TestChannel("mychannel");
+        channel.appendBlock(1, 1);
+
+        final MemoryPersister persister = new MemoryPersister();
+        final OrderingEventTracker tracker = new OrderingEventTracker(persister);
+        final List<DeadLetter> deadLetters = Collections.synchronizedList(new ArrayList<>());
+        // skipped by the default policy
+        final CollectingListener skippingListener = new CollectingListener() {
+            @Override
+            public CompletableFuture onEvent(ChaincodeEvent chaincodeEvent, String eventData) {
+                if (eventData.equals("payload-1-0-0"))
+                    throw new IllegalStateException("Listener failed");
+                return super.onEvent(chaincodeEvent, eventData);
+            }
+        };
+        tracker.addEventListener(TestChannel.CHAINCODE_ID, ".*", new StringPayloadDecoder(), skippingListener);
+        final CollectingListener parkingListener = new CollectingListener() {
+            @Override
+            public CompletableFuture onEvent(ChaincodeEvent chaincodeEvent, String eventData) {
+                if (eventData.equals("payload-2-0-0")) {
+                    final CompletableFuture<Void> failed = new CompletableFuture<>();
+                    failed.completeExceptionally(new IllegalStateException("Listener failed"));
+                    return failed;
+                }
+                return super.onEvent(chaincodeEvent, eventData);
+            }
+        };
+        tracker.addEventListener(TestChannel.CHAINCODE_ID, ".*", new StringPayloadDecoder(), parkingListener,
+                FailurePolicy.deadLetter(deadLetters::add));
+        // succeeds on the last retry, so doesn't halt the channel
+        final AtomicInteger attempts = new AtomicInteger();
+        final CollectingListener retryingListener = new CollectingListener() {
+            @Override
+            public CompletableFuture onEvent(ChaincodeEvent chaincodeEvent, String eventData) {
+                if (eventData.equals("payload-3-0-0") && attempts.incrementAndGet() <= 2)
+                    throw new IllegalStateException("Listener failed");
+                return super.onEvent(chaincodeEvent, eventData);
+            }
+        };
+        tracker.addEventListener(TestChannel.CHAINCODE_ID, ".*", new StringPayloadDecoder(), retryingListener,
+                FailurePolicy.halt().withRetries(2, 10, 10));
+        tracker.configureChannel(channel);
+        tracker.enableEventsDelivery();
+        tracker.connectChannel(channel);
+
+        for (int i = 0; i < 3; ++i)
+            channel.deliver(channel.appendBlock(1, 1));
+
+        awaitCursor(persister, "mychannel", new EventCursor(4));
+        assertEquals(Arrays.asList("payload-2-0-0", "payload-3-0-0"), skippingListener.payloads);
+        assertEquals(Arrays.asList("payload-1-0-0", "payload-3-0-0"), parkingListener.payloads);
+        assertEquals(payloads(1, 4, 1, 1), retryingListener.payloads);
+
+        assertEquals(1, deadLetters.size());
+        assertEquals("mychannel", deadLetters.get(0).getCheckpointName());
+        assertEquals(2, deadLetters.get(0).getPosition().getBlockNumber());
+        assertEquals("tx-2-0", deadLetters.get(0).getChaincodeEvent().getTxId());
+
+        final HandlerMetrics metrics = tracker.getHandlerMetrics();
+        assertEquals(1, metrics.getSkipped());
+        assertEquals(1, metrics.getDeadLettered());
+        assertEquals(2, metrics.getRetried());
+        assertEquals(0, metrics.getHalted());
+    }
+}
@@ -0,0 +1,76 @@
+package com.luxoft.fabric.events;
+
+import org.hyperledger.fabric.sdk.ChaincodeEvent;
+import org.hyperledger.fabric.sdk.SdkTxUtil;
+import org.hyperledger.fabric.sdk.TestChannel;
+import com.luxoft.fabric.utils.TxUtils;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for PayloadDecoderRegistry
+ */
+public class PayloadDecoderRegistryTest {
+
+    private static ChaincodeEvent newEvent(String eventName) {
+        return TxUtils.getBlockEvents(SdkTxUtil.newBlockInfo(TestChannel.newBlock("mychannel", 0, 1, 1, eventName))).next();
+    }
+
+    @Test
+    public void testDecoderLookup() {
+        final StringPayloadDecoder exact = new StringPayloadDecoder();
+        final StringPayloadDecoder first = new StringPayloadDecoder(StandardCharsets.US_ASCII);
+        final StringPayloadDecoder second = new StringPayloadDecoder(StandardCharsets.ISO_8859_1);
+        final StringPayloadDecoder fallback = new StringPayloadDecoder(StandardCharsets.UTF_16);
+        final PayloadDecoderRegistry registry = new PayloadDecoderRegistry()
+                .register(Pattern.compile("order.*"), first)
+                .register(Pattern.compile("order-.*"), second)
+                .register("order-created", exact);
+
+        // exact names win over patterns, patterns are checked in registration order
+        assertSame(exact, registry.getDecoder("order-created"));
+        assertSame(first, registry.getDecoder("order-updated"));
+        try {
+            registry.getDecoder("payment");
+            fail("No decoder expected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        registry.setDefault(fallback);
+        assertSame(fallback, registry.getDecoder("payment"));
+    }
+
+    @Test
+    public void testDecodeEvent() throws Exception {
+        final PayloadDecoderRegistry registry = new PayloadDecoderRegistry()
+                .register("created", new StringPayloadDecoder())
+                .register("length", new PayloadDecoder<Integer>() {
+                    @Override
+                    public Integer decode(byte[] encodedPayload) {
+                        return encodedPayload.length;
+                    }
+
+                    @Override
+                    public Class<Integer> getTargetClass() {
+                        return Integer.class;
+                    }
+                });
+
+        assertEquals("payload-0-0-0", registry.decode(newEvent("created")));
+        assertEquals(13, registry.decode(newEvent("length")));
+        try {
+            registry.decode("payload".getBytes(StandardCharsets.UTF_8));
+            fail("Event name should be required");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        registry.setDefault(new StringPayloadDecoder());
+        assertEquals("payload", registry.decode("payload".getBytes(StandardCharsets.UTF_8)));
+    }
+}
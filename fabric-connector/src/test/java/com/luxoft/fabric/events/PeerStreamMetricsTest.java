@@ -0,0 +1,67 @@
+package com.luxoft.fabric.events;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for PeerStreamMetrics
+ */
+public class PeerStreamMetricsTest {
+
+    @Test
+    public void testFirstCopyWins() {
+        final PeerStreamMetrics metrics = new PeerStreamMetrics();
+        for (long n = 0; n < 10; ++n)
+            assertTrue(metrics.onBlock("peer0", n));
+        for (long n = 0; n < 7; ++n)
+            assertFalse(metrics.onBlock("peer1", n));
+
+        assertEquals(10, metrics.getHeight());
+        assertEquals(0, metrics.getLag("peer0"));
+        assertEquals(3, metrics.getLag("peer1"));
+        assertEquals(7, metrics.getDuplicates());
+
+        // peer1 overtakes
+        for (long n = 7; n < 12; ++n)
+            assertEquals(n >= 10, metrics.onBlock("peer1", n));
+        assertEquals(2, metrics.getLag("peer0"));
+        assertEquals(0, metrics.getLag("peer1"));
+    }
+
+    @Test
+    public void testWindow() {
+        final PeerStreamMetrics metrics = new PeerStreamMetrics();
+        assertTrue(metrics.onBlock("peer0", 5));
+        assertTrue(metrics.onBlock("peer1", 3));
+        assertTrue(metrics.onBlock("peer0", 100000));
+        // far behind the fastest stream
+        assertFalse(metrics.onBlock("peer1", 4));
+        // slot of the block 5 is reused
+        assertTrue(metrics.onBlock("peer1", 100000 - 4096 + 5));
+        assertTrue(metrics.onBlock("peer0", 100000 + 4096 + 5));
+        assertFalse(metrics.onBlock("peer1", 100000 + 5));
+    }
+
+    @Test
+    public void testRewind() {
+        final PeerStreamMetrics metrics = new PeerStreamMetrics();
+        for (long n = 0; n < 10; ++n)
+            assertTrue(metrics.onBlock("peer0", n));
+        assertFalse(metrics.onBlock("peer1", 0));
+
+        // ledger is rolled back to the height 6
+        metrics.rewind(6);
+        assertEquals(6, metrics.getHeight());
+        assertEquals(0, metrics.getLag("peer0"));
+        assertEquals(5, metrics.getLag("peer1"));
+
+        assertFalse(metrics.onBlock("peer1", 5));
+        for (long n = 6; n < 12; ++n) {
+            assertTrue(metrics.onBlock("peer0", n));
+            assertFalse(metrics.onBlock("peer1", n));
+        }
+        assertEquals(12, metrics.getHeight());
+    }
+
+}
@@ -0,0 +1,56 @@
+package com.luxoft.fabric.events;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the default cursor methods of Persister
+ */
+public class PersisterTest {
+
+    /**
+     * Block-level persister, which relies on the default cursor methods
+     */
+    private static class StartBlockPersister implements Persister {
+        final Map<String, Long> startBlocks = new HashMap<>();
+
+        @Override
+        public long getStartBlock(String channelName) {
+            return startBlocks.getOrDefault(channelName, Long.MAX_VALUE);
+        }
+
+        @Override
+        public void setStartBlock(String channelName, long startBlock) {
+            startBlocks.put(channelName, startBlock);
+        }
+    }
+
+    @Test
+    public void testGetCursor() {
+        final StartBlockPersister persister = new StartBlockPersister();
+        assertNull(persister.getCursor("mychannel"));
+
+        persister.setStartBlock("mychannel", 0);
+        assertNull(persister.getCursor("mychannel"));
+
+        persister.setStartBlock("mychannel", -1);
+        assertNull(persister.getCursor("mychannel"));
+
+        persister.setStartBlock("mychannel", 5);
+        assertEquals(new EventCursor(5), persister.getCursor("mychannel"));
+    }
+
+    @Test
+    public void testSetCursor() {
+        final StartBlockPersister persister = new StartBlockPersister();
+        persister.setCursor("mychannel", new EventCursor(5));
+        // cursor inside the block is ignored
+        persister.setCursor("mychannel", new EventCursor(5, 1, 0));
+        assertEquals(5, persister.getStartBlock("mychannel"));
+        assertEquals(new EventCursor(5), persister.getCursor("mychannel"));
+    }
+}
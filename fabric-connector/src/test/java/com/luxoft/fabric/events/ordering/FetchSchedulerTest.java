@@ -0,0 +1,51 @@
+package com.luxoft.fabric.events.ordering;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for FetchScheduler
+ */
+public class FetchSchedulerTest {
+
+    private final FetchTimings timings = new FetchTimings()
+            .setMinFetchDelayMillis(10)
+            .setMaxFetchDelayMillis(1000)
+            .setMinErrorDelayMillis(100)
+            .setMaxErrorDelayMillis(1000)
+            .setReorderFactor(0.5)
+            .setStaleStreamFactor(3);
+
+    @Test
+    public void testDelayFollowsBlockInterval() {
+        final FetchScheduler scheduler = new FetchScheduler(timings);
+        // nothing is known about the stream yet
+        assertEquals(1000, scheduler.getFetchDelayMillis(0));
+
+        for (int i = 0; i <= 10; ++i)
+            scheduler.onBlockReceived(i, i * 200L);
+        assertEquals(200, scheduler.getAverageIntervalMillis(), 0.001);
+        assertTrue(scheduler.isStreamHealthy(2100));
+        assertEquals(100, scheduler.getFetchDelayMillis(2100));
+
+        // stale stream: missing block is not coming, fetch at once
+        assertFalse(scheduler.isStreamHealthy(3000));
+        assertEquals(0, scheduler.getFetchDelayMillis(3000));
+    }
+
+    @Test
+    public void testErrorBackoff() {
+        final FetchScheduler scheduler = new FetchScheduler(timings);
+        assertEquals(100, scheduler.onError());
+        assertEquals(200, scheduler.onError());
+        assertEquals(400, scheduler.onError());
+        assertEquals(800, scheduler.onError());
+        assertEquals(1000, scheduler.onError());
+        assertEquals(1000, scheduler.getFetchDelayMillis(0));
+
+        scheduler.onSuccess();
+        assertEquals(0, scheduler.getErrors());
+        assertEquals(1000, scheduler.getFetchDelayMillis(0));
+    }
+}
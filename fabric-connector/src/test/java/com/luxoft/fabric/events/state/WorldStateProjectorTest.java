@@ -0,0 +1,139 @@
+package com.luxoft.fabric.events.state;
+
+import com.google.protobuf.ByteString;
+import com.luxoft.fabric.events.EventCursor;
+import com.luxoft.fabric.events.Persister;
+import org.hyperledger.fabric.protos.common.Common;
+import org.hyperledger.fabric.protos.ledger.rwset.Rwset;
+import org.hyperledger.fabric.protos.ledger.rwset.kvrwset.KvRwset;
+import org.hyperledger.fabric.protos.peer.FabricProposal;
+import org.hyperledger.fabric.protos.peer.FabricProposalResponse;
+import org.hyperledger.fabric.protos.peer.FabricTransaction;
+import org.hyperledger.fabric.sdk.SdkTxUtil;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for WorldStateProjector
+ */
+public class WorldStateProjectorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static KvRwset.KVWrite write(String key, String value) {
+        return value != null
+                ? KvRwset.KVWrite.newBuilder().setKey(key).setValue(ByteString.copyFromUtf8(value)).build()
+                : KvRwset.KVWrite.newBuilder().setKey(key).setIsDelete(true).build();
+    }
+
+    private static ByteString transaction(String txId, KvRwset.KVWrite... writes) {
+        final Rwset.TxReadWriteSet rwset = Rwset.TxReadWriteSet.newBuilder()
+                .setDataModel(Rwset.TxReadWriteSet.DataModel.KV)
+                .addNsRwset(Rwset.NsReadWriteSet.newBuilder()
+                        .setNamespace("mycc")
+                        .setRwset(KvRwset.KVRWSet.newBuilder().addAllWrites(java.util.Arrays.asList(writes)).build().toByteString()))
+                .build();
+        final FabricProposal.ChaincodeAction action = FabricProposal.ChaincodeAction.newBuilder()
+                .setResults(rwset.toByteString())
+                .build();
+        final FabricTransaction.ChaincodeActionPayload actionPayload = FabricTransaction.ChaincodeActionPayload.newBuilder()
+                .setAction(FabricTransaction.ChaincodeEndorsedAction.newBuilder()
+                        .setProposalResponsePayload(FabricProposalResponse.ProposalResponsePayload.newBuilder()
+                                .setExtension(action.toByteString()).build().toByteString()))
+                .build();
+        final FabricTransaction.Transaction transaction = FabricTransaction.Transaction.newBuilder()
+                .addActions(FabricTransaction.TransactionAction.newBuilder().setPayload(actionPayload.toByteString()))
+                .build();
+        final Common.ChannelHeader channelHeader = Common.ChannelHeader.newBuilder()
+                .setType(Common.HeaderType.ENDORSER_TRANSACTION_VALUE)
+                .setTxId(txId)
+                .setChannelId("mychannel")
+                .build();
+        final Common.Payload payload = Common.Payload.newBuilder()
+                .setHeader(Common.Header.newBuilder()
+                        .setChannelHeader(channelHeader.toByteString())
+                        .setSignatureHeader(Common.SignatureHeader.getDefaultInstance().toByteString()))
+                .setData(transaction.toByteString())
+                .build();
+        return Common.Envelope.newBuilder().setPayload(payload.toByteString()).build().toByteString();
+    }
+
+    /**
+     * @param validationCodes validation code of each transaction
+     */
+    private static Common.Block block(long number, byte[] validationCodes, ByteString... transactions) {
+        final Common.BlockMetadata.Builder metadata = Common.BlockMetadata.newBuilder();
+        for (int i = 0; i < 4; ++i)
+            metadata.addMetadata(i == Common.BlockMetadataIndex.TRANSACTIONS_FILTER_VALUE ? ByteString.copyFrom(validationCodes) : ByteString.EMPTY);
+        return Common.Block.newBuilder()
+                .setHeader(Common.BlockHeader.newBuilder().setNumber(number))
+                .setData(Common.BlockData.newBuilder().addAllData(java.util.Arrays.asList(transactions)))
+                .setMetadata(metadata)
+                .build();
+    }
+
+    private static String get(WorldStateProjector projector, String key) {
+        final ByteString value = projector.get("mycc", key);
+        return value != null ? value.toStringUtf8() : null;
+    }
+
+    @Test
+    public void testProjection() throws Exception {
+        final Map<String, EventCursor> cursors = new HashMap<>();
+        final Persister persister = new Persister() {
+            @Override
+            public long getStartBlock(String channelName) {
+                return Long.MAX_VALUE;
+            }
+
+            @Override
+            public void setStartBlock(String channelName, long startBlock) {
+            }
+
+            @Override
+            public void setCursor(String name, EventCursor cursor) {
+                cursors.put(name, cursor);
+            }
+        };
+        final Path snapshot = folder.getRoot().toPath().resolve("state");
+
+        try (WorldStateProjector projector = new WorldStateProjector("mychannel/state", persister, snapshot, 2)) {
+            projector.applyBlock(SdkTxUtil.newBlockInfo(block(0, new byte[]{0},
+                    transaction("tx1", write("a", "1"), write("b", "2")))));
+            projector.applyBlock(SdkTxUtil.newBlockInfo(block(1, new byte[]{0, 11},
+                    transaction("tx2", write("a", null), write("c", "3")),
+                    transaction("tx3", write("d", "4")))));
+            // already applied
+            projector.applyBlock(SdkTxUtil.newBlockInfo(block(0, new byte[]{0},
+                    transaction("tx1", write("a", "5")))));
+
+            assertEquals(2, projector.getHeight());
+            assertNull(get(projector, "a"));
+            assertEquals("2", get(projector, "b"));
+            assertEquals("3", get(projector, "c"));
+            // invalid transaction is not applied
+            assertNull(get(projector, "d"));
+            assertEquals(2, projector.getRange("mycc", "a", "z").size());
+            assertEquals(new EventCursor(2), cursors.get("mychannel/state"));
+        }
+
+        try (WorldStateProjector projector = new WorldStateProjector("mychannel/state", persister, snapshot, 2)) {
+            assertEquals(2, projector.getHeight());
+            assertEquals("3", get(projector, "c"));
+            try {
+                projector.applyBlock(SdkTxUtil.newBlockInfo(block(5, new byte[0])));
+                fail("gap is not detected");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.luxoft.fabric.events.store;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Timestamp;
+import org.hyperledger.fabric.protos.common.Common;
+import org.hyperledger.fabric.sdk.BlockInfo;
+import org.hyperledger.fabric.sdk.SdkTxUtil;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for BlockTimeIndex
+ */
+public class BlockTimeIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static BlockInfo block(long number, long... timestamps) {
+        final Common.BlockData.Builder data = Common.BlockData.newBuilder();
+        for (long timestamp : timestamps) {
+            final Common.ChannelHeader channelHeader = Common.ChannelHeader.newBuilder()
+                    .setType(Common.HeaderType.ENDORSER_TRANSACTION_VALUE)
+                    .setTxId("tx" + number + "-" + timestamp)
+                    .setTimestamp(Timestamp.newBuilder().setSeconds(timestamp / 1000).setNanos((int) (timestamp % 1000) * 1000000))
+                    .build();
+            final Common.Payload payload = Common.Payload.newBuilder()
+                    .setHeader(Common.Header.newBuilder()
+                            .setChannelHeader(channelHeader.toByteString())
+                            .setSignatureHeader(Common.SignatureHeader.getDefaultInstance().toByteString()))
+                    .build();
+            data.addData(Common.Envelope.newBuilder().setPayload(payload.toByteString()).build().toByteString());
+        }
+
+        final Common.BlockMetadata.Builder metadata = Common.BlockMetadata.newBuilder();
+        for (int i = 0; i < 4; ++i)
+            metadata.addMetadata(i == Common.BlockMetadataIndex.TRANSACTIONS_FILTER_VALUE ? ByteString.copyFrom(new byte[timestamps.length]) : ByteString.EMPTY);
+        return SdkTxUtil.newBlockInfo(Common.Block.newBuilder()
+                .setHeader(Common.BlockHeader.newBuilder().setNumber(number))
+                .setData(data)
+                .setMetadata(metadata)
+                .build());
+    }
+
+    @Test
+    public void testIndex() throws Exception {
+        final Path directory = folder.getRoot().toPath();
+
+        try (BlockTimeIndex index = new BlockTimeIndex(directory)) {
+            assertEquals(-1, index.findBlock("mychannel", 0));
+            assertTrue(index.addBlock("mychannel", block(5, 1000, 1500)));
+            assertTrue(index.addBlock("mychannel", block(6, 2000)));
+            // out of order timestamp doesn't move block time back
+            assertTrue(index.addBlock("mychannel", block(7, 1800)));
+            assertTrue(index.addBlock("mychannel", block(8, 3000)));
+            // gap
+            assertFalse(index.addBlock("mychannel", block(10, 4000)));
+            assertTrue(index.addBlock("mychannel", block(6, 2000)));
+
+            assertEquals(1500, index.getTimestamp("mychannel", 5));
+            assertEquals(2000, index.getTimestamp("mychannel", 7));
+            assertEquals(5, index.findBlock("mychannel", 0));
+            assertEquals(6, index.findBlock("mychannel", 1600));
+            assertEquals(8, index.findBlock("mychannel", 2500));
+            assertEquals(9, index.findBlock("mychannel", 5000));
+        }
+
+        try (BlockTimeIndex index = new BlockTimeIndex(directory)) {
+            assertEquals(5, index.getBaseBlock("mychannel"));
+            assertEquals(9, index.getHeight("mychannel"));
+            assertEquals(3000, index.getTimestamp("mychannel", 8));
+            assertEquals(-1, index.getHeight("otherchannel"));
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.luxoft.fabric.events.store;
+
+import com.google.protobuf.ByteString;
+import org.hyperledger.fabric.protos.common.Common;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for SegmentBlockStore
+ */
+public class SegmentBlockStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static Common.Block block(long number, int size) {
+        return Common.Block.newBuilder()
+                .setHeader(Common.BlockHeader.newBuilder().setNumber(number))
+                .setData(Common.BlockData.newBuilder().addData(ByteString.copyFrom(new byte[size])))
+                .build();
+    }
+
+    @Test
+    public void testPutAndReopen() throws Exception {
+        final Path path = folder.getRoot().toPath();
+        try (SegmentBlockStore store = new SegmentBlockStore(path, 4096, Long.MAX_VALUE, 0)) {
+            // out of order, several segments
+            for (long n : new long[]{5, 3, 4, 10, 1, 2})
+                store.putBlock("mychannel", block(n, 1000));
+
+            assertEquals(block(3, 1000), store.getBlock("mychannel", 3));
+            assertNull(store.getBlock("mychannel", 7));
+            assertNull(store.getBlock("otherchannel", 3));
+        }
+
+        try (SegmentBlockStore store = new SegmentBlockStore(path, 4096, Long.MAX_VALUE, 0)) {
+            assertEquals(6, store.getBlockCount("mychannel"));
+            assertTrue(store.containsBlock("mychannel", 10));
+            assertEquals(block(10, 1000), store.getBlock("mychannel", 10));
+        }
+    }
+
+    @Test
+    public void testTornRecordDropped() throws Exception {
+        final Path path = folder.getRoot().toPath();
+        try (SegmentBlockStore store = new SegmentBlockStore(path, 1 << 16, Long.MAX_VALUE, 0)) {
+            store.putBlock("mychannel", block(1, 100));
+            store.putBlock("mychannel", block(2, 100));
+        }
+
+        // damage the payload of the last record
+        final File segment = path.resolve("mychannel").resolve("0000000000.seg").toFile();
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            file.seek(12 + 2 * 16 + 2 * block(1, 100).getSerializedSize() - 10);
+            file.write(0xff);
+        }
+
+        try (SegmentBlockStore store = new SegmentBlockStore(path, 1 << 16, Long.MAX_VALUE, 0)) {
+            assertTrue(store.containsBlock("mychannel", 1));
+            assertFalse(store.containsBlock("mychannel", 2));
+            store.putBlock("mychannel", block(3, 100));
+        }
+
+        try (SegmentBlockStore store = new SegmentBlockStore(path, 1 << 16, Long.MAX_VALUE, 0)) {
+            assertEquals(block(3, 100), store.getBlock("mychannel", 3));
+        }
+    }
+
+    @Test
+    public void testEvictionBySize() throws Exception {
+        try (SegmentBlockStore store = new SegmentBlockStore(folder.getRoot().toPath(), 4096, 3 * 4096, 0)) {
+            for (long n = 0; n < 20; ++n)
+                store.putBlock("mychannel", block(n, 1500));
+
+            // two blocks per segment, three segments kept
+            assertEquals(6, store.getBlockCount("mychannel"));
+            assertFalse(store.containsBlock("mychannel", 13));
+            assertEquals(block(14, 1500), store.getBlock("mychannel", 14));
+            assertEquals(block(19, 1500), store.getBlock("mychannel", 19));
+        }
+    }
+}
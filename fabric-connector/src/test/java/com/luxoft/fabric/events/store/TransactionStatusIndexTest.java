@@ -0,0 +1,88 @@
+package com.luxoft.fabric.events.store;
+
+import org.hyperledger.fabric.protos.peer.FabricTransaction;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.math.BigInteger;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for TransactionStatusIndex
+ */
+public class TransactionStatusIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /* Fabric transaction id is hex SHA-256 */
+    private static String txId(int n) throws Exception {
+        final byte[] digest = MessageDigest.getInstance("SHA-256").digest(Integer.toString(n).getBytes("UTF-8"));
+        return String.format("%064x", new BigInteger(1, digest));
+    }
+
+    @Test
+    public void testPutAndGet() throws Exception {
+        final TransactionStatusIndex index = new TransactionStatusIndex(100);
+        index.put("mychannel", txId(1), 10, 0);
+        index.put("mychannel", txId(2), 11, 11);
+        index.put("mychannel", "not-a-hex-id", 12, 0);
+
+        assertTrue(index.get("mychannel", txId(1)).isValid());
+        assertEquals(10, index.get("mychannel", txId(1)).getBlockNumber());
+        assertEquals(11, index.get("mychannel", txId(2)).getValidationCode());
+        assertFalse(index.get("mychannel", txId(2)).isValid());
+        assertEquals(12, index.get("mychannel", "not-a-hex-id").getBlockNumber());
+        assertNull(index.get("otherchannel", txId(1)));
+        assertNull(index.get("mychannel", txId(3)));
+    }
+
+    @Test
+    public void testDuplicate() throws Exception {
+        final TransactionStatusIndex index = new TransactionStatusIndex(100);
+        index.put("mychannel", txId(1), 10, FabricTransaction.TxValidationCode.VALID_VALUE);
+        index.put("mychannel", txId(1), 12, FabricTransaction.TxValidationCode.DUPLICATE_TXID_VALUE);
+
+        final TransactionStatusIndex.Status status = index.get("mychannel", txId(1));
+        assertTrue(status.isValid());
+        assertEquals(10, status.getBlockNumber());
+
+        // committed transaction is found after its table is retired
+        for (int i = 2; i < 150; ++i)
+            index.put("mychannel", txId(i), 20, 0);
+        index.put("mychannel", txId(1), 21, FabricTransaction.TxValidationCode.DUPLICATE_TXID_VALUE);
+        assertEquals(10, index.get("mychannel", txId(1)).getBlockNumber());
+    }
+
+    @Test
+    public void testBounded() throws Exception {
+        final TransactionStatusIndex index = new TransactionStatusIndex(100);
+        for (int i = 0; i < 1000; ++i)
+            index.put("mychannel", txId(i), i, 0);
+
+        assertNull(index.get("mychannel", txId(0)));
+        for (int i = 900; i < 1000; ++i)
+            assertEquals(i, index.get("mychannel", txId(i)).getBlockNumber());
+    }
+
+    @Test
+    public void testSpill() throws Exception {
+        final Path path = folder.getRoot().toPath();
+        try (TransactionStatusIndex index = new TransactionStatusIndex(100, path, 300, 4)) {
+            for (int i = 0; i < 1000; ++i)
+                index.put("mychannel", txId(i), i, 0);
+            for (int i = 0; i < 1000; ++i)
+                assertEquals(i, index.get("mychannel", txId(i)).getBlockNumber());
+        }
+
+        // entries spilled before restart are kept
+        try (TransactionStatusIndex index = new TransactionStatusIndex(100, path, 300, 4)) {
+            assertEquals(5, index.get("mychannel", txId(5)).getBlockNumber());
+            assertNull(index.get("mychannel", txId(999)));
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.luxoft.fabric.utils;
+
+import com.google.protobuf.ByteString;
+import org.hyperledger.fabric.protos.common.Common;
+import org.hyperledger.fabric.protos.peer.ChaincodeEventOuterClass;
+import org.hyperledger.fabric.protos.peer.FabricProposal;
+import org.hyperledger.fabric.protos.peer.FabricProposalResponse;
+import org.hyperledger.fabric.protos.peer.FabricTransaction;
+import org.hyperledger.fabric.sdk.ChaincodeEvent;
+import org.hyperledger.fabric.sdk.SdkTxUtil;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for BlockDecoder
+ */
+public class BlockDecoderTest {
+
+    private static ByteString transaction(String txId) {
+        final ChaincodeEventOuterClass.ChaincodeEvent event = ChaincodeEventOuterClass.ChaincodeEvent.newBuilder()
+                .setChaincodeId("mycc")
+                .setEventName("event")
+                .setTxId(txId)
+                .setPayload(ByteString.copyFromUtf8(txId))
+                .build();
+        final FabricProposal.ChaincodeAction action = FabricProposal.ChaincodeAction.newBuilder()
+                .setEvents(event.toByteString())
+                .build();
+        final FabricTransaction.ChaincodeActionPayload actionPayload = FabricTransaction.ChaincodeActionPayload.newBuilder()
+                .setAction(FabricTransaction.ChaincodeEndorsedAction.newBuilder()
+                        .setProposalResponsePayload(FabricProposalResponse.ProposalResponsePayload.newBuilder()
+                                .setExtension(action.toByteString()).build().toByteString()))
+                .build();
+        final FabricTransaction.Transaction transaction = FabricTransaction.Transaction.newBuilder()
+                .addActions(FabricTransaction.TransactionAction.newBuilder().setPayload(actionPayload.toByteString()))
+                .build();
+        final Common.ChannelHeader channelHeader = Common.ChannelHeader.newBuilder()
+                .setType(Common.HeaderType.ENDORSER_TRANSACTION_VALUE)
+                .setTxId(txId)
+                .setChannelId("mychannel")
+                .build();
+        final Common.Payload payload = Common.Payload.newBuilder()
+                .setHeader(Common.Header.newBuilder()
+                        .setChannelHeader(channelHeader.toByteString())
+                        .setSignatureHeader(Common.SignatureHeader.getDefaultInstance().toByteString()))
+                .setData(transaction.toByteString())
+                .build();
+        return Common.Envelope.newBuilder().setPayload(payload.toByteString()).build().toByteString();
+    }
+
+    @Test
+    public void testDecode() throws Exception {
+        final Common.BlockMetadata.Builder metadata = Common.BlockMetadata.newBuilder();
+        for (int i = 0; i < 4; ++i)
+            metadata.addMetadata(i == Common.BlockMetadataIndex.TRANSACTIONS_FILTER_VALUE ? ByteString.copyFrom(new byte[]{0, 11, 0}) : ByteString.EMPTY);
+        final Common.Block block = Common.Block.newBuilder()
+                .setHeader(Common.BlockHeader.newBuilder().setNumber(5))
+                .setData(Common.BlockData.newBuilder().addData(transaction("tx1")).addData(transaction("tx2")).addData(transaction("tx3")))
+                .setMetadata(metadata)
+                .build();
+        final byte[] bytes = block.toByteArray();
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes).flip();
+
+        final BlockDecoder decoder = new BlockDecoder(buffer);
+        assertEquals(5, decoder.getBlockNumber());
+        assertEquals(11, decoder.getValidationCode(1));
+
+        final List<String> txIds = new ArrayList<>();
+        for (Iterator<BlockDecoder.Envelope> it = decoder.getEnvelopes(false); it.hasNext(); )
+            txIds.add(it.next().getTransactionID());
+        assertEquals(3, txIds.size());
+
+        final List<String> eventTxIds = new ArrayList<>();
+        for (Iterator<ChaincodeEvent> it = decoder.getEvents(); it.hasNext(); ) {
+            final ChaincodeEvent event = it.next();
+            assertEquals(event.getTxId(), SdkTxUtil.getEventPayload(event).toStringUtf8());
+            eventTxIds.add(event.getTxId());
+        }
+        // invalid transaction is skipped, same as with the full block
+        final List<String> expected = new ArrayList<>();
+        TxUtils.getBlockEvents(SdkTxUtil.newBlockInfo(block)).forEachRemaining((event) -> expected.add(event.getTxId()));
+        assertEquals(expected, eventTxIds);
+        assertEquals(2, eventTxIds.size());
+    }
+}
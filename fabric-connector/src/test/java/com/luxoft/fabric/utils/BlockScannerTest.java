@@ -0,0 +1,167 @@
+package com.luxoft.fabric.utils;
+
+import com.luxoft.fabric.events.ordering.FabricQueryException;
+import com.luxoft.fabric.events.store.BlockStore;
+import org.hyperledger.fabric.protos.common.Common;
+import org.hyperledger.fabric.sdk.BlockInfo;
+import org.hyperledger.fabric.sdk.ChaincodeEvent;
+import org.hyperledger.fabric.sdk.TestChannel;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for BlockScanner, running against the in-memory channel
+ */
+public class BlockScannerTest {
+
+    private static TestChannel newChannel(int blocks, int transactions, int eventsPerTransaction) throws Exception {
+        final TestChannel channel = new TestChannel("mychannel");
+        for (int i = 0; i < blocks; ++i)
+            channel.appendBlock(transactions, eventsPerTransaction);
+        return channel;
+    }
+
+    /**
+     * Store, which has no blocks and holds the lookup of the block until released
+     */
+    private static class DelayingBlockStore implements BlockStore {
+        final long delayedBlock;
+        final CountDownLatch released = new CountDownLatch(1);
+
+        DelayingBlockStore(long delayedBlock) {
+            this.delayedBlock = delayedBlock;
+        }
+
+        @Override
+        public Common.Block getBlock(String channelName, long blockNumber) {
+            if (blockNumber == delayedBlock) {
+                try {
+                    released.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public boolean containsBlock(String channelName, long blockNumber) {
+            return false;
+        }
+
+        @Override
+        public void putBlock(String channelName, Common.Block block) {
+        }
+    }
+
+    private static List<Long> blockNumbers(Stream<BlockInfo> blocks) {
+        return blocks.map(BlockInfo::getBlockNumber).collect(Collectors.toList());
+    }
+
+    private static Set<Thread> scannerThreads(String channelName) {
+        return Thread.getAllStackTraces().keySet().stream()
+                .filter((thread) -> thread.getName().equals("block-scanner-" + channelName))
+                .collect(Collectors.toSet());
+    }
+
+    @Test
+    public void testOrderedScan() throws Exception {
+        final TestChannel channel = newChannel(50, 1, 1);
+        final BlockScanner scanner = new BlockScanner(channel, 5, 45);
+        scanner.setMaxConcurrentFetches(4);
+
+        final List<Long> expected = new ArrayList<>();
+        for (long b = 5; b < 45; ++b)
+            expected.add(b);
+        try (Stream<BlockInfo> blocks = scanner.blocks(true)) {
+            assertEquals(expected, blockNumbers(blocks));
+        }
+    }
+
+    @Test
+    public void testUnorderedScan() throws Exception {
+        final TestChannel channel = newChannel(10, 1, 1);
+        final DelayingBlockStore blockStore = new DelayingBlockStore(0);
+        final BlockScanner scanner = new BlockScanner(channel, 0, 10);
+        scanner.setBlockStore(blockStore);
+        scanner.setMaxConcurrentFetches(4);
+
+        // the blocks fetched later are streamed before the delayed one
+        final List<Long> received = new ArrayList<>();
+        try (Stream<BlockInfo> blocks = scanner.blocks(false)) {
+            final Iterator<BlockInfo> iterator = blocks.iterator();
+            received.add(iterator.next().getBlockNumber());
+            blockStore.released.countDown();
+            iterator.forEachRemaining((blockInfo) -> received.add(blockInfo.getBlockNumber()));
+        }
+        assertNotEquals(Long.valueOf(0), received.get(0));
+        assertEquals(10, received.size());
+        assertEquals(new HashSet<>(Arrays.asList(0L, 1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L, 9L)), new HashSet<>(received));
+    }
+
+    @Test
+    public void testFilters() throws Exception {
+        final TestChannel channel = newChannel(4, 2, 2);
+        final BlockScanner scanner = new BlockScanner(channel, 0, 4);
+        final Set<String> filteredTransactions = Collections.synchronizedSet(new HashSet<>());
+        scanner.setTransactionFilter((transaction) -> transaction.getTransactionID().endsWith("-1"));
+        scanner.setEventFilter((event) -> {
+            filteredTransactions.add(event.getTxId());
+            return !event.getTxId().startsWith("tx-2-");
+        });
+
+        try (Stream<ChaincodeEvent> events = scanner.events(true)) {
+            assertEquals(Arrays.asList("payload-0-1-0", "payload-0-1-1", "payload-1-1-0", "payload-1-1-1", "payload-3-1-0", "payload-3-1-1"),
+                    events.map((event) -> new String(event.getPayload(), StandardCharsets.UTF_8)).collect(Collectors.toList()));
+        }
+        // events of the filtered out transactions are not extracted
+        assertEquals(new HashSet<>(Arrays.asList("tx-0-1", "tx-1-1", "tx-2-1", "tx-3-1")), filteredTransactions);
+
+        try (Stream<BlockInfo.TransactionEnvelopeInfo> transactions = scanner.transactions(true)) {
+            assertEquals(Arrays.asList("tx-0-1", "tx-1-1", "tx-2-1", "tx-3-1"),
+                    transactions.map(BlockInfo.TransactionEnvelopeInfo::getTransactionID).collect(Collectors.toList()));
+        }
+    }
+
+    @Test
+    public void testFetchFailure() throws Exception {
+        final TestChannel channel = newChannel(10, 1, 1);
+        channel.failQueries(100);
+        final BlockScanner scanner = new BlockScanner(channel, 0, 10);
+
+        try (Stream<BlockInfo> blocks = scanner.blocks(false)) {
+            blocks.count();
+            fail("Scan should fail");
+        } catch (CompletionException e) {
+            assertTrue(e.getCause() instanceof FabricQueryException);
+        }
+    }
+
+    @Test
+    public void testOwnPoolCreatedOnFetch() throws Exception {
+        // pools of the other tests' channels may still be shutting down
+        final TestChannel channel = new TestChannel("lazychannel");
+        for (int i = 0; i < 10; ++i)
+            channel.appendBlock(1, 1);
+
+        final Stream<BlockInfo> blocks = new BlockScanner(channel, 0, 10).blocks(true);
+        assertTrue(scannerThreads("lazychannel").isEmpty());
+
+        final Iterator<BlockInfo> iterator = blocks.iterator();
+        assertEquals(0, iterator.next().getBlockNumber());
+        final Set<Thread> threads = scannerThreads("lazychannel");
+        assertFalse(threads.isEmpty());
+        for (Thread thread : threads)
+            assertTrue(thread.isDaemon());
+        blocks.close();
+    }
+}
@@ -0,0 +1,137 @@
+package com.luxoft.fabric.utils;
+
+import com.luxoft.fabric.events.ordering.FabricQueryException;
+import org.hyperledger.fabric.sdk.ChaincodeEvent;
+import org.hyperledger.fabric.sdk.TestChannel;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for TransactionEventsQuery, running against the in-memory channel
+ */
+public class TransactionEventsQueryTest {
+
+    /**
+     * Executor, which runs the tasks when asked to
+     */
+    private static class ManualExecutor implements Executor {
+        final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+        @Override
+        public void execute(Runnable command) {
+            tasks.add(command);
+        }
+
+        void runAll() {
+            while (!tasks.isEmpty())
+                tasks.poll().run();
+        }
+    }
+
+    private static TestChannel newChannel(int blocks) throws Exception {
+        final TestChannel channel = new TestChannel("mychannel");
+        for (int i = 0; i < blocks; ++i)
+            channel.appendBlock(1, 1);
+        return channel;
+    }
+
+    private static Map<String, String> payloads(Map<String, List<ChaincodeEvent>> events) {
+        final Map<String, String> result = new LinkedHashMap<>();
+        events.forEach((transactionID, transactionEvents) -> {
+            assertEquals(1, transactionEvents.size());
+            result.put(transactionID, new String(transactionEvents.get(0).getPayload(), StandardCharsets.UTF_8));
+        });
+        return result;
+    }
+
+    @Test
+    public void testDeduplication() throws Exception {
+        final TestChannel channel = newChannel(2);
+        final TransactionEventsQuery query = new TransactionEventsQuery(Runnable::run, 4, TransactionEventsQuery.DEFAULT_CACHE_SIZE);
+
+        final Map<String, List<ChaincodeEvent>> events = query.queryEventsByTransactionIDs(channel,
+                Arrays.asList("tx-1-0", "tx-0-0", "tx-1-0")).get(10, TimeUnit.SECONDS);
+        final Map<String, String> expected = new LinkedHashMap<>();
+        expected.put("tx-1-0", "payload-1-0-0");
+        expected.put("tx-0-0", "payload-0-0-0");
+        assertEquals(expected, payloads(events));
+        assertEquals(2, channel.getTransactionQueries());
+    }
+
+    @Test
+    public void testConcurrencyCap() throws Exception {
+        final TestChannel channel = newChannel(5);
+        final ManualExecutor executor = new ManualExecutor();
+        final TransactionEventsQuery query = new TransactionEventsQuery(executor, 2, TransactionEventsQuery.DEFAULT_CACHE_SIZE);
+
+        final CompletableFuture<Map<String, List<ChaincodeEvent>>> future = query.queryEventsByTransactionIDs(channel,
+                Arrays.asList("tx-0-0", "tx-1-0", "tx-2-0", "tx-3-0", "tx-4-0"));
+        assertEquals(2, executor.tasks.size());
+
+        // each finished query starts the next one
+        executor.tasks.poll().run();
+        assertEquals(2, executor.tasks.size());
+        executor.runAll();
+        assertEquals(5, future.get(10, TimeUnit.SECONDS).size());
+        assertEquals(5, channel.getTransactionQueries());
+    }
+
+    @Test
+    public void testCacheSharing() throws Exception {
+        final TestChannel channel = newChannel(3);
+        final ManualExecutor executor = new ManualExecutor();
+        final TransactionEventsQuery query = new TransactionEventsQuery(executor, 4, 2);
+
+        // concurrent lookups of the same transaction share the query
+        final CompletableFuture<Map<String, List<ChaincodeEvent>>> future1 = query.queryEventsByTransactionIDs(channel, Arrays.asList("tx-0-0", "tx-1-0"));
+        final CompletableFuture<Map<String, List<ChaincodeEvent>>> future2 = query.queryEventsByTransactionIDs(channel, Collections.singletonList("tx-1-0"));
+        assertEquals(2, executor.tasks.size());
+        executor.runAll();
+        assertEquals("payload-1-0-0", payloads(future1.get(10, TimeUnit.SECONDS)).get("tx-1-0"));
+        assertEquals("payload-1-0-0", payloads(future2.get(10, TimeUnit.SECONDS)).get("tx-1-0"));
+        assertEquals(2, channel.getTransactionQueries());
+
+        // cached lookups complete immediately, the eldest entry is evicted
+        assertTrue(query.queryEventsByTransactionIDs(channel, Arrays.asList("tx-0-0", "tx-1-0")).isDone());
+        query.queryEventsByTransactionIDs(channel, Collections.singletonList("tx-2-0"));
+        executor.runAll();
+        assertTrue(query.queryEventsByTransactionIDs(channel, Collections.singletonList("tx-1-0")).isDone());
+        assertFalse(query.queryEventsByTransactionIDs(channel, Collections.singletonList("tx-0-0")).isDone());
+        executor.runAll();
+        assertEquals(4, channel.getTransactionQueries());
+
+        query.clearCache();
+        assertFalse(query.queryEventsByTransactionIDs(channel, Collections.singletonList("tx-1-0")).isDone());
+    }
+
+    @Test
+    public void testRejectedQuery() throws Exception {
+        final TestChannel channel = newChannel(2);
+        final AtomicInteger rejections = new AtomicInteger(1);
+        final TransactionEventsQuery query = new TransactionEventsQuery((command) -> {
+            if (rejections.getAndDecrement() > 0)
+                throw new RejectedExecutionException("Executor is shut down");
+            command.run();
+        }, 1, TransactionEventsQuery.DEFAULT_CACHE_SIZE);
+
+        try {
+            query.queryEventsByTransactionIDs(channel, Collections.singletonList("tx-0-0")).get(10, TimeUnit.SECONDS);
+            fail("Rejected query should fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof FabricQueryException);
+            assertTrue(e.getCause().getCause() instanceof RejectedExecutionException);
+        }
+
+        // rejected query neither holds the slot nor stays in flight
+        final Map<String, List<ChaincodeEvent>> events = query.queryEventsByTransactionIDs(channel,
+                Arrays.asList("tx-0-0", "tx-1-0")).get(10, TimeUnit.SECONDS);
+        assertEquals(2, events.size());
+        assertEquals(2, channel.getTransactionQueries());
+    }
+}
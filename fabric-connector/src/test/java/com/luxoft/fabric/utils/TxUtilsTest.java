@@ -0,0 +1,63 @@
+package com.luxoft.fabric.utils;
+
+import com.luxoft.fabric.events.store.BlockTimeIndex;
+import org.hyperledger.fabric.sdk.ChaincodeEvent;
+import org.hyperledger.fabric.sdk.TestChannel;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for the time range queries of TxUtils
+ */
+public class TxUtilsTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static List<String> queryPayloads(TestChannel channel, BlockTimeIndex index, long from, long to, Duration maxSkew) throws Exception {
+        try (Stream<ChaincodeEvent> events = TxUtils.queryEventsByTime(channel, null, index,
+                Instant.ofEpochMilli(from), Instant.ofEpochMilli(to), maxSkew)) {
+            return events.map((event) -> new String(event.getPayload(), StandardCharsets.UTF_8)).collect(Collectors.toList());
+        }
+    }
+
+    @Test
+    public void testOutOfOrderTimestamp() throws Exception {
+        final TestChannel channel = new TestChannel("mychannel");
+        channel.appendBlockAt(1000);
+        channel.appendBlockAt(2000);
+        channel.appendBlockAt(3000);
+        // transaction committed after the block, which is later than its timestamp
+        channel.appendBlockAt(2500, 4000);
+        channel.appendBlockAt(5000);
+
+        try (BlockTimeIndex index = new BlockTimeIndex(folder.getRoot().toPath())) {
+            assertEquals(5, TxUtils.updateBlockTimeIndex(channel, null, index, 5));
+
+            assertArrayEquals(new long[]{2, 3}, TxUtils.findBlockRange(channel, index,
+                    Instant.ofEpochMilli(2200), Instant.ofEpochMilli(2800), Duration.ZERO));
+            assertEquals(Collections.emptyList(), queryPayloads(channel, index, 2200, 2800, Duration.ZERO));
+
+            // lags behind block 2 by 500ms
+            assertArrayEquals(new long[]{2, 4}, TxUtils.findBlockRange(channel, index,
+                    Instant.ofEpochMilli(2200), Instant.ofEpochMilli(2800), Duration.ofSeconds(1)));
+            assertEquals(Collections.singletonList("payload-3-0-0"), queryPayloads(channel, index, 2200, 2800, Duration.ofSeconds(1)));
+
+            assertEquals(Arrays.asList("payload-1-0-0", "payload-2-0-0", "payload-3-0-0"),
+                    queryPayloads(channel, index, 2000, 3500, TxUtils.DEFAULT_MAX_TIMESTAMP_SKEW));
+        }
+    }
+}
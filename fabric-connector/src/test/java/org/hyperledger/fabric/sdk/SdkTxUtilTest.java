@@ -0,0 +1,191 @@
+package org.hyperledger.fabric.sdk;
+
+import com.google.protobuf.ByteString;
+import com.luxoft.fabric.utils.TxUtils;
+import org.hyperledger.fabric.protos.common.Common;
+import org.hyperledger.fabric.protos.ledger.rwset.Rwset;
+import org.hyperledger.fabric.protos.ledger.rwset.kvrwset.KvRwset;
+import org.hyperledger.fabric.protos.peer.Chaincode;
+import org.hyperledger.fabric.protos.peer.FabricProposal;
+import org.hyperledger.fabric.protos.peer.FabricProposalResponse;
+import org.hyperledger.fabric.protos.peer.FabricTransaction;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for SdkTxUtil transaction views
+ */
+public class SdkTxUtilTest {
+
+    private static FabricTransaction.TransactionAction action(List<String> args, Rwset.TxReadWriteSet rwset) {
+        final Chaincode.ChaincodeInput.Builder input = Chaincode.ChaincodeInput.newBuilder();
+        for (String arg : args)
+            input.addArgs(ByteString.copyFromUtf8(arg));
+        final Chaincode.ChaincodeInvocationSpec invocationSpec = Chaincode.ChaincodeInvocationSpec.newBuilder()
+                .setChaincodeSpec(Chaincode.ChaincodeSpec.newBuilder().setInput(input))
+                .build();
+        final FabricProposal.ChaincodeAction chaincodeAction = FabricProposal.ChaincodeAction.newBuilder()
+                .setResults(rwset.toByteString())
+                .setResponse(FabricProposalResponse.Response.newBuilder().setStatus(200))
+                .build();
+        final FabricTransaction.ChaincodeActionPayload actionPayload = FabricTransaction.ChaincodeActionPayload.newBuilder()
+                .setChaincodeProposalPayload(FabricProposal.ChaincodeProposalPayload.newBuilder()
+                        .setInput(invocationSpec.toByteString()).build().toByteString())
+                .setAction(FabricTransaction.ChaincodeEndorsedAction.newBuilder()
+                        .setProposalResponsePayload(FabricProposalResponse.ProposalResponsePayload.newBuilder()
+                                .setExtension(chaincodeAction.toByteString()).build().toByteString()))
+                .build();
+        return FabricTransaction.TransactionAction.newBuilder().setPayload(actionPayload.toByteString()).build();
+    }
+
+    private static ByteString envelope(String txId, FabricTransaction.TransactionAction... actions) {
+        final Common.ChannelHeader channelHeader = Common.ChannelHeader.newBuilder()
+                .setType(Common.HeaderType.ENDORSER_TRANSACTION_VALUE)
+                .setTxId(txId)
+                .setChannelId("mychannel")
+                .build();
+        final Common.Payload payload = Common.Payload.newBuilder()
+                .setHeader(Common.Header.newBuilder()
+                        .setChannelHeader(channelHeader.toByteString())
+                        .setSignatureHeader(Common.SignatureHeader.getDefaultInstance().toByteString()))
+                .setData(FabricTransaction.Transaction.newBuilder().addAllActions(Arrays.asList(actions)).build().toByteString())
+                .build();
+        return Common.Envelope.newBuilder().setPayload(payload.toByteString()).build().toByteString();
+    }
+
+    private static BlockInfo block(ByteString... envelopes) {
+        final Common.BlockMetadata.Builder metadata = Common.BlockMetadata.newBuilder();
+        for (int i = 0; i < 4; ++i)
+            metadata.addMetadata(i == Common.BlockMetadataIndex.TRANSACTIONS_FILTER_VALUE ? ByteString.copyFrom(new byte[envelopes.length]) : ByteString.EMPTY);
+        return SdkTxUtil.newBlockInfo(Common.Block.newBuilder()
+                .setHeader(Common.BlockHeader.newBuilder().setNumber(1))
+                .setData(Common.BlockData.newBuilder().addAllData(Arrays.asList(envelopes)))
+                .setMetadata(metadata)
+                .build());
+    }
+
+    private static SdkTxUtil.TransactionInfoEx firstTransaction(BlockInfo blockInfo) throws Exception {
+        return SdkTxUtil.getTransaction((BlockInfo.TransactionEnvelopeInfo) blockInfo.getEnvelopeInfo(0));
+    }
+
+    private static Rwset.NsReadWriteSet namespace(String namespace, KvRwset.KVRWSet kvRwSet) {
+        return Rwset.NsReadWriteSet.newBuilder().setNamespace(namespace).setRwset(kvRwSet.toByteString()).build();
+    }
+
+    @Test
+    public void testReadWriteSet() throws Exception {
+        final KvRwset.KVRWSet mycc = KvRwset.KVRWSet.newBuilder()
+                .addReads(KvRwset.KVRead.newBuilder().setKey("a").setVersion(KvRwset.Version.newBuilder().setBlockNum(3).setTxNum(1)))
+                .addReads(KvRwset.KVRead.newBuilder().setKey("missing"))
+                .addRangeQueriesInfo(KvRwset.RangeQueryInfo.newBuilder().setStartKey("k0").setEndKey("k9").setItrExhausted(true)
+                        .setRawReads(KvRwset.QueryReads.newBuilder().addKvReads(KvRwset.KVRead.newBuilder().setKey("k1"))))
+                .addWrites(KvRwset.KVWrite.newBuilder().setKey("a").setValue(ByteString.copyFromUtf8("value-a")))
+                .addWrites(KvRwset.KVWrite.newBuilder().setKey("b").setIsDelete(true))
+                .build();
+        final KvRwset.KVRWSet lscc = KvRwset.KVRWSet.newBuilder()
+                .addReads(KvRwset.KVRead.newBuilder().setKey("mycc"))
+                .build();
+        final Rwset.TxReadWriteSet rwset = Rwset.TxReadWriteSet.newBuilder()
+                .setDataModel(Rwset.TxReadWriteSet.DataModel.KV)
+                .addNsRwset(namespace("lscc", lscc))
+                .addNsRwset(namespace("mycc", mycc))
+                .build();
+
+        final BlockInfo blockInfo = block(envelope("tx-1", action(Arrays.asList("put", "a", "value-a"), rwset)));
+        final SdkTxUtil.ReadWriteSetInfoEx readWriteSet = firstTransaction(blockInfo).getAction(0).getReadWriteSet();
+
+        assertEquals(2, readWriteSet.getNamespaces().size());
+        assertEquals("lscc", readWriteSet.getNamespaces().get(0).getNamespace());
+        assertNull(readWriteSet.getNamespace("othercc"));
+
+        final SdkTxUtil.NsReadWriteSetEx nsReadWriteSet = readWriteSet.getNamespace("mycc");
+        assertEquals("mycc", nsReadWriteSet.getNamespace());
+        assertEquals(mycc.toByteString(), nsReadWriteSet.getRawRwSet());
+
+        final List<KvRwset.KVRead> reads = nsReadWriteSet.getReads();
+        assertEquals(2, reads.size());
+        assertEquals("a", reads.get(0).getKey());
+        assertTrue(reads.get(0).hasVersion());
+        assertEquals(3, reads.get(0).getVersion().getBlockNum());
+        assertEquals(1, reads.get(0).getVersion().getTxNum());
+        assertEquals("missing", reads.get(1).getKey());
+        assertFalse(reads.get(1).hasVersion());
+
+        final List<KvRwset.KVWrite> writes = nsReadWriteSet.getWrites();
+        assertEquals(2, writes.size());
+        assertEquals("a", writes.get(0).getKey());
+        assertFalse(writes.get(0).getIsDelete());
+        assertEquals("value-a", writes.get(0).getValue().toStringUtf8());
+        assertEquals("b", writes.get(1).getKey());
+        assertTrue(writes.get(1).getIsDelete());
+
+        final List<KvRwset.RangeQueryInfo> rangeQueries = nsReadWriteSet.getRangeQueries();
+        assertEquals(1, rangeQueries.size());
+        assertEquals("k0", rangeQueries.get(0).getStartKey());
+        assertEquals("k9", rangeQueries.get(0).getEndKey());
+        assertTrue(rangeQueries.get(0).getItrExhausted());
+        assertEquals("k1", rangeQueries.get(0).getRawReads().getKvReads(0).getKey());
+        assertTrue(nsReadWriteSet.getMetadataWrites().isEmpty());
+
+        // decoded once
+        assertSame(nsReadWriteSet.getKvRwSet(), nsReadWriteSet.getKvRwSet());
+        assertSame(readWriteSet.getNamespaces(), readWriteSet.getNamespaces());
+    }
+
+    private static FabricTransaction.TransactionAction action(String... args) {
+        return action(Arrays.asList(args), Rwset.TxReadWriteSet.getDefaultInstance());
+    }
+
+    @Test
+    public void testActionAccessors() throws Exception {
+        final BlockInfo blockInfo = block(envelope("tx-1", action("put", "a", "1"), action("get", "a")));
+        final SdkTxUtil.TransactionInfoEx transaction = firstTransaction(blockInfo);
+        assertEquals(2, transaction.getActionCount());
+
+        final SdkTxUtil.TransactionActionInfoEx action = transaction.getAction(0);
+        assertEquals(3, action.getArgsCount());
+        assertEquals(ByteString.copyFromUtf8("a"), action.getArg(1));
+        assertEquals(Arrays.asList(ByteString.copyFromUtf8("put"), ByteString.copyFromUtf8("a"), ByteString.copyFromUtf8("1")), action.getArgs());
+        assertEquals(200, action.getProposalResponseStatus());
+        assertNull(action.getEvent());
+
+        // views and parsed messages are kept
+        assertSame(action, transaction.getAction(0));
+        assertSame(action.getArgs(), action.getArgs());
+        assertSame(action.getReadWriteSet(), action.getReadWriteSet());
+        final List<SdkTxUtil.TransactionActionInfoEx> actions = new ArrayList<>();
+        transaction.getActions().forEach(actions::add);
+        assertEquals(2, actions.size());
+        assertSame(action, actions.get(0));
+        assertSame(transaction.getAction(1), actions.get(1));
+        assertEquals(2, actions.get(1).getArgsCount());
+    }
+
+    @Test
+    public void testScanActions() {
+        final BlockInfo blockInfo = block(
+                envelope("tx-0", action("tx-0", "action-0"), action("tx-0", "action-1")),
+                envelope("tx-1", action("tx-1", "action-0")),
+                envelope("tx-2", action("tx-2", "action-0"), action("tx-2", "action-1"), action("tx-2", "action-2")));
+
+        final List<String> scanned = new ArrayList<>();
+        SdkTxUtil.TransactionActionInfoEx first = null;
+        for (Iterator<SdkTxUtil.TransactionActionInfoEx> iterator = SdkTxUtil.scanActions(TxUtils.getBlockTransactions(blockInfo)); iterator.hasNext(); ) {
+            final SdkTxUtil.TransactionActionInfoEx action = iterator.next();
+            if (first == null)
+                first = action;
+            // the same view is pointed to the next action
+            assertSame(first, action);
+            assertEquals(2, action.getArgsCount());
+            scanned.add(action.getArg(0).toStringUtf8() + "/" + action.getArg(1).toStringUtf8());
+        }
+        assertEquals(Arrays.asList("tx-0/action-0", "tx-0/action-1", "tx-1/action-0", "tx-2/action-0", "tx-2/action-1", "tx-2/action-2"), scanned);
+    }
+
+}
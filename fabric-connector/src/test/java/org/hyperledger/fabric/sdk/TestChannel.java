@@ -0,0 +1,329 @@
+package org.hyperledger.fabric.sdk;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Timestamp;
+import org.hyperledger.fabric.protos.common.Common;
+import org.hyperledger.fabric.protos.common.Ledger;
+import org.hyperledger.fabric.protos.peer.*;
+import org.hyperledger.fabric.sdk.exception.InvalidArgumentException;
+import org.hyperledger.fabric.sdk.exception.ProposalException;
+import org.hyperledger.fabric.sdk.security.CryptoSuite;
+
+import java.security.PrivateKey;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Channel with in-memory ledger for tests. Blocks are appended to the ledger and delivered
+ * to the block listeners explicitly, ledger queries are answered from the ledger.
+ * <p>
+ * Transaction t of block b has id "tx-b-t", each of its actions has event of "mycc"
+ * chaincode with payload "payload-b-t-e", e is the action index.
+ */
+public class TestChannel extends Channel {
+
+    public static final String CHAINCODE_ID = "mycc";
+
+    private final List<Common.Block> ledger = new CopyOnWriteArrayList<>();
+    private final Map<String, BlockListener> blockListeners = new ConcurrentSkipListMap<>();
+    private final AtomicInteger listenerHandles = new AtomicInteger();
+    private final AtomicInteger blockQueries = new AtomicInteger();
+    private final AtomicInteger transactionQueries = new AtomicInteger();
+    private final AtomicInteger failingQueries = new AtomicInteger();
+
+    public TestChannel(String name) throws InvalidArgumentException {
+        super(name, newClient());
+    }
+
+    public static HFClient newClient() {
+        try {
+            final HFClient client = HFClient.createNewInstance();
+            client.setCryptoSuite(CryptoSuite.Factory.getCryptoSuite());
+            client.setUserContext(new User() {
+                @Override
+                public String getName() {
+                    return "user";
+                }
+
+                @Override
+                public Set<String> getRoles() {
+                    return null;
+                }
+
+                @Override
+                public String getAccount() {
+                    return null;
+                }
+
+                @Override
+                public String getAffiliation() {
+                    return null;
+                }
+
+                @Override
+                public Enrollment getEnrollment() {
+                    return new Enrollment() {
+                        @Override
+                        public PrivateKey getKey() {
+                            return null;
+                        }
+
+                        @Override
+                        public String getCert() {
+                            return "cert";
+                        }
+                    };
+                }
+
+                @Override
+                public String getMspId() {
+                    return "msp";
+                }
+            });
+            return client;
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @param transactions         number of valid transactions
+     * @param eventsPerTransaction number of actions with event per transaction
+     */
+    public static Common.Block newBlock(String channelName, long blockNumber, int transactions, int eventsPerTransaction, String eventName) {
+        final long[] timestamps = new long[transactions];
+        Arrays.fill(timestamps, (1000 + blockNumber) * 1000);
+        return newBlock(channelName, blockNumber, eventsPerTransaction, eventName, timestamps);
+    }
+
+    /**
+     * @param timestamps timestamps of the valid transactions, in milliseconds
+     */
+    public static Common.Block newBlock(String channelName, long blockNumber, int eventsPerTransaction, String eventName, long... timestamps) {
+        final int transactions = timestamps.length;
+        final Common.BlockData.Builder data = Common.BlockData.newBuilder();
+        for (int t = 0; t < transactions; ++t) {
+            final String transactionID = "tx-" + blockNumber + "-" + t;
+            final FabricTransaction.Transaction.Builder transaction = FabricTransaction.Transaction.newBuilder();
+            for (int e = 0; e < eventsPerTransaction; ++e) {
+                final ChaincodeEventOuterClass.ChaincodeEvent event = ChaincodeEventOuterClass.ChaincodeEvent.newBuilder()
+                        .setChaincodeId(CHAINCODE_ID)
+                        .setTxId(transactionID)
+                        .setEventName(eventName)
+                        .setPayload(ByteString.copyFromUtf8("payload-" + blockNumber + "-" + t + "-" + e))
+                        .build();
+                final FabricProposal.ChaincodeAction action = FabricProposal.ChaincodeAction.newBuilder()
+                        .setEvents(event.toByteString())
+                        .setResponse(FabricProposalResponse.Response.newBuilder().setStatus(200))
+                        .setChaincodeId(Chaincode.ChaincodeID.newBuilder().setName(CHAINCODE_ID))
+                        .build();
+                final FabricProposalResponse.ProposalResponsePayload responsePayload = FabricProposalResponse.ProposalResponsePayload.newBuilder()
+                        .setExtension(action.toByteString())
+                        .build();
+                final Chaincode.ChaincodeInvocationSpec invocationSpec = Chaincode.ChaincodeInvocationSpec.newBuilder()
+                        .setChaincodeSpec(Chaincode.ChaincodeSpec.newBuilder()
+                                .setInput(Chaincode.ChaincodeInput.newBuilder().addArgs(ByteString.copyFromUtf8(eventName))))
+                        .build();
+                final FabricTransaction.ChaincodeActionPayload actionPayload = FabricTransaction.ChaincodeActionPayload.newBuilder()
+                        .setChaincodeProposalPayload(FabricProposal.ChaincodeProposalPayload.newBuilder()
+                                .setInput(invocationSpec.toByteString()).build().toByteString())
+                        .setAction(FabricTransaction.ChaincodeEndorsedAction.newBuilder().setProposalResponsePayload(responsePayload.toByteString()))
+                        .build();
+                transaction.addActions(FabricTransaction.TransactionAction.newBuilder().setPayload(actionPayload.toByteString()));
+            }
+
+            final Common.ChannelHeader channelHeader = Common.ChannelHeader.newBuilder()
+                    .setType(Common.HeaderType.ENDORSER_TRANSACTION_VALUE)
+                    .setTxId(transactionID)
+                    .setChannelId(channelName)
+                    .setTimestamp(Timestamp.newBuilder().setSeconds(timestamps[t] / 1000).setNanos((int) (timestamps[t] % 1000) * 1000000))
+                    .build();
+            final Common.Payload payload = Common.Payload.newBuilder()
+                    .setHeader(Common.Header.newBuilder()
+                            .setChannelHeader(channelHeader.toByteString())
+                            .setSignatureHeader(Common.SignatureHeader.getDefaultInstance().toByteString()))
+                    .setData(transaction.build().toByteString())
+                    .build();
+            data.addData(Common.Envelope.newBuilder().setPayload(payload.toByteString()).build().toByteString());
+        }
+
+        final Common.BlockMetadata.Builder metadata = Common.BlockMetadata.newBuilder();
+        for (int i = 0; i < 4; ++i)
+            metadata.addMetadata(i == Common.BlockMetadataIndex.TRANSACTIONS_FILTER_VALUE ? ByteString.copyFrom(new byte[transactions]) : ByteString.EMPTY);
+        return Common.Block.newBuilder()
+                .setHeader(Common.BlockHeader.newBuilder().setNumber(blockNumber))
+                .setData(data)
+                .setMetadata(metadata)
+                .build();
+    }
+
+    public static PeerEvents.FilteredBlock toFilteredBlock(Common.Block block) {
+        try {
+            final PeerEvents.FilteredBlock.Builder filteredBlock = PeerEvents.FilteredBlock.newBuilder()
+                    .setNumber(block.getHeader().getNumber());
+            for (ByteString data : block.getData().getDataList()) {
+                final Common.Payload payload = Common.Payload.parseFrom(Common.Envelope.parseFrom(data).getPayload());
+                final Common.ChannelHeader channelHeader = Common.ChannelHeader.parseFrom(payload.getHeader().getChannelHeader());
+                filteredBlock.setChannelId(channelHeader.getChannelId());
+
+                final PeerEvents.FilteredTransactionActions.Builder actions = PeerEvents.FilteredTransactionActions.newBuilder();
+                for (FabricTransaction.TransactionAction action : FabricTransaction.Transaction.parseFrom(payload.getData()).getActionsList()) {
+                    final FabricTransaction.ChaincodeActionPayload actionPayload = FabricTransaction.ChaincodeActionPayload.parseFrom(action.getPayload());
+                    final FabricProposal.ChaincodeAction chaincodeAction = FabricProposal.ChaincodeAction.parseFrom(
+                            FabricProposalResponse.ProposalResponsePayload.parseFrom(actionPayload.getAction().getProposalResponsePayload()).getExtension());
+                    final ChaincodeEventOuterClass.ChaincodeEvent event = ChaincodeEventOuterClass.ChaincodeEvent.parseFrom(chaincodeAction.getEvents());
+                    actions.addChaincodeActions(PeerEvents.FilteredChaincodeAction.newBuilder().setChaincodeEvent(event.toBuilder().clearPayload()));
+                }
+                filteredBlock.addFilteredTransactions(PeerEvents.FilteredTransaction.newBuilder()
+                        .setTxid(channelHeader.getTxId())
+                        .setType(Common.HeaderType.ENDORSER_TRANSACTION)
+                        .setTxValidationCode(FabricTransaction.TxValidationCode.VALID)
+                        .setTransactionActions(actions));
+            }
+            return filteredBlock.build();
+        } catch (InvalidProtocolBufferException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    public static BlockEvent newBlockEvent(Common.Block block, Peer peer) {
+        return new BlockEvent(peer, PeerEvents.DeliverResponse.newBuilder().setBlock(block).build());
+    }
+
+    public static BlockEvent newFilteredBlockEvent(Common.Block block, Peer peer) {
+        return new BlockEvent(peer, PeerEvents.DeliverResponse.newBuilder().setFilteredBlock(toFilteredBlock(block)).build());
+    }
+
+    /**
+     * Append the next block to the ledger, without delivering it
+     */
+    public Common.Block appendBlock(int transactions, int eventsPerTransaction) {
+        return appendBlock(transactions, eventsPerTransaction, "event");
+    }
+
+    public Common.Block appendBlock(int transactions, int eventsPerTransaction, String eventName) {
+        final Common.Block block = newBlock(getName(), ledger.size(), transactions, eventsPerTransaction, eventName);
+        ledger.add(block);
+        return block;
+    }
+
+    /**
+     * Append the next block with transactions of the given timestamps, one event each
+     */
+    public Common.Block appendBlockAt(long... timestamps) {
+        final Common.Block block = newBlock(getName(), ledger.size(), 1, "event", timestamps);
+        ledger.add(block);
+        return block;
+    }
+
+    public Common.Block getLedgerBlock(long blockNumber) {
+        return ledger.get((int) blockNumber);
+    }
+
+    /**
+     * Cut the ledger to the height, as if it was restored from the backup
+     */
+    public void truncate(long height) {
+        while (ledger.size() > height)
+            ledger.remove(ledger.size() - 1);
+    }
+
+    public void deliver(Common.Block block) {
+        for (BlockListener blockListener : blockListeners.values())
+            blockListener.received(newBlockEvent(block, null));
+    }
+
+    public void deliverFiltered(Common.Block block) {
+        for (BlockListener blockListener : blockListeners.values())
+            blockListener.received(newFilteredBlockEvent(block, null));
+    }
+
+    /**
+     * Fail the next ledger queries
+     */
+    public void failQueries(int count) {
+        failingQueries.set(count);
+    }
+
+    public int getBlockQueries() {
+        return blockQueries.get();
+    }
+
+    public int getTransactionQueries() {
+        return transactionQueries.get();
+    }
+
+    private void checkFailure() throws ProposalException {
+        if (failingQueries.getAndUpdate((n) -> Math.max(n - 1, 0)) > 0)
+            throw new ProposalException("Query failed");
+    }
+
+    @Override
+    public String registerBlockListener(BlockListener listener) {
+        final String handle = String.format("listener-%08d", listenerHandles.incrementAndGet());
+        blockListeners.put(handle, listener);
+        return handle;
+    }
+
+    @Override
+    public boolean unregisterBlockListener(String handle) {
+        return blockListeners.remove(handle) != null;
+    }
+
+    @Override
+    public BlockchainInfo queryBlockchainInfo() {
+        return new BlockchainInfo(Ledger.BlockchainInfo.newBuilder().setHeight(ledger.size()).build());
+    }
+
+    @Override
+    public BlockInfo queryBlockByNumber(long blockNumber) throws ProposalException {
+        blockQueries.incrementAndGet();
+        checkFailure();
+        if (blockNumber >= ledger.size())
+            throw new ProposalException("Block not found: " + blockNumber);
+        return new BlockInfo(ledger.get((int) blockNumber));
+    }
+
+    @Override
+    public BlockInfo queryBlockByTransactionID(String transactionID) throws ProposalException {
+        blockQueries.incrementAndGet();
+        checkFailure();
+        return new BlockInfo(ledger.get((int) findTransaction(transactionID)[0]));
+    }
+
+    @Override
+    public TransactionInfo queryTransactionByID(String transactionID) throws ProposalException {
+        transactionQueries.incrementAndGet();
+        checkFailure();
+        final long[] position = findTransaction(transactionID);
+        try {
+            final Common.Envelope envelope = Common.Envelope.parseFrom(ledger.get((int) position[0]).getData().getData((int) position[1]));
+            return new TransactionInfo(transactionID, FabricTransaction.ProcessedTransaction.newBuilder()
+                    .setTransactionEnvelope(envelope)
+                    .setValidationCode(FabricTransaction.TxValidationCode.VALID_VALUE)
+                    .build());
+        } catch (InvalidProtocolBufferException e) {
+            throw new ProposalException(e);
+        }
+    }
+
+    /**
+     * @return block number and index of the transaction in the block
+     */
+    private long[] findTransaction(String transactionID) throws ProposalException {
+        final String[] parts = transactionID.split("-");
+        if (parts.length == 3 && "tx".equals(parts[0])) {
+            final long blockNumber = Long.parseLong(parts[1]);
+            final int index = Integer.parseInt(parts[2]);
+            if (blockNumber < ledger.size() && index < ledger.get((int) blockNumber).getData().getDataCount())
+                return new long[]{blockNumber, index};
+        }
+        throw new ProposalException("Transaction not found: " + transactionID);
+    }
+}